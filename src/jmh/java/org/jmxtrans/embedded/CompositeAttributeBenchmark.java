@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collection of {@link CompositeData} attributes without configured keys on the platform MBeans
+ * <code>java.lang:type=Memory</code> (<code>HeapMemoryUsage</code> and <code>NonHeapMemoryUsage</code>) and
+ * <code>java.lang:type=GarbageCollector,*</code> (<code>LastGcInfo</code>).
+ *
+ * <ul>
+ * <li>{@link #cachedKeyPlan(CompositeState)}: {@link QueryAttribute#collectMetrics(ObjectName, Object, long, Queue)}
+ * with its per {@link javax.management.openmbean.CompositeType} key plans</li>
+ * <li>{@link #uncachedKeyPlan(CompositeState)}: the former logic, listing the keys of the composite type and
+ * resolving a result name per key at each sample</li>
+ * <li>{@link #queryCollectMetrics(CompositeState)}: a full {@link Query#collectMetrics()}, JMX calls included</li>
+ * </ul>
+ *
+ * Run with <code>mvn -Pbenchmarks test-compile exec:exec -Dbenchmarks.include=CompositeAttributeBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeAttributeBenchmark {
+
+    @State(Scope.Thread)
+    public static class CompositeState {
+
+        @Param({"memory", "garbageCollector"})
+        public String mbeans;
+
+        Query query;
+
+        final List<ObjectName> objectNames = new ArrayList<ObjectName>();
+
+        final List<QueryAttribute> queryAttributes = new ArrayList<QueryAttribute>();
+
+        final List<CompositeData> values = new ArrayList<CompositeData>();
+
+        final Queue<QueryResult> results = new ArrayDeque<QueryResult>();
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+            if ("memory".equals(mbeans)) {
+                query = new Query("java.lang:type=Memory").addAttribute("HeapMemoryUsage").addAttribute("NonHeapMemoryUsage");
+            } else {
+                // make sure that LastGcInfo is not null
+                System.gc();
+                query = new Query("java.lang:type=GarbageCollector,*").addAttribute("LastGcInfo");
+            }
+            query.setResultsQueue(new DiscardingBlockingQueue<QueryResult>(1000));
+            embeddedJmxTrans.addQuery(query);
+
+            for (ObjectName objectName : embeddedJmxTrans.getMbeanServer().queryNames(query.getObjectName(), null)) {
+                for (QueryAttribute queryAttribute : query.getQueryAttributes()) {
+                    Object value = embeddedJmxTrans.getMbeanServer().getAttribute(objectName, queryAttribute.getName());
+                    if (value instanceof CompositeData) {
+                        objectNames.add(objectName);
+                        queryAttributes.add(queryAttribute);
+                        values.add((CompositeData) value);
+                    }
+                }
+            }
+            if (values.isEmpty()) {
+                throw new IllegalStateException("No CompositeData attribute found for " + query);
+            }
+        }
+    }
+
+    @Benchmark
+    public int cachedKeyPlan(CompositeState state) {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = 0; i < state.values.size(); i++) {
+            count += state.queryAttributes.get(i).collectMetrics(state.objectNames.get(i), state.values.get(i), now, state.results);
+        }
+        state.results.clear();
+        return count;
+    }
+
+    @Benchmark
+    public int uncachedKeyPlan(CompositeState state) {
+        long now = System.currentTimeMillis();
+        int count = 0;
+        for (int i = 0; i < state.values.size(); i++) {
+            QueryAttribute queryAttribute = state.queryAttributes.get(i);
+            ObjectName objectName = state.objectNames.get(i);
+            CompositeData compositeData = state.values.get(i);
+            String[] keys = compositeData.getCompositeType().keySet().toArray(new String[0]);
+            for (String key : keys) {
+                String resultName = queryAttribute.getResultNameStrategy().getResultName(state.query, objectName, queryAttribute, key);
+                Object compositeValue = compositeData.get(key);
+                if (compositeValue instanceof Number || compositeValue instanceof String || compositeValue instanceof Date) {
+                    state.results.add(QueryResult.newQueryResult(resultName, queryAttribute.getType(), compositeValue, now));
+                    count++;
+                }
+            }
+        }
+        state.results.clear();
+        return count;
+    }
+
+    @Benchmark
+    public int queryCollectMetrics(CompositeState state) {
+        state.query.collectMetrics();
+        int count = state.query.getResults().size();
+        state.query.getResults().clear();
+        return count;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compare {@link DiscardingBlockingQueue} and {@link DiscardingRingBuffer} with 4 collector threads offering results
+ * and 1, 2 or 4 exporter threads draining them by batches.
+ *
+ * Run with <code>mvn -Pbenchmarks test-compile exec:exec -Dbenchmarks.include=DiscardingQueueBenchmark</code>,
+ * the number of producers can be changed with the JMH <code>-tg</code> option.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscardingQueueBenchmark {
+
+    private static final Integer ELEMENT = 42;
+
+    @State(Scope.Group)
+    public static class QueueState {
+
+        @Param({"blockingQueue", "ringBuffer"})
+        public String queueType;
+
+        @Param({"1000"})
+        public int capacity;
+
+        @Param({"100"})
+        public int batchSize;
+
+        BlockingQueue<Integer> queue;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            if ("ringBuffer".equals(queueType)) {
+                queue = new DiscardingRingBuffer<Integer>(capacity);
+            } else {
+                queue = new DiscardingBlockingQueue<Integer>(capacity);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DrainBuffer {
+        final List<Integer> elements = new ArrayList<Integer>();
+    }
+
+    private static boolean offer(QueueState state) {
+        return state.queue.offer(ELEMENT);
+    }
+
+    private static int drain(QueueState state, DrainBuffer buffer) {
+        int size = state.queue.drainTo(buffer.elements, state.batchSize);
+        buffer.elements.clear();
+        return size;
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(4)
+    public boolean p4c1Offer(QueueState state) {
+        return offer(state);
+    }
+
+    @Benchmark
+    @Group("p4c1")
+    @GroupThreads(1)
+    public int p4c1Drain(QueueState state, DrainBuffer buffer) {
+        return drain(state, buffer);
+    }
+
+    @Benchmark
+    @Group("p4c2")
+    @GroupThreads(4)
+    public boolean p4c2Offer(QueueState state) {
+        return offer(state);
+    }
+
+    @Benchmark
+    @Group("p4c2")
+    @GroupThreads(2)
+    public int p4c2Drain(QueueState state, DrainBuffer buffer) {
+        return drain(state, buffer);
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public boolean p4c4Offer(QueueState state) {
+        return offer(state);
+    }
+
+    @Benchmark
+    @Group("p4c4")
+    @GroupThreads(4)
+    public int p4c4Drain(QueueState state, DrainBuffer buffer) {
+        return drain(state, buffer);
+    }
+}
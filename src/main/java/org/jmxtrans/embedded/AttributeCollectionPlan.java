@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import java.util.*;
+
+/**
+ * Immutable list of the attributes of a {@link Query} that are worth fetching on a given {@link ObjectName}, built
+ * once from its {@link MBeanInfo}: attributes that are not readable or whose declared type can never be a
+ * {@link Number}, a {@link String}, a {@link Date} or a {@link CompositeData} are left out so that they are not
+ * fetched, deserialized and discarded at each collection.
+ *
+ * The declared type is trusted (e.g. a {@code javax.management.openmbean.TabularData} or a {@code boolean} attribute
+ * is skipped). Attributes whose type can not be resolved are kept, as well as attributes not declared in the
+ * {@link MBeanInfo} unless the MBean advertises an immutable {@link MBeanInfo}.
+ */
+final class AttributeCollectionPlan {
+
+    private static final Logger logger = LoggerFactory.getLogger(AttributeCollectionPlan.class);
+
+    private static final Class<?>[] SUPPORTED_TYPES = {Number.class, String.class, Date.class, CompositeData.class};
+
+    private static final Set<String> SUPPORTED_PRIMITIVE_TYPES = new HashSet<String>(Arrays.asList(
+            "byte", "short", "int", "long", "float", "double"));
+
+    private static final Set<String> UNSUPPORTED_PRIMITIVE_TYPES = new HashSet<String>(Arrays.asList(
+            "boolean", "char", "void"));
+
+    /**
+     * {@link Query} attribute names from which this plan has been built, compared by identity to detect changes.
+     */
+    @Nonnull
+    private final String[] queryAttributeNames;
+
+    @Nonnull
+    private final String[] attributeNames;
+
+    @Nonnull
+    private final QueryAttribute[] attributes;
+
+    private AttributeCollectionPlan(@Nonnull String[] queryAttributeNames, @Nonnull List<QueryAttribute> attributes) {
+        this.queryAttributeNames = queryAttributeNames;
+        this.attributes = attributes.toArray(new QueryAttribute[attributes.size()]);
+        this.attributeNames = new String[this.attributes.length];
+        for (int i = 0; i < this.attributes.length; i++) {
+            attributeNames[i] = this.attributes[i].getName();
+        }
+    }
+
+    /**
+     * Plan fetching all the given attributes, used when the {@link MBeanInfo} can not be obtained.
+     */
+    @Nonnull
+    static AttributeCollectionPlan newUnfilteredPlan(@Nonnull String[] queryAttributeNames, @Nonnull Map<String, QueryAttribute> attributesByName) {
+        List<QueryAttribute> attributes = new ArrayList<QueryAttribute>(queryAttributeNames.length);
+        for (String attributeName : queryAttributeNames) {
+            QueryAttribute attribute = attributesByName.get(attributeName);
+            if (attribute != null) {
+                attributes.add(attribute);
+            }
+        }
+        return new AttributeCollectionPlan(queryAttributeNames, attributes);
+    }
+
+    @Nonnull
+    static AttributeCollectionPlan newPlan(@Nonnull MBeanServer mbeanServer, @Nonnull ObjectName objectName,
+                                           @Nonnull String[] queryAttributeNames, @Nonnull Map<String, QueryAttribute> attributesByName)
+            throws InstanceNotFoundException, IntrospectionException, ReflectionException {
+        MBeanInfo mbeanInfo = mbeanServer.getMBeanInfo(objectName);
+        Map<String, MBeanAttributeInfo> attributeInfoByName = new HashMap<String, MBeanAttributeInfo>();
+        for (MBeanAttributeInfo attributeInfo : mbeanInfo.getAttributes()) {
+            attributeInfoByName.put(attributeInfo.getName(), attributeInfo);
+        }
+        boolean immutableInfo = "true".equals(String.valueOf(mbeanInfo.getDescriptor().getFieldValue("immutableInfo")));
+        ClassLoader classLoader;
+        try {
+            classLoader = mbeanServer.getClassLoaderFor(objectName);
+        } catch (SecurityException e) {
+            classLoader = null;
+        }
+
+        List<QueryAttribute> attributes = new ArrayList<QueryAttribute>(queryAttributeNames.length);
+        List<String> skippedAttributeNames = new ArrayList<String>();
+        for (String attributeName : queryAttributeNames) {
+            QueryAttribute attribute = attributesByName.get(attributeName);
+            if (attribute == null) {
+                continue;
+            }
+            MBeanAttributeInfo attributeInfo = attributeInfoByName.get(attributeName);
+            if (attributeInfo == null ? !immutableInfo : attributeInfo.isReadable() && isPossiblySupportedType(attributeInfo.getType(), classLoader)) {
+                attributes.add(attribute);
+            } else {
+                skippedAttributeNames.add(attributeName);
+            }
+        }
+        if (!skippedAttributeNames.isEmpty()) {
+            logger.info("Skip attributes {} of {} that are not readable or that are not of a Number, String, Date or CompositeData type",
+                    skippedAttributeNames, objectName);
+        }
+        return new AttributeCollectionPlan(queryAttributeNames, attributes);
+    }
+
+    /**
+     * @return <code>false</code> if a value of the given type can never be a {@link Number}, a {@link String},
+     * a {@link Date} or a {@link CompositeData}
+     */
+    static boolean isPossiblySupportedType(@Nullable String type, @Nullable ClassLoader classLoader) {
+        if (type == null || SUPPORTED_PRIMITIVE_TYPES.contains(type)) {
+            return true;
+        }
+        if (UNSUPPORTED_PRIMITIVE_TYPES.contains(type)) {
+            return false;
+        }
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(type, false, classLoader == null ? AttributeCollectionPlan.class.getClassLoader() : classLoader);
+        } catch (ClassNotFoundException e) {
+            return true;
+        } catch (LinkageError e) {
+            return true;
+        }
+        for (Class<?> supportedType : SUPPORTED_TYPES) {
+            // e.g. 'java.lang.Long' is a Number and a value declared as 'java.lang.Object' or 'java.lang.Comparable' may be one
+            if (supportedType.isAssignableFrom(clazz) || clazz.isAssignableFrom(supportedType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean isUpToDate(@Nonnull String[] queryAttributeNames) {
+        return this.queryAttributeNames == queryAttributeNames;
+    }
+
+    /**
+     * @return <code>true</code> if none of the attributes of the {@link Query} is worth fetching. A {@link Query} that
+     * declares no attribute is not empty: it collects the attributes that dynamic MBeans return anyway.
+     */
+    boolean isEmpty() {
+        return attributeNames.length == 0 && queryAttributeNames.length > 0;
+    }
+
+    /**
+     * Names of the attributes to fetch, to be used with {@link MBeanServer#getAttributes(ObjectName, String[])}.
+     */
+    @Nonnull
+    String[] getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * @param index         index of the given <code>attributeName</code> in the {@link AttributeList} returned by the
+     *                      {@link MBeanServer}, it usually matches the index in {@link #getAttributeNames()}
+     * @return the {@link QueryAttribute} or <code>null</code> if <code>attributeName</code> is not part of this plan
+     */
+    @Nullable
+    QueryAttribute getAttribute(int index, @Nonnull String attributeName) {
+        if (index < attributes.length && attributeNames[index].equals(attributeName)) {
+            return attributes[index];
+        }
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributeNames[i].equals(attributeName)) {
+                return attributes[i];
+            }
+        }
+        return null;
+    }
+}
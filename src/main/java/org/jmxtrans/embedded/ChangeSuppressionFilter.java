@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.jmxtrans.embedded.util.SeriesIndex;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drop the {@link QueryResult}s whose value is equal to the last value accepted for the same name, unless this value
+ * was accepted more than {@link #getHeartbeatIntervalInMillis()} ago.
+ *
+ * As in {@link CounterToRateConverter}, series are identified by a {@link SeriesIndex} id and primitive values are
+ * stored in arrays indexed by this id. A series whose last value was accepted more than a heartbeat ago is in the same
+ * state as an unknown series, it is purged before the arrays are grown.
+ *
+ * Thread safe.
+ */
+public class ChangeSuppressionFilter {
+
+    public static final int DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS = 300;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private final long heartbeatIntervalInMillis;
+
+    @Nonnull
+    private final SeriesIndex seriesIndex = new SeriesIndex(DEFAULT_INITIAL_CAPACITY);
+
+    /**
+     * Last accepted values by series id: primitive values (see {@link QueryResult.ValueType}) in {@link #values},
+     * other values in {@link #objectValues}.
+     */
+    @Nonnull
+    private long[] values;
+
+    @Nonnull
+    private Object[] objectValues;
+
+    @Nonnull
+    private QueryResult.ValueType[] valueTypes;
+
+    @Nonnull
+    private long[] acceptedEpochsInMillis;
+
+    @Nonnull
+    private final AtomicLong suppressedResultsCount = new AtomicLong();
+
+    public ChangeSuppressionFilter() {
+        this(TimeUnit.MILLISECONDS.convert(DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS, TimeUnit.SECONDS));
+    }
+
+    /**
+     * @param heartbeatIntervalInMillis max time during which an unchanged value is suppressed
+     */
+    public ChangeSuppressionFilter(long heartbeatIntervalInMillis) {
+        this.heartbeatIntervalInMillis = heartbeatIntervalInMillis;
+        int capacity = seriesIndex.getIdCapacity();
+        this.values = new long[capacity];
+        this.objectValues = new Object[capacity];
+        this.valueTypes = new QueryResult.ValueType[capacity];
+        this.acceptedEpochsInMillis = new long[capacity];
+    }
+
+    /**
+     * @return <code>false</code> if the given result must be suppressed because its value has not changed since it
+     * was last accepted less than a heartbeat ago
+     */
+    public synchronized boolean accept(@Nonnull QueryResult result) {
+        if (isSuppressed(result)) {
+            return false;
+        }
+        record(result);
+        return true;
+    }
+
+    /**
+     * @return the accepted results of the given list, the given list itself if no result is suppressed
+     */
+    @Nonnull
+    public List<QueryResult> filter(@Nonnull List<QueryResult> results) {
+        List<QueryResult> accepted = null;
+        for (int i = 0; i < results.size(); i++) {
+            QueryResult result = results.get(i);
+            if (accept(result)) {
+                if (accepted != null) {
+                    accepted.add(result);
+                }
+            } else if (accepted == null) {
+                accepted = new ArrayList<QueryResult>(results.subList(0, i));
+            }
+        }
+        return accepted == null ? results : accepted;
+    }
+
+    /**
+     * Same as {@link #filter(List)} without recording the values of the returned results: the caller records them
+     * with {@link #recordAccepted(Iterable)} once they are written, so that a failed write doesn't suppress them
+     * until the next heartbeat.
+     *
+     * @return the results of the given list that are not suppressed, the given list itself if no result is suppressed
+     */
+    @Nonnull
+    public List<QueryResult> filterUnchanged(@Nonnull List<QueryResult> results) {
+        List<QueryResult> accepted = null;
+        for (int i = 0; i < results.size(); i++) {
+            QueryResult result = results.get(i);
+            boolean suppressed;
+            synchronized (this) {
+                suppressed = isSuppressed(result);
+            }
+            if (!suppressed) {
+                if (accepted != null) {
+                    accepted.add(result);
+                }
+            } else if (accepted == null) {
+                accepted = new ArrayList<QueryResult>(results.subList(0, i));
+            }
+        }
+        return accepted == null ? results : accepted;
+    }
+
+    /**
+     * Record the values of the given results, returned by {@link #filterUnchanged(List)} and written.
+     */
+    public synchronized void recordAccepted(@Nonnull Iterable<QueryResult> results) {
+        for (QueryResult result : results) {
+            record(result);
+        }
+    }
+
+    /**
+     * Must be called with the lock held.
+     *
+     * @return <code>true</code> if the value of the given result has not changed since it was last accepted less than
+     * a heartbeat ago
+     */
+    private boolean isSuppressed(@Nonnull QueryResult result) {
+        int id = seriesIndex.indexOf(result.getName());
+        QueryResult.ValueType valueType = result.getValueType();
+        if (id < 0 || result.getEpochInMillis() - acceptedEpochsInMillis[id] >= heartbeatIntervalInMillis || valueTypes[id] != valueType) {
+            return false;
+        }
+        boolean unchanged;
+        switch (valueType) {
+            case LONG:
+                unchanged = values[id] == result.getLongValue();
+                break;
+            case DOUBLE:
+                unchanged = values[id] == Double.doubleToRawLongBits(result.getDoubleValue());
+                break;
+            default:
+                Object value = result.getValue();
+                unchanged = value == null ? objectValues[id] == null : value.equals(objectValues[id]);
+        }
+        if (unchanged) {
+            suppressedResultsCount.incrementAndGet();
+        }
+        return unchanged;
+    }
+
+    /**
+     * Record the value of the given result as the last accepted one of its series. Must be called with the lock held.
+     */
+    private void record(@Nonnull QueryResult result) {
+        String name = result.getName();
+        long epochInMillis = result.getEpochInMillis();
+        QueryResult.ValueType valueType = result.getValueType();
+
+        int id = seriesIndex.indexOf(name);
+        if (id < 0) {
+            if (seriesIndex.size() == seriesIndex.getIdCapacity()) {
+                purgeExpiredSeries(epochInMillis);
+            }
+            id = seriesIndex.add(name);
+            if (id >= values.length) {
+                int capacity = seriesIndex.getIdCapacity();
+                values = Arrays.copyOf(values, capacity);
+                objectValues = Arrays.copyOf(objectValues, capacity);
+                valueTypes = Arrays.copyOf(valueTypes, capacity);
+                acceptedEpochsInMillis = Arrays.copyOf(acceptedEpochsInMillis, capacity);
+            }
+        }
+
+        valueTypes[id] = valueType;
+        acceptedEpochsInMillis[id] = epochInMillis;
+        switch (valueType) {
+            case LONG:
+                values[id] = result.getLongValue();
+                objectValues[id] = null;
+                break;
+            case DOUBLE:
+                values[id] = Double.doubleToRawLongBits(result.getDoubleValue());
+                objectValues[id] = null;
+                break;
+            default:
+                objectValues[id] = result.getValue();
+        }
+    }
+
+    public long getHeartbeatIntervalInMillis() {
+        return heartbeatIntervalInMillis;
+    }
+
+    public long getSuppressedResultsCount() {
+        return suppressedResultsCount.get();
+    }
+
+    /**
+     * @return number of tracked series
+     */
+    public synchronized int size() {
+        return seriesIndex.size();
+    }
+
+    private void purgeExpiredSeries(long nowInMillis) {
+        for (int id = 0; id < seriesIndex.getIdCapacity(); id++) {
+            if (seriesIndex.getName(id) != null && nowInMillis - acceptedEpochsInMillis[id] >= heartbeatIntervalInMillis) {
+                seriesIndex.remove(id);
+                objectValues[id] = null;
+            }
+        }
+    }
+}
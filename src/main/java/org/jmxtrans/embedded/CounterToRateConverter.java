@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.jmxtrans.embedded.util.SeriesIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Convert the values of monotonically increasing counters into per-second rates.
+ *
+ * Each series gets an id from a {@link SeriesIndex} and its last value and timestamp are stored in primitive arrays
+ * indexed by this id, so a series costs a few tens of bytes and no object is allocated per sample.
+ *
+ * The first sample of a series only records the baseline. If a counter decreases, it is considered as reset and the
+ * new value is used as the delta. Series that have not been updated for {@link #getSeriesExpiryInMillis()} are purged
+ * before the arrays are grown.
+ *
+ * Thread safe.
+ */
+public class CounterToRateConverter {
+
+    /**
+     * Type of the attributes whose values are converted (see {@link QueryAttribute#getType()}).
+     */
+    public static final String COUNTER_METRIC_TYPE = "counter";
+
+    /**
+     * Type of the {@link QueryResult}s holding the rates.
+     */
+    public static final String RATE_METRIC_TYPE = "gauge";
+
+    public static final long DEFAULT_SERIES_EXPIRY_IN_MILLIS = TimeUnit.MILLISECONDS.convert(10, TimeUnit.MINUTES);
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private static final byte LONG_VALUE = 1;
+
+    private static final byte DOUBLE_VALUE = 2;
+
+    private final long seriesExpiryInMillis;
+
+    @Nonnull
+    private final SeriesIndex seriesIndex;
+
+    /**
+     * Last values by series id, as a <code>long</code> or as the raw bits of a <code>double</code> (see {@link #valueKinds}).
+     */
+    @Nonnull
+    private long[] values;
+
+    @Nonnull
+    private byte[] valueKinds;
+
+    @Nonnull
+    private long[] epochsInMillis;
+
+    public CounterToRateConverter() {
+        this(DEFAULT_INITIAL_CAPACITY, DEFAULT_SERIES_EXPIRY_IN_MILLIS);
+    }
+
+    /**
+     * @param initialCapacity      number of series that can be tracked before the arrays are grown
+     * @param seriesExpiryInMillis series not updated for this time are purged before the arrays are grown
+     */
+    public CounterToRateConverter(int initialCapacity, long seriesExpiryInMillis) {
+        this.seriesExpiryInMillis = seriesExpiryInMillis;
+        this.seriesIndex = new SeriesIndex(initialCapacity);
+        int capacity = seriesIndex.getIdCapacity();
+        this.values = new long[capacity];
+        this.valueKinds = new byte[capacity];
+        this.epochsInMillis = new long[capacity];
+    }
+
+    /**
+     * @param counter sample of a counter
+     * @return the rate per second of the counter since its previous sample, <code>counter</code> itself if its value
+     * is not numeric or <code>null</code> if no rate can be computed yet (first sample of the series)
+     */
+    @Nullable
+    public synchronized QueryResult toRate(@Nonnull QueryResult counter) {
+        if (!counter.isNumeric()) {
+            return counter;
+        }
+        String name = counter.getName();
+        long epochInMillis = counter.getEpochInMillis();
+        byte valueKind;
+        long value;
+        if (counter.getValueType() == QueryResult.ValueType.LONG) {
+            valueKind = LONG_VALUE;
+            value = counter.getLongValue();
+        } else {
+            valueKind = DOUBLE_VALUE;
+            value = Double.doubleToRawLongBits(counter.getDoubleValue());
+        }
+
+        int id = seriesIndex.indexOf(name);
+        if (id < 0) {
+            if (seriesIndex.size() == seriesIndex.getIdCapacity()) {
+                purgeExpiredSeries(epochInMillis);
+            }
+            id = seriesIndex.add(name);
+            if (id >= values.length) {
+                int capacity = seriesIndex.getIdCapacity();
+                values = Arrays.copyOf(values, capacity);
+                valueKinds = Arrays.copyOf(valueKinds, capacity);
+                epochsInMillis = Arrays.copyOf(epochsInMillis, capacity);
+            }
+            store(id, valueKind, value, epochInMillis);
+            return null;
+        }
+
+        long elapsedInMillis = epochInMillis - epochsInMillis[id];
+        if (elapsedInMillis <= 0) {
+            return null;
+        }
+        double delta;
+        if (valueKinds[id] != valueKind) {
+            // value type changed (e.g. MBean replaced), restart from this sample
+            store(id, valueKind, value, epochInMillis);
+            return null;
+        } else if (valueKind == LONG_VALUE) {
+            long previousValue = values[id];
+            delta = value >= previousValue ? (double) (value - previousValue) : (double) value;
+        } else {
+            double previousValue = Double.longBitsToDouble(values[id]);
+            double currentValue = Double.longBitsToDouble(value);
+            delta = currentValue >= previousValue ? currentValue - previousValue : currentValue;
+        }
+        store(id, valueKind, value, epochInMillis);
+        return new QueryResult(name, RATE_METRIC_TYPE, delta * 1000 / elapsedInMillis, epochInMillis);
+    }
+
+    /**
+     * @return number of tracked series
+     */
+    public synchronized int size() {
+        return seriesIndex.size();
+    }
+
+    public long getSeriesExpiryInMillis() {
+        return seriesExpiryInMillis;
+    }
+
+    private void store(int id, byte valueKind, long value, long epochInMillis) {
+        valueKinds[id] = valueKind;
+        values[id] = value;
+        epochsInMillis[id] = epochInMillis;
+    }
+
+    private void purgeExpiredSeries(long nowInMillis) {
+        for (int id = 0; id < seriesIndex.getIdCapacity(); id++) {
+            if (seriesIndex.getName(id) != null && nowInMillis - epochsInMillis[id] >= seriesExpiryInMillis) {
+                seriesIndex.remove(id);
+            }
+        }
+    }
+}
@@ -23,8 +23,17 @@
  */
 package org.jmxtrans.embedded;
 
+import org.jmxtrans.embedded.output.AbstractOutputWriter;
+import org.jmxtrans.embedded.output.AbstractOutputWriterMBean;
+import org.jmxtrans.embedded.output.ExportLane;
 import org.jmxtrans.embedded.output.OutputWriter;
+import org.jmxtrans.embedded.util.LatencyHistogram;
+import org.jmxtrans.embedded.util.ModificationCountingSet;
+import org.jmxtrans.embedded.util.Preconditions;
+import org.jmxtrans.embedded.util.concurrent.DiscardingRingBuffer;
 import org.jmxtrans.embedded.util.concurrent.NamedThreadFactory;
+import org.jmxtrans.embedded.util.concurrent.VirtualThreads;
+import org.jmxtrans.embedded.util.jmx.JmxUtils2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -33,14 +42,30 @@ import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -66,8 +91,15 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * to a backend (see {@link org.jmxtrans.embedded.Query#exportCollectedMetrics()}) and the size limit of the results list to prevent
  * {@linkplain OutOfMemoryError} in case of export slowness.
  *
- * An optimization would be, if only one {@linkplain OutputWriter} is defined in the whole {@linkplain EmbeddedJmxTrans}, to
- * replace all the query-local result queues by one global result-queue.
+ * If {@link #getGlobalResultsQueueCapacity()} is greater than <code>0</code>, the queries that don't declare their own
+ * {@linkplain OutputWriter}s nor their own results queue (see {@link Query#isResultsQueueConfigured()}) replace their
+ * query-local result queue, until {@link #stop()}, by one global lock-free ring buffer
+ * ({@link DiscardingRingBuffer}) that is exported in one pass to the global {@linkplain OutputWriter}s
+ * (see {@link #exportGlobalCollectedMetrics()}) instead of one export task per query.
+ *
+ * If {@link #getExportLaneCapacity()} is greater than <code>0</code>, each {@linkplain OutputWriter} gets its own
+ * bounded queue and dispatch task ({@link ExportLane}), the export tasks only hand off the results to the lanes
+ * so that a slow {@linkplain OutputWriter} doesn't delay the others.
  *
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  * @author Jon Stevens
@@ -134,35 +166,231 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
     enum State {STOPPED, STARTED, ERROR}
 
+    /**
+     * How the collect and export tasks are executed.
+     */
+    public enum ExecutionMode {
+        /**
+         * Tasks run on the scheduled executors' threads (see {@link #getNumQueryThreads()} and {@link #getNumExportThreads()}).
+         */
+        PLATFORM,
+        /**
+         * The scheduled executors only fire the ticks, each collect and export task runs on its own virtual thread
+         * (JDK 21+, fall back to {@link #PLATFORM} on older JVMs).
+         */
+        VIRTUAL
+    }
+
     private State state = State.STOPPED;
 
     private final ReadWriteLock lifecycleLock = new ReentrantReadWriteLock();
 
     private ScheduledExecutorService collectScheduledExecutor;
 
+    /**
+     * Collect executor dedicated to the {@link Query.Priority#HIGH} priority queries, <code>null</code> if there is none.
+     */
+    @Nullable
+    private ScheduledExecutorService highPriorityCollectScheduledExecutor;
+
     private ScheduledExecutorService exportScheduledExecutor;
 
+    @Nonnull
+    private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+    /**
+     * {@link #executionMode} resolved at {@link #start()}, <code>null</code> if not started.
+     */
+    @Nullable
+    private volatile ExecutionMode effectiveExecutionMode;
+
+    /**
+     * Virtual thread per task executor used in {@link ExecutionMode#VIRTUAL}, <code>null</code> otherwise.
+     */
+    @Nullable
+    private ExecutorService taskExecutor;
+
     @Nonnull
     private MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
 
+    private static final AtomicInteger instanceIdSequence = new AtomicInteger();
+
+    /**
+     * Component of the {@link ObjectName}s of the MBeans registered by this instance, so that several instances
+     * (e.g. several web applications) can share the same {@link MBeanServer}.
+     */
+    @Nonnull
+    private final String instanceId = "jmxtrans-" + instanceIdSequence.getAndIncrement();
+
     @Nonnull
     private final List<Query> queries = new ArrayList<Query>();
 
     /**
      * Use a {@linkplain Set} to deduplicate during configuration merger
      */
-    private Set<OutputWriter> outputWriters = new HashSet<OutputWriter>();
+    private final ModificationCountingSet<OutputWriter> outputWriters = new ModificationCountingSet<OutputWriter>();
+
+    /**
+     * Cache of the enabled global {@link OutputWriter}s used by {@link #exportGlobalCollectedMetrics()}.
+     */
+    @Nullable
+    private volatile OutputWriterRouting globalOutputWriterRouting;
 
     private int numQueryThreads = 1;
 
     private int numExportThreads = 1;
 
-    private int queryIntervalInSeconds = 30;
+    /**
+     * Size of the {@link #collectForkJoinPool}.
+     */
+    private int numCollectForkJoinThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Pool in which the queries with a {@link Query#getCollectParallelism()} greater than <code>1</code> split the
+     * collection of their matching {@link javax.management.ObjectName}s. <code>null</code> if no query needs it.
+     */
+    @Nullable
+    private volatile ForkJoinPool collectForkJoinPool;
+
+    /**
+     * Default collection interval of the queries.
+     */
+    public static final int DEFAULT_QUERY_INTERVAL_IN_SECONDS = 30;
+
+    private int queryIntervalInSeconds = DEFAULT_QUERY_INTERVAL_IN_SECONDS;
 
     private int exportIntervalInSeconds = 5;
 
     private int exportBatchSize = 50;
 
+    /**
+     * Period of the full resync of the {@link javax.management.ObjectName}s matched by each {@link Query}
+     * in between which the {@link javax.management.MBeanServerDelegate} registration notifications are used.
+     * <code>0</code> or negative to query the {@link MBeanServer} at each collection.
+     */
+    private int objectNameCacheResyncIntervalInSeconds = 300;
+
+    /**
+     * If <code>true</code>, all the queries are collected together at fixed rate on wall clock boundaries that are
+     * multiple of {@link #queryIntervalInSeconds} (e.g. :00, :10, :20...) with a single timestamp per round.
+     */
+    private boolean alignCollectionOnWallClock = false;
+
+    /**
+     * If <code>true</code>, the values of the attributes of type "{@code counter}" are exported as per-second rates
+     * (see {@link CounterToRateConverter}).
+     */
+    private boolean convertCountersToRates = false;
+
+    @Nonnull
+    private final AtomicInteger collectOverrunCount = new AtomicInteger();
+
+    /**
+     * Capacity of the {@link ExportLane} of each {@link OutputWriter}, <code>0</code> (default) to write synchronously
+     * in the export tasks.
+     */
+    private int exportLaneCapacity = 0;
+
+    /**
+     * {@link ExportLane}s by {@link OutputWriter}, empty if {@link #exportLaneCapacity} is <code>0</code>.
+     */
+    @Nonnull
+    private volatile Map<OutputWriter, ExportLane> exportLanes = Collections.emptyMap();
+
+    /**
+     * {@link ChangeSuppressionFilter}s of the {@link OutputWriter}s configured with the
+     * {@link AbstractOutputWriter#SETTING_SUPPRESS_UNCHANGED_VALUES} setting. Values are recorded once successfully
+     * written.
+     */
+    @Nonnull
+    private volatile Map<OutputWriter, ChangeSuppressionFilter> outputWriterChangeSuppressionFilters = Collections.emptyMap();
+
+    @Nonnull
+    private final List<ObjectName> exportLaneObjectNames = new ArrayList<ObjectName>();
+
+    /**
+     * {@link ObjectName}s of the {@link AbstractOutputWriterMBean}s of the global {@link OutputWriter}s.
+     */
+    @Nonnull
+    private final List<ObjectName> outputWriterObjectNames = new ArrayList<ObjectName>();
+
+    @Nullable
+    private ExecutorService exportLaneExecutor;
+
+    /**
+     * Timeout of the {@link MBeanServer#getAttributes(javax.management.ObjectName, String[])} calls,
+     * <code>0</code> (default) to call the {@link MBeanServer} directly in the collect thread without timeout.
+     */
+    private long mbeanCallTimeoutInMillis = 0;
+
+    /**
+     * See {@link SlowMBeanQuarantine#getQuarantineThreshold()}.
+     */
+    private int mbeanQuarantineThreshold = 3;
+
+    /**
+     * See {@link SlowMBeanQuarantine#getQuarantinePollingRatio()}.
+     */
+    private int mbeanQuarantinePollingRatio = 10;
+
+    /**
+     * Maximum number of threads running the calls to the MBeans, see {@link SlowMBeanQuarantine}.
+     * Calls exceeding it fail fast and are retried at the next collection.
+     */
+    private int mbeanCallMaxThreads = 8;
+
+    /**
+     * <code>null</code> if {@link #mbeanCallTimeoutInMillis} is <code>0</code>.
+     */
+    @Nullable
+    private volatile SlowMBeanQuarantine slowMBeanQuarantine;
+
+    @Nullable
+    private ObjectName slowMBeanQuarantineObjectName;
+
+    @Nullable
+    private ExecutorService mbeanCallExecutor;
+
+    /**
+     * Capacity of the {@link #globalResultsQueue}, <code>0</code> (default) to disable it and use query-local result queues.
+     */
+    private int globalResultsQueueCapacity = 0;
+
+    /**
+     * Results queue shared by the queries that don't declare their own {@link OutputWriter}s.
+     * <code>null</code> if {@link #globalResultsQueueCapacity} is <code>0</code>.
+     */
+    @Nullable
+    private volatile DiscardingRingBuffer<QueryResult> globalResultsQueue;
+
+    /**
+     * Query-local results queues replaced by the {@link #globalResultsQueue}, restored at {@link #stop()}.
+     * Guarded by the {@link #lifecycleLock}.
+     */
+    @Nonnull
+    private final Map<Query, BlockingQueue<QueryResult>> resultsQueuesReplacedByGlobalResultsQueue = new IdentityHashMap<Query, BlockingQueue<QueryResult>>();
+
+    @Nonnull
+    private final AtomicInteger globalExportedMetricsCount = new AtomicInteger();
+
+    @Nonnull
+    private final AtomicLong globalExportDurationInNanos = new AtomicLong();
+
+    /**
+     * Durations of the collections of all the queries.
+     */
+    @Nonnull
+    private final LatencyHistogram collectionDurationHistogram = new LatencyHistogram();
+
+    /**
+     * Durations of the exports of all the queries and of the global results queue.
+     */
+    @Nonnull
+    private final LatencyHistogram exportDurationHistogram = new LatencyHistogram();
+
+    @Nonnull
+    private final AtomicInteger globalExportCount = new AtomicInteger();
+
     private EmbeddedJmxTransShutdownHook shutdownHook;
 
     /**
@@ -181,25 +409,121 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
             for (Query query : queries) {
                 query.start();
             }
+            int outputWriterIndex = 0;
             for (OutputWriter outputWriter : outputWriters) {
                 outputWriter.start();
+                ObjectName objectName = registerOutputWriter(outputWriter, String.valueOf(outputWriterIndex++));
+                if (objectName != null) {
+                    outputWriterObjectNames.add(objectName);
+                }
+            }
+
+            if (getGlobalResultsQueueCapacity() > 0) {
+                globalResultsQueue = new DiscardingRingBuffer<QueryResult>(getGlobalResultsQueueCapacity());
+                for (Query query : queries) {
+                    if (!query.getOutputWriters().isEmpty()) {
+                        continue;
+                    }
+                    if (query.isResultsQueueConfigured()) {
+                        logger.warn("Keep the results queue configured on query {} instead of the global results queue", query);
+                        continue;
+                    }
+                    resultsQueuesReplacedByGlobalResultsQueue.put(query, query.getResults());
+                    query.replaceResultsQueue(globalResultsQueue);
+                }
+                logger.info("Use a global results queue with a capacity of {}", getGlobalResultsQueueCapacity());
+            } else {
+                globalResultsQueue = null;
+            }
+
+            for (Query query : queries) {
+                if (query.getCollectParallelism() > 1) {
+                    collectForkJoinPool = newCollectForkJoinPool();
+                    logger.info("Use a collect fork-join pool with a parallelism of {}", getNumCollectForkJoinThreads());
+                    break;
+                }
+            }
+
+            if (ExecutionMode.VIRTUAL.equals(executionMode)) {
+                taskExecutor = VirtualThreads.newVirtualThreadPerTaskExecutor("jmxtrans-task-");
+                if (taskExecutor == null) {
+                    logger.warn("Virtual threads are not supported by this JVM ({}), fall back to execution mode {}",
+                            System.getProperty("java.version"), ExecutionMode.PLATFORM);
+                } else {
+                    logger.info("Run collect and export tasks on virtual threads");
+                }
+            } else {
+                taskExecutor = null;
+            }
+            effectiveExecutionMode = taskExecutor == null ? ExecutionMode.PLATFORM : ExecutionMode.VIRTUAL;
+
+            outputWriterChangeSuppressionFilters = newOutputWriterChangeSuppressionFilters();
+            if (getExportLaneCapacity() > 0) {
+                startExportLanes();
+            }
+
+            if (getMbeanCallTimeoutInMillis() > 0) {
+                mbeanCallExecutor = taskExecutor == null ? new ThreadPoolExecutor(0, Math.max(1, getMbeanCallMaxThreads()), 60L, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(), new NamedThreadFactory("jmxtrans-mbean-call-", true)) : taskExecutor;
+                slowMBeanQuarantine = new SlowMBeanQuarantine(getMbeanCallTimeoutInMillis(), getMbeanQuarantineThreshold(), getMbeanQuarantinePollingRatio(), mbeanCallExecutor);
+                slowMBeanQuarantineObjectName = JmxUtils2.registerObject(slowMBeanQuarantine, "org.jmxtrans.embedded:Type=SlowMBeanQuarantine,id=" + instanceId, mbeanServer);
+                logger.info("Use {}", slowMBeanQuarantine);
+            } else {
+                slowMBeanQuarantine = null;
             }
 
             collectScheduledExecutor = Executors.newScheduledThreadPool(getNumQueryThreads(), new NamedThreadFactory("jmxtrans-collect-", true));
             exportScheduledExecutor = Executors.newScheduledThreadPool(getNumExportThreads(), new NamedThreadFactory("jmxtrans-export-", true));
+            highPriorityCollectScheduledExecutor = null;
+            for (Query query : queries) {
+                if (Query.Priority.HIGH.equals(query.getPriority())) {
+                    highPriorityCollectScheduledExecutor = Executors.newScheduledThreadPool(1, new NamedThreadFactory("jmxtrans-collect-high-priority-", true));
+                    break;
+                }
+            }
 
             logger.info("Start queries and output writers...");
             for (final Query query : getQueries()) {
-                collectScheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+                if (!isAlignCollectionOnWallClock()) {
+                    getCollectScheduledExecutor(query).scheduleWithFixedDelay(onTaskExecutor(new Runnable() {
+                        @Override
+                        public void run() {
+                            lifecycleLock.readLock().lock();
+                            try {
+                                if (!State.STARTED.equals(state)) {
+                                    logger.debug("Ignore query.collectMetrics() command for {} instance", state);
+                                    return;
+                                }
+                                query.collectMetrics();
+                            } finally {
+                                lifecycleLock.readLock().unlock();
+                            }
+                        }
+
+                        @Override
+                        public String toString() {
+                            return "Collector[" + query + "]";
+                        }
+                    }), 0, query.getQueryIntervalInSeconds(), TimeUnit.SECONDS);
+                }
+
+                if (isUsingGlobalResultsQueue(query)) {
+                    // exported by the global exporter
+                    continue;
+                }
+
+                // start export just after first collect
+                exportScheduledExecutor.scheduleWithFixedDelay(onTaskExecutor(new Runnable() {
                     @Override
                     public void run() {
                         lifecycleLock.readLock().lock();
                         try {
                             if (!State.STARTED.equals(state)) {
-                                logger.debug("Ignore query.collectMetrics() command for {} instance", state);
+                                logger.debug("Ignore query.exportCollectedMetrics() command for {} instance", state);
                                 return;
                             }
-                            query.collectMetrics();
+
+                            query.exportCollectedMetrics();
                         } finally {
                             lifecycleLock.readLock().unlock();
                         }
@@ -207,22 +531,52 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
                     @Override
                     public String toString() {
-                        return "Collector[" + query + "]";
+                        return "Exporter[" + query + "]";
                     }
-                }, 0, getQueryIntervalInSeconds(), TimeUnit.SECONDS);
+                }), query.getQueryIntervalInSeconds() + 1, getExportIntervalInSeconds(), TimeUnit.SECONDS);
+            }
 
-                // start export just after first collect
-                exportScheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+            if (isAlignCollectionOnWallClock()) {
+                // one aligned collector per collect executor and interval
+                Map<ScheduledExecutorService, Map<Integer, List<Query>>> queriesByExecutorAndInterval = new IdentityHashMap<ScheduledExecutorService, Map<Integer, List<Query>>>();
+                for (Query query : queries) {
+                    ScheduledExecutorService executor = getCollectScheduledExecutor(query);
+                    Map<Integer, List<Query>> queriesByInterval = queriesByExecutorAndInterval.get(executor);
+                    if (queriesByInterval == null) {
+                        queriesByInterval = new TreeMap<Integer, List<Query>>();
+                        queriesByExecutorAndInterval.put(executor, queriesByInterval);
+                    }
+                    List<Query> intervalQueries = queriesByInterval.get(query.getQueryIntervalInSeconds());
+                    if (intervalQueries == null) {
+                        intervalQueries = new ArrayList<Query>();
+                        queriesByInterval.put(query.getQueryIntervalInSeconds(), intervalQueries);
+                    }
+                    intervalQueries.add(query);
+                }
+                for (Map.Entry<ScheduledExecutorService, Map<Integer, List<Query>>> executorEntry : queriesByExecutorAndInterval.entrySet()) {
+                    ScheduledExecutorService executor = executorEntry.getKey();
+                    for (Map.Entry<Integer, List<Query>> intervalEntry : executorEntry.getValue().entrySet()) {
+                        long queryIntervalInMillis = TimeUnit.SECONDS.toMillis(intervalEntry.getKey());
+                        long initialDelayInMillis = queryIntervalInMillis - System.currentTimeMillis() % queryIntervalInMillis;
+                        executor.scheduleAtFixedRate(new AlignedCollector(queryIntervalInMillis, intervalEntry.getValue(), executor),
+                                initialDelayInMillis, queryIntervalInMillis, TimeUnit.MILLISECONDS);
+                        logger.info("Align collection of {} queries on wall clock every {}s, first collection in {}ms",
+                                intervalEntry.getValue().size(), intervalEntry.getKey(), initialDelayInMillis);
+                    }
+                }
+            }
+
+            if (globalResultsQueue != null) {
+                exportScheduledExecutor.scheduleWithFixedDelay(onTaskExecutor(new Runnable() {
                     @Override
                     public void run() {
                         lifecycleLock.readLock().lock();
                         try {
                             if (!State.STARTED.equals(state)) {
-                                logger.debug("Ignore query.exportCollectedMetrics() command for {} instance", state);
+                                logger.debug("Ignore exportGlobalCollectedMetrics() command for {} instance", state);
                                 return;
                             }
-
-                            query.exportCollectedMetrics();
+                            exportGlobalCollectedMetrics();
                         } finally {
                             lifecycleLock.readLock().unlock();
                         }
@@ -230,9 +584,9 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
                     @Override
                     public String toString() {
-                        return "Exporter[" + query + "]";
+                        return "GlobalExporter";
                     }
-                }, getQueryIntervalInSeconds() + 1, getExportIntervalInSeconds(), TimeUnit.SECONDS);
+                }), getQueryIntervalInSeconds() + 1, getExportIntervalInSeconds(), TimeUnit.SECONDS);
             }
 
             shutdownHook = new EmbeddedJmxTransShutdownHook();
@@ -270,6 +624,9 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
             // no need to `shutdown()` and `awaitTermination()` before `shutdownNow()` as we invoke `collectMetrics()` and `exportCollectedMetrics()`
             // `shutdownNow()` can be invoked before `collectMetrics()` and `exportCollectedMetrics()`
             collectScheduledExecutor.shutdownNow();
+            if (highPriorityCollectScheduledExecutor != null) {
+                highPriorityCollectScheduledExecutor.shutdownNow();
+            }
             exportScheduledExecutor.shutdownNow();
 
             try {
@@ -281,6 +638,37 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
                 logger.warn("Ignore failure collecting and exporting metrics during stop", e);
             }
 
+            stopExportLanes();
+            outputWriterChangeSuppressionFilters = Collections.emptyMap();
+
+            for (Map.Entry<Query, BlockingQueue<QueryResult>> entry : resultsQueuesReplacedByGlobalResultsQueue.entrySet()) {
+                entry.getKey().replaceResultsQueue(entry.getValue());
+            }
+            resultsQueuesReplacedByGlobalResultsQueue.clear();
+            globalResultsQueue = null;
+
+            if (slowMBeanQuarantine != null) {
+                slowMBeanQuarantine = null;
+                JmxUtils2.unregisterObject(slowMBeanQuarantineObjectName, mbeanServer);
+                slowMBeanQuarantineObjectName = null;
+                if (mbeanCallExecutor != taskExecutor) {
+                    mbeanCallExecutor.shutdownNow();
+                }
+                mbeanCallExecutor = null;
+            }
+
+            if (taskExecutor != null) {
+                taskExecutor.shutdownNow();
+                taskExecutor = null;
+            }
+            effectiveExecutionMode = null;
+
+            ForkJoinPool forkJoinPool = collectForkJoinPool;
+            if (forkJoinPool != null) {
+                collectForkJoinPool = null;
+                forkJoinPool.shutdownNow();
+            }
+
             // queries and outputwriters can be stopped even if exports threads are running thanks to the lifecycleLock
             logger.info("Stop queries...");
             for (Query query : queries) {
@@ -292,6 +680,10 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
             }
 
             logger.info("Stop output writers...");
+            for (ObjectName objectName : outputWriterObjectNames) {
+                JmxUtils2.unregisterObject(objectName, mbeanServer);
+            }
+            outputWriterObjectNames.clear();
             for (OutputWriter outputWriter : outputWriters) {
                 try {
                     outputWriter.stop();
@@ -347,13 +739,192 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
                 return;
             }
             for (Query query : getQueries()) {
-                query.exportCollectedMetrics();
+                if (!isUsingGlobalResultsQueue(query)) {
+                    query.exportCollectedMetrics();
+                }
             }
+            exportGlobalCollectedMetrics();
         } finally {
             lifecycleLock.readLock().unlock();
         }
     }
 
+    /**
+     * Export the content of the global results queue to the enabled global {@linkplain OutputWriter}s,
+     * batched according to {@link #getExportBatchSize()}.
+     *
+     * @return the number of exported {@linkplain QueryResult}
+     */
+    protected int exportGlobalCollectedMetrics() {
+        DiscardingRingBuffer<QueryResult> resultsQueue = globalResultsQueue;
+        if (resultsQueue == null || resultsQueue.isEmpty()) {
+            return 0;
+        }
+        long nanosBefore = System.nanoTime();
+
+        OutputWriterRouting routing = globalOutputWriterRouting;
+        List<OutputWriter> noLocalOutputWriters = Collections.emptyList();
+        if (routing == null || !routing.isUpToDate(outputWriters, outputWriters.getModificationCount(), noLocalOutputWriters, 0)) {
+            routing = new OutputWriterRouting(outputWriters, outputWriters.getModificationCount(), noLocalOutputWriters, 0);
+            globalOutputWriterRouting = routing;
+        }
+        List<OutputWriter> effectiveOutputWriters = routing.getEffectiveOutputWriters();
+        int effectiveOutputWritersCount = effectiveOutputWriters.size();
+        List<QueryResult> availableQueryResults = new ArrayList<QueryResult>(exportBatchSize);
+
+        int totalExportedMetricsCount = 0;
+        int size;
+        while ((size = resultsQueue.drainTo(availableQueryResults, exportBatchSize)) > 0) {
+            totalExportedMetricsCount += size;
+            globalExportedMetricsCount.addAndGet(size);
+            for (int i = 0; i < effectiveOutputWritersCount; i++) {
+                exportToOutputWriter(effectiveOutputWriters.get(i), availableQueryResults);
+            }
+            availableQueryResults.clear();
+        }
+        long durationInNanos = System.nanoTime() - nanosBefore;
+        globalExportDurationInNanos.addAndGet(durationInNanos);
+        exportDurationHistogram.recordValue(durationInNanos);
+        globalExportCount.incrementAndGet();
+        return totalExportedMetricsCount;
+    }
+
+    /**
+     * Write the given results to the given {@link OutputWriter} or, if export lanes are enabled, hand them off to its
+     * {@link ExportLane}. The given list can be reused by the caller when this method returns.
+     *
+     * The values are recorded in the {@link ChangeSuppressionFilter} of the writer once they are written: results
+     * lost by a failed write or discarded by a full {@link ExportLane} are not suppressed at the next export.
+     */
+    public void exportToOutputWriter(@Nonnull OutputWriter outputWriter, @Nonnull List<QueryResult> results) {
+        ChangeSuppressionFilter changeSuppressionFilter = outputWriterChangeSuppressionFilters.get(outputWriter);
+        if (changeSuppressionFilter != null) {
+            results = changeSuppressionFilter.filterUnchanged(results);
+            if (results.isEmpty()) {
+                return;
+            }
+        }
+        ExportLane exportLane = exportLanes.get(outputWriter);
+        if (exportLane == null) {
+            if (AbstractOutputWriter.write(outputWriter, results) && changeSuppressionFilter != null) {
+                changeSuppressionFilter.recordAccepted(results);
+            }
+        } else {
+            exportLane.offer(results);
+        }
+    }
+
+    /**
+     * Register the runtime statistics of the given {@link OutputWriter} if it exposes them
+     * (see {@link AbstractOutputWriterMBean}).
+     *
+     * @param id stable id of the given {@link OutputWriter} across restarts, derived from its position in the configuration,
+     *           unique within this instance
+     * @return the {@link ObjectName} of the registered MBean or <code>null</code> if the writer has no statistics or
+     * if the registration failed
+     */
+    @Nullable
+    ObjectName registerOutputWriter(@Nonnull OutputWriter outputWriter, @Nonnull String id) {
+        if (!(outputWriter instanceof AbstractOutputWriterMBean)) {
+            return null;
+        }
+        return JmxUtils2.registerObject(outputWriter,
+                "org.jmxtrans.embedded:type=OutputWriter,name=" + outputWriter.getClass().getSimpleName() + ",instance=" + instanceId + ",id=" + id,
+                mbeanServer);
+    }
+
+    @Nonnull
+    private Map<OutputWriter, ChangeSuppressionFilter> newOutputWriterChangeSuppressionFilters() {
+        Map<OutputWriter, ChangeSuppressionFilter> filters = new IdentityHashMap<OutputWriter, ChangeSuppressionFilter>();
+        List<OutputWriter> allOutputWriters = new ArrayList<OutputWriter>(outputWriters);
+        for (Query query : queries) {
+            allOutputWriters.addAll(query.getOutputWriters());
+        }
+        for (OutputWriter outputWriter : allOutputWriters) {
+            Map<String, Object> settings = outputWriter.getSettings();
+            if (settings == null || filters.containsKey(outputWriter)
+                    || !Boolean.parseBoolean(String.valueOf(settings.get(AbstractOutputWriter.SETTING_SUPPRESS_UNCHANGED_VALUES)))) {
+                continue;
+            }
+            int heartbeatIntervalInSeconds = ChangeSuppressionFilter.DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS;
+            Object heartbeatIntervalInSecondsSetting = settings.get(AbstractOutputWriter.SETTING_HEARTBEAT_INTERVAL_IN_SECONDS);
+            if (heartbeatIntervalInSecondsSetting != null) {
+                try {
+                    heartbeatIntervalInSeconds = Integer.parseInt(String.valueOf(heartbeatIntervalInSecondsSetting));
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignore invalid setting {}={} of {}", AbstractOutputWriter.SETTING_HEARTBEAT_INTERVAL_IN_SECONDS, heartbeatIntervalInSecondsSetting, outputWriter);
+                }
+            }
+            filters.put(outputWriter, new ChangeSuppressionFilter(TimeUnit.MILLISECONDS.convert(heartbeatIntervalInSeconds, TimeUnit.SECONDS)));
+            logger.info("Suppress unchanged values written to {} with a heartbeat of {}s", outputWriter, heartbeatIntervalInSeconds);
+        }
+        return filters;
+    }
+
+    private void startExportLanes() {
+        Map<OutputWriter, ExportLane> lanes = new IdentityHashMap<OutputWriter, ExportLane>();
+        List<OutputWriter> allOutputWriters = new ArrayList<OutputWriter>(outputWriters);
+        for (Query query : queries) {
+            allOutputWriters.addAll(query.getOutputWriters());
+        }
+        exportLaneExecutor = taskExecutor == null ? Executors.newCachedThreadPool(new NamedThreadFactory("jmxtrans-export-lane-", true)) : taskExecutor;
+        for (OutputWriter outputWriter : allOutputWriters) {
+            if (lanes.containsKey(outputWriter)) {
+                continue;
+            }
+            ExportLane exportLane = new ExportLane(outputWriter, getExportLaneCapacity(), getExportBatchSize(),
+                    outputWriterChangeSuppressionFilters.get(outputWriter));
+            exportLane.start(exportLaneExecutor);
+            lanes.put(outputWriter, exportLane);
+            ObjectName objectName = JmxUtils2.registerObject(exportLane,
+                    "org.jmxtrans.embedded:Type=ExportLane,writer=" + outputWriter.getClass().getSimpleName() + ",instance=" + instanceId + ",id=" + lanes.size(), mbeanServer);
+            if (objectName != null) {
+                exportLaneObjectNames.add(objectName);
+            }
+        }
+        exportLanes = lanes;
+        logger.info("Started {} export lanes with a capacity of {}", lanes.size(), getExportLaneCapacity());
+    }
+
+    /**
+     * Stop the {@link ExportLane}s, flushing their remaining results.
+     */
+    private void stopExportLanes() {
+        Map<OutputWriter, ExportLane> lanes = exportLanes;
+        exportLanes = Collections.emptyMap();
+        for (ExportLane exportLane : lanes.values()) {
+            try {
+                exportLane.stop();
+            } catch (RuntimeException e) {
+                logger.warn("Ignore exception stopping {}", exportLane, e);
+            }
+        }
+        for (ObjectName objectName : exportLaneObjectNames) {
+            JmxUtils2.unregisterObject(objectName, mbeanServer);
+        }
+        exportLaneObjectNames.clear();
+        if (exportLaneExecutor != null && exportLaneExecutor != taskExecutor) {
+            exportLaneExecutor.shutdownNow();
+        }
+        exportLaneExecutor = null;
+    }
+
+    /**
+     * @return the {@link ExportLane}s by {@link OutputWriter}, empty if export lanes are disabled or not started
+     */
+    @Nonnull
+    public Map<OutputWriter, ExportLane> getExportLanes() {
+        return Collections.unmodifiableMap(exportLanes);
+    }
+
+    /**
+     * @return <code>true</code> if the given query stores its results in the global results queue
+     */
+    protected boolean isUsingGlobalResultsQueue(@Nonnull Query query) {
+        DiscardingRingBuffer<QueryResult> resultsQueue = globalResultsQueue;
+        return resultsQueue != null && query.getResults() == resultsQueue;
+    }
+
     @Nonnull
     public List<Query> getQueries() {
         return queries;
@@ -370,14 +941,319 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
                 "state=" + getState() +
                 ", queries=" + queries +
                 ", outputWriters=" + outputWriters +
+                ", executionMode=" + executionMode +
+                ", effectiveExecutionMode=" + effectiveExecutionMode +
                 ", numQueryThreads=" + numQueryThreads +
+                ", numCollectForkJoinThreads=" + numCollectForkJoinThreads +
                 ", queryIntervalInSeconds=" + queryIntervalInSeconds +
                 ", numExportThreads=" + numExportThreads +
                 ", exportIntervalInSeconds=" + exportIntervalInSeconds +
                 ", exportBatchSize=" + exportBatchSize +
+                ", objectNameCacheResyncIntervalInSeconds=" + objectNameCacheResyncIntervalInSeconds +
+                ", alignCollectionOnWallClock=" + alignCollectionOnWallClock +
+                ", convertCountersToRates=" + convertCountersToRates +
+                ", exportLaneCapacity=" + exportLaneCapacity +
+                ", mbeanCallTimeoutInMillis=" + mbeanCallTimeoutInMillis +
+                ", globalResultsQueueCapacity=" + globalResultsQueueCapacity +
                 '}';
     }
 
+    /**
+     * Collects all the queries on wall clock boundaries with the same timestamp (see {@link #alignCollectionOnWallClock}).
+     *
+     * The collection of each query is submitted to the task executor (collect threads or virtual threads), a query whose
+     * previous collection is still running is skipped and counted as an overrun, as well as the rounds missed
+     * because of a late tick.
+     */
+    private class AlignedCollector implements Runnable {
+        private final long intervalInMillis;
+        private final Map<Query, AtomicBoolean> runningCollections = new IdentityHashMap<Query, AtomicBoolean>();
+        private final ExecutorService collectExecutor;
+        private long previousRoundEpochInMillis = -1;
+
+        AlignedCollector(long intervalInMillis, @Nonnull Collection<Query> queries, @Nonnull ExecutorService collectExecutor) {
+            this.intervalInMillis = intervalInMillis;
+            this.collectExecutor = collectExecutor;
+            for (Query query : queries) {
+                runningCollections.put(query, new AtomicBoolean());
+            }
+        }
+
+        @Override
+        public void run() {
+            // round to the nearest boundary to absorb the scheduling jitter
+            final long roundEpochInMillis = (System.currentTimeMillis() + intervalInMillis / 2) / intervalInMillis * intervalInMillis;
+            if (previousRoundEpochInMillis != -1) {
+                long missedRounds = (roundEpochInMillis - previousRoundEpochInMillis) / intervalInMillis - 1;
+                if (missedRounds > 0) {
+                    logger.warn("Collection overrun, {} rounds missed", missedRounds);
+                    collectOverrunCount.addAndGet((int) missedRounds);
+                } else if (roundEpochInMillis <= previousRoundEpochInMillis) {
+                    logger.debug("Ignore tick, round {} already collected", roundEpochInMillis);
+                    return;
+                }
+            }
+            previousRoundEpochInMillis = roundEpochInMillis;
+
+            ExecutorService executor = taskExecutor == null ? collectExecutor : taskExecutor;
+            for (Map.Entry<Query, AtomicBoolean> entry : runningCollections.entrySet()) {
+                final Query query = entry.getKey();
+                final AtomicBoolean running = entry.getValue();
+                if (!running.compareAndSet(false, true)) {
+                    logger.warn("Collection overrun, skip {} for round {}, previous collection still running", query, roundEpochInMillis);
+                    collectOverrunCount.incrementAndGet();
+                    continue;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            lifecycleLock.readLock().lock();
+                            try {
+                                if (!State.STARTED.equals(state)) {
+                                    logger.debug("Ignore query.collectMetrics() command for {} instance", state);
+                                    return;
+                                }
+                                query.collectMetrics(roundEpochInMillis);
+                            } catch (RuntimeException e) {
+                                logger.warn("Exception collecting {}", query, e);
+                            } finally {
+                                lifecycleLock.readLock().unlock();
+                                running.set(false);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    running.set(false);
+                    logger.debug("Ignore collection of {}, executor is shut down", query);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "AlignedCollector{intervalInMillis=" + intervalInMillis + ", queries=" + runningCollections.size() + '}';
+        }
+    }
+
+    /**
+     * @return the executor collecting the given query according to its {@link Query#getPriority()}
+     */
+    @Nonnull
+    private ScheduledExecutorService getCollectScheduledExecutor(@Nonnull Query query) {
+        if (Query.Priority.HIGH.equals(query.getPriority()) && highPriorityCollectScheduledExecutor != null) {
+            return highPriorityCollectScheduledExecutor;
+        }
+        return collectScheduledExecutor;
+    }
+
+    /**
+     * In {@link ExecutionMode#VIRTUAL}, wrap the given task in a tick that submits it to the {@link #taskExecutor}.
+     * A tick is skipped if the previous execution of the task is still running.
+     */
+    @Nonnull
+    private Runnable onTaskExecutor(@Nonnull final Runnable task) {
+        final ExecutorService executor = taskExecutor;
+        if (executor == null) {
+            return task;
+        }
+        final AtomicBoolean running = new AtomicBoolean();
+        final Runnable runAndRelease = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Exception running {}", task, e);
+                } finally {
+                    running.set(false);
+                }
+            }
+        };
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (!running.compareAndSet(false, true)) {
+                    logger.debug("Skip tick, {} is still running", task);
+                    return;
+                }
+                try {
+                    executor.execute(runAndRelease);
+                } catch (RejectedExecutionException e) {
+                    running.set(false);
+                    logger.debug("Ignore tick of {}, task executor is shut down", task);
+                }
+            }
+
+            @Override
+            public String toString() {
+                return "Tick[" + task + "]";
+            }
+        };
+    }
+
+    @Nonnull
+    protected ForkJoinPool newCollectForkJoinPool() {
+        ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("jmxtrans-collect-fork-join-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return new ForkJoinPool(Math.max(1, getNumCollectForkJoinThreads()), threadFactory, null, false);
+    }
+
+    /**
+     * @return the pool in which the queries split their collection or <code>null</code> if not started or not needed
+     * @see Query#getCollectParallelism()
+     */
+    @Nullable
+    public ForkJoinPool getCollectForkJoinPool() {
+        return collectForkJoinPool;
+    }
+
+    @Override
+    public int getNumCollectForkJoinThreads() {
+        return numCollectForkJoinThreads;
+    }
+
+    public void setNumCollectForkJoinThreads(int numCollectForkJoinThreads) {
+        this.numCollectForkJoinThreads = numCollectForkJoinThreads;
+    }
+
+    @Override
+    @Nonnull
+    public String getExecutionMode() {
+        return executionMode.name();
+    }
+
+    /**
+     * @return the execution mode actually used since {@link #start()}, {@link ExecutionMode#PLATFORM} if
+     * {@link ExecutionMode#VIRTUAL} is configured but not supported by the JVM, <code>null</code> if not started
+     */
+    @Override
+    @Nullable
+    public String getEffectiveExecutionMode() {
+        ExecutionMode mode = effectiveExecutionMode;
+        return mode == null ? null : mode.name();
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     */
+    public void setExecutionMode(@Nonnull ExecutionMode executionMode) {
+        this.executionMode = Preconditions.checkNotNull(executionMode);
+    }
+
+    @Override
+    public boolean isAlignCollectionOnWallClock() {
+        return alignCollectionOnWallClock;
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     */
+    public void setAlignCollectionOnWallClock(boolean alignCollectionOnWallClock) {
+        this.alignCollectionOnWallClock = alignCollectionOnWallClock;
+    }
+
+    @Override
+    public boolean isConvertCountersToRates() {
+        return convertCountersToRates;
+    }
+
+    public void setConvertCountersToRates(boolean convertCountersToRates) {
+        this.convertCountersToRates = convertCountersToRates;
+    }
+
+    @Override
+    public int getExportLaneCapacity() {
+        return exportLaneCapacity;
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     *
+     * @param exportLaneCapacity capacity of the {@link ExportLane} of each {@link OutputWriter},
+     *                           <code>0</code> to write synchronously in the export tasks
+     */
+    public void setExportLaneCapacity(int exportLaneCapacity) {
+        this.exportLaneCapacity = exportLaneCapacity;
+    }
+
+    /**
+     * @return the {@link SlowMBeanQuarantine} used to bound the MBean calls or <code>null</code> if not started or disabled
+     */
+    @Nullable
+    public SlowMBeanQuarantine getSlowMBeanQuarantine() {
+        return slowMBeanQuarantine;
+    }
+
+    /**
+     * @return the histogram of the collection durations in nanoseconds of all the queries
+     */
+    @Nonnull
+    public LatencyHistogram getCollectionDurationHistogram() {
+        return collectionDurationHistogram;
+    }
+
+    /**
+     * @return the histogram of the export durations in nanoseconds of all the queries and of the global results queue
+     */
+    @Nonnull
+    public LatencyHistogram getExportDurationHistogram() {
+        return exportDurationHistogram;
+    }
+
+    @Override
+    public long getMbeanCallTimeoutInMillis() {
+        return mbeanCallTimeoutInMillis;
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     */
+    public void setMbeanCallTimeoutInMillis(long mbeanCallTimeoutInMillis) {
+        this.mbeanCallTimeoutInMillis = mbeanCallTimeoutInMillis;
+    }
+
+    public int getMbeanQuarantineThreshold() {
+        return mbeanQuarantineThreshold;
+    }
+
+    public void setMbeanQuarantineThreshold(int mbeanQuarantineThreshold) {
+        this.mbeanQuarantineThreshold = mbeanQuarantineThreshold;
+    }
+
+    public int getMbeanQuarantinePollingRatio() {
+        return mbeanQuarantinePollingRatio;
+    }
+
+    public void setMbeanQuarantinePollingRatio(int mbeanQuarantinePollingRatio) {
+        this.mbeanQuarantinePollingRatio = mbeanQuarantinePollingRatio;
+    }
+
+    public int getMbeanCallMaxThreads() {
+        return mbeanCallMaxThreads;
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     */
+    public void setMbeanCallMaxThreads(int mbeanCallMaxThreads) {
+        this.mbeanCallMaxThreads = mbeanCallMaxThreads;
+    }
+
+    @Override
+    public int getCollectOverrunCount() {
+        return collectOverrunCount.get();
+    }
+
     public int getNumQueryThreads() {
         return numQueryThreads;
     }
@@ -418,6 +1294,13 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
         return outputWriters;
     }
 
+    /**
+     * @return a counter incremented at each modification of {@link #getOutputWriters()}
+     */
+    public int getOutputWritersModificationCount() {
+        return outputWriters.getModificationCount();
+    }
+
     /**
      * Max number of {@linkplain QueryResult} exported at each call of {@link OutputWriter#write(Iterable)}
      */
@@ -429,6 +1312,29 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
         this.exportBatchSize = exportBatchSize;
     }
 
+    @Override
+    public int getObjectNameCacheResyncIntervalInSeconds() {
+        return objectNameCacheResyncIntervalInSeconds;
+    }
+
+    public void setObjectNameCacheResyncIntervalInSeconds(int objectNameCacheResyncIntervalInSeconds) {
+        this.objectNameCacheResyncIntervalInSeconds = objectNameCacheResyncIntervalInSeconds;
+    }
+
+    @Override
+    public int getGlobalResultsQueueCapacity() {
+        return globalResultsQueueCapacity;
+    }
+
+    /**
+     * Taken into account at {@link #start()}.
+     *
+     * @param globalResultsQueueCapacity capacity of the global results queue, <code>0</code> to use query-local result queues
+     */
+    public void setGlobalResultsQueueCapacity(int globalResultsQueueCapacity) {
+        this.globalResultsQueueCapacity = globalResultsQueueCapacity;
+    }
+
     @Nonnull
     public MBeanServer getMbeanServer() {
         return mbeanServer;
@@ -458,6 +1364,16 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
         return TimeUnit.MILLISECONDS.convert(getCollectionDurationInNanos(), TimeUnit.NANOSECONDS);
     }
 
+    @Override
+    public CompositeData getCollectionDurationPercentiles() {
+        return collectionDurationHistogram.getSnapshot().toCompositeData();
+    }
+
+    @Override
+    public CompositeData getRecentCollectionDurationPercentiles() {
+        return collectionDurationHistogram.getRecentSnapshot().toCompositeData();
+    }
+
     @Override
     public int getCollectionCount() {
         int result = 0;
@@ -469,7 +1385,7 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
     @Override
     public int getExportedMetricsCount() {
-        int result = 0;
+        int result = globalExportedMetricsCount.get();
         for (Query query : queries) {
             result += query.getExportedMetricsCount();
         }
@@ -478,13 +1394,23 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
     @Override
     public long getExportDurationInNanos() {
-        long result = 0;
+        long result = globalExportDurationInNanos.get();
         for (Query query : queries) {
             result += query.getExportDurationInNanos();
         }
         return result;
     }
 
+    @Override
+    public CompositeData getExportDurationPercentiles() {
+        return exportDurationHistogram.getSnapshot().toCompositeData();
+    }
+
+    @Override
+    public CompositeData getRecentExportDurationPercentiles() {
+        return exportDurationHistogram.getRecentSnapshot().toCompositeData();
+    }
+
     @Override
     public long getExportDurationInMillis() {
         return TimeUnit.MILLISECONDS.convert(getExportDurationInNanos(), TimeUnit.NANOSECONDS);
@@ -492,7 +1418,7 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
 
     @Override
     public int getExportCount() {
-        int result = 0;
+        int result = globalExportCount.get();
         for (Query query : queries) {
             result += query.getExportCount();
         }
@@ -500,8 +1426,12 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
     }
 
     public int getDiscardedResultsCount() {
-        int result = 0;
+        DiscardingRingBuffer<QueryResult> resultsQueue = globalResultsQueue;
+        int result = resultsQueue == null ? 0 : resultsQueue.getDiscardedElementCount();
         for (Query query : queries) {
+            if (isUsingGlobalResultsQueue(query)) {
+                continue;
+            }
             int discardedResultsCount = query.getDiscardedResultsCount();
             if (discardedResultsCount != -1) {
                 result += discardedResultsCount;
@@ -510,6 +1440,20 @@ public class EmbeddedJmxTrans implements EmbeddedJmxTransMBean {
         return result;
     }
 
+    /**
+     * @return number of results dropped by the {@link ChangeSuppressionFilter}s of the queries and of the writers
+     */
+    public long getSuppressedResultsCount() {
+        long result = 0;
+        for (ChangeSuppressionFilter filter : outputWriterChangeSuppressionFilters.values()) {
+            result += filter.getSuppressedResultsCount();
+        }
+        for (Query query : queries) {
+            result += query.getSuppressedResultsCount();
+        }
+        return result;
+    }
+
     // return a String and not an embedded-jmxtrans class/enum to be portable and usable in JMX tools such as VisualVM
     @Nullable
     public String getState() {
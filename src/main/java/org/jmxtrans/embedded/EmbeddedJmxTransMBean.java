@@ -23,6 +23,8 @@
  */
 package org.jmxtrans.embedded;
 
+import javax.management.openmbean.CompositeData;
+
 /**
  * JMX MBean interface of the {@link EmbeddedJmxTrans}.
  *
@@ -38,6 +40,33 @@ public interface EmbeddedJmxTransMBean {
 
     int getNumExportThreads();
 
+    int getObjectNameCacheResyncIntervalInSeconds();
+
+    int getGlobalResultsQueueCapacity();
+
+    int getNumCollectForkJoinThreads();
+
+    /**
+     * Configured execution mode, see {@link #getEffectiveExecutionMode()}.
+     */
+    String getExecutionMode();
+
+    /**
+     * Execution mode used since the start, differs from {@link #getExecutionMode()} when virtual threads are not
+     * supported by the JVM. <code>null</code> if not started.
+     */
+    String getEffectiveExecutionMode();
+
+    boolean isAlignCollectionOnWallClock();
+
+    int getCollectOverrunCount();
+
+    boolean isConvertCountersToRates();
+
+    int getExportLaneCapacity();
+
+    long getMbeanCallTimeoutInMillis();
+
     void collectMetrics();
 
     void exportCollectedMetrics();
@@ -48,6 +77,16 @@ public interface EmbeddedJmxTransMBean {
 
     long getCollectionDurationInMillis();
 
+    /**
+     * Count, p50, p90, p99 and max of the collection durations of all the queries in nanoseconds.
+     */
+    CompositeData getCollectionDurationPercentiles();
+
+    /**
+     * Same as {@link #getCollectionDurationPercentiles()} for the collections done since the previous read of this attribute.
+     */
+    CompositeData getRecentCollectionDurationPercentiles();
+
     int getCollectionCount();
 
     int getExportedMetricsCount();
@@ -56,10 +95,22 @@ public interface EmbeddedJmxTransMBean {
 
     long getExportDurationInMillis();
 
+    /**
+     * Count, p50, p90, p99 and max of the export durations in nanoseconds.
+     */
+    CompositeData getExportDurationPercentiles();
+
+    /**
+     * Same as {@link #getExportDurationPercentiles()} for the exports done since the previous read of this attribute.
+     */
+    CompositeData getRecentExportDurationPercentiles();
+
     int getExportCount();
 
     int getDiscardedResultsCount();
 
+    long getSuppressedResultsCount();
+
     String getState();
 
     void stop() throws Exception;
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.jmxtrans.embedded.output.OutputWriter;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the enabled {@link OutputWriter}s to which results are exported (global writers first, then
+ * the local ones), with what is needed to check without allocation that it is still up to date: the identity and the
+ * modification count of the source collections and the {@link OutputWriter#isEnabled()} flag of each writer.
+ */
+final class OutputWriterRouting {
+
+    @Nonnull
+    private final Collection<OutputWriter> globalOutputWriters;
+
+    private final int globalModificationCount;
+
+    @Nonnull
+    private final Collection<OutputWriter> localOutputWriters;
+
+    private final int localModificationCount;
+
+    @Nonnull
+    private final OutputWriter[] candidates;
+
+    @Nonnull
+    private final boolean[] enabled;
+
+    @Nonnull
+    private final List<OutputWriter> effectiveOutputWriters;
+
+    OutputWriterRouting(@Nonnull Collection<OutputWriter> globalOutputWriters, int globalModificationCount,
+                        @Nonnull Collection<OutputWriter> localOutputWriters, int localModificationCount) {
+        this.globalOutputWriters = globalOutputWriters;
+        this.globalModificationCount = globalModificationCount;
+        this.localOutputWriters = localOutputWriters;
+        this.localModificationCount = localModificationCount;
+
+        List<OutputWriter> candidateList = new ArrayList<OutputWriter>(globalOutputWriters.size() + localOutputWriters.size());
+        candidateList.addAll(globalOutputWriters);
+        candidateList.addAll(localOutputWriters);
+        this.candidates = candidateList.toArray(new OutputWriter[candidateList.size()]);
+        this.enabled = new boolean[candidates.length];
+
+        List<OutputWriter> effective = new ArrayList<OutputWriter>(candidates.length);
+        for (int i = 0; i < candidates.length; i++) {
+            enabled[i] = candidates[i].isEnabled();
+            if (enabled[i]) {
+                effective.add(candidates[i]);
+            }
+        }
+        this.effectiveOutputWriters = Collections.unmodifiableList(effective);
+    }
+
+    /**
+     * @return <code>false</code> if writers have been added, removed, enabled or disabled since this routing was built
+     */
+    boolean isUpToDate(@Nonnull Collection<OutputWriter> globalOutputWriters, int globalModificationCount,
+                       @Nonnull Collection<OutputWriter> localOutputWriters, int localModificationCount) {
+        if (this.globalOutputWriters != globalOutputWriters || this.globalModificationCount != globalModificationCount
+                || this.localOutputWriters != localOutputWriters || this.localModificationCount != localModificationCount) {
+            return false;
+        }
+        for (int i = 0; i < candidates.length; i++) {
+            if (candidates[i].isEnabled() != enabled[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nonnull
+    List<OutputWriter> getEffectiveOutputWriters() {
+        return effectiveOutputWriters;
+    }
+
+    @Nonnull
+    String[] describe() {
+        String[] result = new String[effectiveOutputWriters.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = String.valueOf(effectiveOutputWriters.get(i));
+        }
+        return result;
+    }
+}
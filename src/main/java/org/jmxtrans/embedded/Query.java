@@ -24,8 +24,13 @@
 package org.jmxtrans.embedded;
 
 import org.jmxtrans.embedded.output.OutputWriter;
+import org.jmxtrans.embedded.util.LatencyHistogram;
+import org.jmxtrans.embedded.util.ModificationCountingList;
 import org.jmxtrans.embedded.util.Preconditions;
 import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueue;
+import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueueMBean;
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueue;
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueueMBean;
 import org.jmxtrans.embedded.util.jmx.JmxUtils2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,8 +40,17 @@ import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.management.*;
+import javax.management.openmbean.CompositeData;
+import javax.management.relation.MBeanServerNotificationFilter;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -49,6 +63,27 @@ import java.util.concurrent.atomic.AtomicLong;
  */
 public class Query implements QueryMBean {
 
+    /**
+     * Collection priority: {@link #HIGH} priority queries are collected by dedicated threads so that they don't queue
+     * behind slow {@link #NORMAL} queries.
+     */
+    public enum Priority {NORMAL, HIGH}
+
+    /**
+     * Default capacity of the {@link #queryResults} queue.
+     */
+    public static final int DEFAULT_RESULTS_QUEUE_CAPACITY = 200;
+
+    /**
+     * Weigher of the results queues bounded by a capacity in bytes (see {@link QueryResult#getEstimatedSizeInBytes()}).
+     */
+    public static final OverflowPolicyBlockingQueue.Weigher<QueryResult> RESULT_SIZE_WEIGHER = new OverflowPolicyBlockingQueue.Weigher<QueryResult>() {
+        @Override
+        public long weigh(@Nonnull QueryResult result) {
+            return result.getEstimatedSizeInBytes();
+        }
+    };
+
     private static final AtomicInteger queryIdSequence = new AtomicInteger();
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -75,12 +110,19 @@ public class Query implements QueryMBean {
      * JMX attributes to collect. As an array for {@link javax.management.MBeanServer#getAttributes(javax.management.ObjectName, String[])}
      */
     @Nonnull
-    private final Map<String, QueryAttribute> attributesByName = new HashMap<String, QueryAttribute>();
+    private final Map<String, QueryAttribute> attributesByName = new ConcurrentHashMap<String, QueryAttribute>();
     /**
      * Copy of {@link #attributesByName}'s {@link java.util.Map#entrySet()} for performance optimization
      */
     @Nonnull
-    private String[] attributeNames = new String[0];
+    private volatile String[] attributeNames = new String[0];
+
+    /**
+     * {@link AttributeCollectionPlan} of each matching {@link ObjectName}, built from its {@link javax.management.MBeanInfo}
+     * at the first collection, rebuilt when {@link #attributeNames} changes and evicted when the MBean is unregistered.
+     */
+    @Nonnull
+    private final ConcurrentMap<ObjectName, AttributeCollectionPlan> attributeCollectionPlans = new ConcurrentHashMap<ObjectName, AttributeCollectionPlan>();
 
     /**
      * List of {@linkplain OutputWriter} declared at the {@linkplain Query} level.
@@ -89,14 +131,61 @@ public class Query implements QueryMBean {
      * @see #getEffectiveOutputWriters()
      */
     @Nonnull
-    private List<OutputWriter> outputWriters = new ArrayList<OutputWriter>();
+    private final ModificationCountingList<OutputWriter> outputWriters = new ModificationCountingList<OutputWriter>();
+
+    /**
+     * Cache of {@link #getEffectiveOutputWriters()}, rebuilt when writers are added, removed, enabled or disabled.
+     */
+    @Nullable
+    private volatile OutputWriterRouting outputWriterRouting;
 
     /**
      * Store the metrics collected on this {@linkplain Query} (see {@link #collectMetrics()})
      * until they are exported to the target {@linkplain OutputWriter}s (see {@link #exportCollectedMetrics()}.
      */
     @Nonnull
-    private BlockingQueue<QueryResult> queryResults = new DiscardingBlockingQueue<QueryResult>(200);
+    private BlockingQueue<QueryResult> queryResults = new DiscardingBlockingQueue<QueryResult>(DEFAULT_RESULTS_QUEUE_CAPACITY);
+
+    /**
+     * <code>true</code> if the {@link #queryResults} queue has been configured with {@link #setResultsQueue(BlockingQueue)},
+     * it is then not replaced by the global results queue of the {@link EmbeddedJmxTrans}.
+     */
+    private boolean resultsQueueConfigured;
+
+    /**
+     * Maximum number of fork-join tasks across which the {@link ObjectName}s matched by this query are split during
+     * {@link #collectMetrics()} (see {@link EmbeddedJmxTrans#getNumCollectForkJoinThreads()}).
+     * <code>1</code> (default) to collect them sequentially in the collect thread.
+     */
+    private int collectParallelism = 1;
+
+    /**
+     * Collection interval of this query, <code>null</code> to use {@link EmbeddedJmxTrans#getQueryIntervalInSeconds()}.
+     */
+    @Nullable
+    private Integer queryIntervalInSeconds;
+
+    @Nonnull
+    private Priority priority = Priority.NORMAL;
+
+    /**
+     * Created at the first use if {@link EmbeddedJmxTrans#isConvertCountersToRates()}.
+     */
+    @Nullable
+    private volatile CounterToRateConverter counterToRateConverter;
+
+    /**
+     * Drop the collected results whose value has not changed, <code>null</code> (default) to keep all the results.
+     */
+    @Nullable
+    private ChangeSuppressionFilter changeSuppressionFilter;
+
+    /**
+     * Roll up the collected results over windows before they are queued, <code>null</code> (default) to queue the raw
+     * results.
+     */
+    @Nullable
+    private WindowedAggregator windowedAggregator;
 
     @Nonnull
     private final AtomicInteger collectedMetricsCount = new AtomicInteger();
@@ -104,6 +193,9 @@ public class Query implements QueryMBean {
     @Nonnull
     private final AtomicLong collectionDurationInNanos = new AtomicLong();
 
+    @Nonnull
+    private final LatencyHistogram collectionDurationHistogram = new LatencyHistogram();
+
     @Nonnull
     private final AtomicInteger collectionCount = new AtomicInteger();
 
@@ -113,15 +205,68 @@ public class Query implements QueryMBean {
     @Nonnull
     private final AtomicLong exportDurationInNanos = new AtomicLong();
 
+    @Nonnull
+    private final LatencyHistogram exportDurationHistogram = new LatencyHistogram();
+
     @Nonnull
     private final AtomicInteger exportCount = new AtomicInteger();
 
+    @Nonnull
+    private final AtomicInteger objectNameCacheResyncCount = new AtomicInteger();
+
     /**
      * {@link ObjectName} of this {@link QueryMBean}
      */
     @Nullable
     private ObjectName queryMbeanObjectName;
 
+    /**
+     * {@link ObjectName}s of the {@link org.jmxtrans.embedded.output.AbstractOutputWriterMBean}s of the
+     * {@link #outputWriters}.
+     */
+    @Nonnull
+    private final List<ObjectName> outputWriterObjectNames = new ArrayList<ObjectName>();
+
+    /**
+     * {@link ObjectName}s matching {@link #objectName}, kept up to date by the {@link #objectNameRegistrationListener}
+     * and fully resynchronized every {@link EmbeddedJmxTrans#getObjectNameCacheResyncIntervalInSeconds()}.
+     *
+     * <code>null</code> until the first resync.
+     */
+    @Nullable
+    private volatile Set<ObjectName> matchingObjectNamesCache;
+
+    private volatile long matchingObjectNamesCacheResyncTimeInNanos;
+
+    /**
+     * <code>true</code> if the {@link #objectNameRegistrationListener} is registered on the {@link MBeanServerDelegate}.
+     */
+    private volatile boolean objectNameRegistrationListenerRegistered;
+
+    @Nonnull
+    private final NotificationListener objectNameRegistrationListener = new NotificationListener() {
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (!(notification instanceof MBeanServerNotification)) {
+                return;
+            }
+            ObjectName mbeanName = ((MBeanServerNotification) notification).getMBeanName();
+            Set<ObjectName> cache = matchingObjectNamesCache;
+            if (cache == null || !objectName.apply(mbeanName)) {
+                return;
+            }
+            if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+                logger.trace("Query {}: add registered {}", objectName, mbeanName);
+                attributeCollectionPlans.remove(mbeanName);
+                cache.add(mbeanName);
+            } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+                logger.trace("Query {}: remove unregistered {}", objectName, mbeanName);
+                cache.remove(mbeanName);
+                attributeCollectionPlans.remove(mbeanName);
+            }
+        }
+    };
+
     /**
      * Creates a {@linkplain Query} on the given <code>objectName</code>.
      *
@@ -146,42 +291,240 @@ public class Query implements QueryMBean {
 
 
     /**
-     * Collect the values for this query and store them as {@link QueryResult} in the {@linkplain Query#queryResults} queue
+     * Collect the values for this query and store them as {@link QueryResult} in the {@linkplain Query#queryResults} queue.
+     *
+     * If {@link #getCollectParallelism()} is greater than <code>1</code>, the matching {@link ObjectName}s are split
+     * across the {@link EmbeddedJmxTrans#getCollectForkJoinPool()}.
      */
     @Override
     public void collectMetrics() {
+        collectMetrics(-1);
+    }
+
+    /**
+     * Collect the values for this query and store them as {@link QueryResult} in the {@linkplain Query#queryResults} queue.
+     *
+     * @param epochInMillis timestamp of all the collected {@link QueryResult}s or <code>-1</code> to timestamp
+     *                      each {@link ObjectName} with the time of its collection
+     */
+    public void collectMetrics(long epochInMillis) {
         long nanosBefore = System.nanoTime();
-        /*
-         * Optimisation tip: no need to skip 'mbeanServer.queryNames()' if the ObjectName is not a pattern
-         * (i.e. not '*' or '?' wildcard) because the mbeanserver internally performs the check.
-         * Seen on com.sun.jmx.interceptor.DefaultMBeanServerInterceptor
-         */
-        Set<ObjectName> matchingObjectNames = embeddedJmxTrans.getMbeanServer().queryNames(this.objectName, null);
+        WindowedAggregator aggregator = windowedAggregator;
+        if (aggregator != null) {
+            aggregator.flush(epochInMillis < 0 ? System.currentTimeMillis() : epochInMillis, queryResults, changeSuppressionFilter);
+        }
+        Set<ObjectName> matchingObjectNames = getMatchingObjectNames();
         logger.trace("Query {} returned {}", objectName, matchingObjectNames);
 
+        ForkJoinPool collectForkJoinPool = embeddedJmxTrans.getCollectForkJoinPool();
+        int parallelism = Math.min(collectParallelism, matchingObjectNames.size());
+        if (parallelism > 1 && collectForkJoinPool != null) {
+            collectMetricsInParallel(matchingObjectNames, parallelism, collectForkJoinPool, epochInMillis);
+        } else {
+            for (ObjectName matchingObjectName : matchingObjectNames) {
+                collectMetrics(matchingObjectName, epochInMillis);
+            }
+        }
+        collectionCount.incrementAndGet();
+        long durationInNanos = System.nanoTime() - nanosBefore;
+        collectionDurationInNanos.addAndGet(durationInNanos);
+        collectionDurationHistogram.recordValue(durationInNanos);
+        embeddedJmxTrans.getCollectionDurationHistogram().recordValue(durationInNanos);
+    }
+
+    /**
+     * Split the given {@link ObjectName}s in <code>parallelism</code> chunks, the first chunk is collected
+     * in the calling thread and the others in the given {@link ForkJoinPool}.
+     */
+    protected void collectMetricsInParallel(@Nonnull Collection<ObjectName> matchingObjectNames, int parallelism,
+                                            @Nonnull ForkJoinPool forkJoinPool, final long epochInMillis) {
+        List<List<ObjectName>> chunks = new ArrayList<List<ObjectName>>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            chunks.add(new ArrayList<ObjectName>(matchingObjectNames.size() / parallelism + 1));
+        }
+        int i = 0;
         for (ObjectName matchingObjectName : matchingObjectNames) {
-            long epochInMillis = System.currentTimeMillis();
-            try {
-                AttributeList jmxAttributes = embeddedJmxTrans.getMbeanServer().getAttributes(matchingObjectName, this.attributeNames);
-                logger.trace("Query {} returned {}", matchingObjectName, jmxAttributes);
-                for (Attribute jmxAttribute : jmxAttributes.asList()) {
-                    QueryAttribute queryAttribute = this.attributesByName.get(jmxAttribute.getName());
-                    if (queryAttribute == null) { // support for dynamic attributes
-                        logger.trace("Creating query attribute for {}", jmxAttribute.getName());
-                        queryAttribute = new QueryAttribute(jmxAttribute.getName(), null, null);
-                        addAttribute(queryAttribute);
+            chunks.get(i++ % parallelism).add(matchingObjectName);
+        }
+
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(parallelism - 1);
+        for (final List<ObjectName> chunk : chunks.subList(1, parallelism)) {
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    for (ObjectName matchingObjectName : chunk) {
+                        collectMetrics(matchingObjectName, epochInMillis);
                     }
-                    Object value = jmxAttribute.getValue();
-                    int count = queryAttribute.collectMetrics(matchingObjectName, value, epochInMillis, this.queryResults);
-                    collectedMetricsCount.addAndGet(count);
                 }
-            } catch (Exception e) {
+            };
+            try {
+                tasks.add(forkJoinPool.submit(task));
+            } catch (RejectedExecutionException e) {
+                logger.debug("Collect fork-join pool is shut down, collect {} in the calling thread", chunk);
+                task.run();
+            }
+        }
+        for (ObjectName matchingObjectName : chunks.get(0)) {
+            collectMetrics(matchingObjectName, epochInMillis);
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (RuntimeException e) {
                 logger.warn("Exception processing query {}", this, e);
             }
         }
-        collectionCount.incrementAndGet();
-        long nanosAfter = System.nanoTime();
-        collectionDurationInNanos.addAndGet(nanosAfter - nanosBefore);
+    }
+
+    /**
+     * Collect the values of the given {@link ObjectName} and store them in the {@linkplain Query#queryResults} queue.
+     * Thread safe.
+     *
+     * @param epochInMillis timestamp of the collected {@link QueryResult}s, <code>-1</code> for the current time
+     */
+    protected void collectMetrics(@Nonnull ObjectName matchingObjectName, long epochInMillis) {
+        SlowMBeanQuarantine slowMBeanQuarantine = embeddedJmxTrans.getSlowMBeanQuarantine();
+        if (slowMBeanQuarantine != null && slowMBeanQuarantine.isSkipped(matchingObjectName)) {
+            logger.trace("Skip quarantined {} for query {}", matchingObjectName, objectName);
+            return;
+        }
+        if (epochInMillis < 0) {
+            epochInMillis = System.currentTimeMillis();
+        }
+        try {
+            AttributeCollectionPlan plan = getAttributeCollectionPlan(matchingObjectName);
+            if (plan.isEmpty()) {
+                logger.trace("No collectable attribute on {} for query {}", matchingObjectName, objectName);
+                return;
+            }
+            String[] planAttributeNames = plan.getAttributeNames();
+            AttributeList jmxAttributes;
+            if (slowMBeanQuarantine == null) {
+                jmxAttributes = embeddedJmxTrans.getMbeanServer().getAttributes(matchingObjectName, planAttributeNames);
+            } else {
+                jmxAttributes = slowMBeanQuarantine.getAttributes(embeddedJmxTrans.getMbeanServer(), matchingObjectName, planAttributeNames);
+            }
+            logger.trace("Query {} returned {}", matchingObjectName, jmxAttributes);
+            List<Attribute> jmxAttributesList = jmxAttributes.asList();
+            for (int i = 0; i < jmxAttributesList.size(); i++) {
+                Attribute jmxAttribute = jmxAttributesList.get(i);
+                QueryAttribute queryAttribute = plan.getAttribute(i, jmxAttribute.getName());
+                if (queryAttribute == null) { // support for dynamic attributes
+                    queryAttribute = getOrCreateDynamicAttribute(jmxAttribute.getName());
+                }
+                Object value = jmxAttribute.getValue();
+                int count = queryAttribute.collectMetrics(matchingObjectName, value, epochInMillis, this.queryResults);
+                collectedMetricsCount.addAndGet(count);
+            }
+        } catch (InstanceNotFoundException e) {
+            logger.debug("Ignore unregistered {} for query {}", matchingObjectName, this, e);
+            Set<ObjectName> cache = matchingObjectNamesCache;
+            if (cache != null) {
+                cache.remove(matchingObjectName);
+            }
+            attributeCollectionPlans.remove(matchingObjectName);
+            if (slowMBeanQuarantine != null) {
+                slowMBeanQuarantine.forget(matchingObjectName);
+            }
+        } catch (TimeoutException e) {
+            logger.debug("Timeout collecting {} for query {}", matchingObjectName, objectName);
+        } catch (Exception e) {
+            logger.warn("Exception processing query {}", this, e);
+        }
+    }
+
+    /**
+     * Returns the cached {@link AttributeCollectionPlan} of the given {@link ObjectName}, (re)building it if needed.
+     * If the {@link javax.management.MBeanInfo} can not be obtained, all the attributes are fetched.
+     */
+    @Nonnull
+    AttributeCollectionPlan getAttributeCollectionPlan(@Nonnull ObjectName matchingObjectName) throws InstanceNotFoundException {
+        String[] queryAttributeNames = this.attributeNames;
+        AttributeCollectionPlan plan = attributeCollectionPlans.get(matchingObjectName);
+        if (plan != null && plan.isUpToDate(queryAttributeNames)) {
+            return plan;
+        }
+        try {
+            plan = AttributeCollectionPlan.newPlan(embeddedJmxTrans.getMbeanServer(), matchingObjectName, queryAttributeNames, attributesByName);
+        } catch (InstanceNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.debug("Exception loading MBeanInfo of {}, collect all attributes of query {}", matchingObjectName, this, e);
+            plan = AttributeCollectionPlan.newUnfilteredPlan(queryAttributeNames, attributesByName);
+        }
+        // a non-pattern query matches at most one ObjectName, its plan is evicted on InstanceNotFoundException.
+        // Only cache the plans of the ObjectNames of a pattern query tracked by the registration listener, the others could never be evicted
+        Set<ObjectName> cache = matchingObjectNamesCache;
+        if (!objectName.isPattern()
+                || (objectNameRegistrationListenerRegistered && cache != null && cache.contains(matchingObjectName))) {
+            attributeCollectionPlans.put(matchingObjectName, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the {@link CounterToRateConverter} of the counters of this query or <code>null</code> if counters are
+     * exported as is (see {@link EmbeddedJmxTrans#isConvertCountersToRates()})
+     */
+    @Nullable
+    public CounterToRateConverter getCounterToRateConverter() {
+        if (embeddedJmxTrans == null || !embeddedJmxTrans.isConvertCountersToRates()) {
+            return null;
+        }
+        CounterToRateConverter converter = counterToRateConverter;
+        if (converter == null) {
+            synchronized (this) {
+                converter = counterToRateConverter;
+                if (converter == null) {
+                    converter = new CounterToRateConverter();
+                    counterToRateConverter = converter;
+                }
+            }
+        }
+        return converter;
+    }
+
+    @Nonnull
+    private synchronized QueryAttribute getOrCreateDynamicAttribute(@Nonnull String attributeName) {
+        QueryAttribute queryAttribute = this.attributesByName.get(attributeName);
+        if (queryAttribute == null) {
+            logger.trace("Creating query attribute for {}", attributeName);
+            queryAttribute = new QueryAttribute(attributeName, null, null);
+            addAttribute(queryAttribute);
+        }
+        return queryAttribute;
+    }
+
+    /**
+     * Returns the {@link ObjectName}s matching {@link #objectName}.
+     *
+     * If the {@link #objectNameRegistrationListener} is registered, the cached set of {@link ObjectName}s is returned
+     * and a full {@link MBeanServer#queryNames(ObjectName, QueryExp)} is only performed at the first invocation
+     * and then every {@link EmbeddedJmxTrans#getObjectNameCacheResyncIntervalInSeconds()}.
+     */
+    @Nonnull
+    protected Set<ObjectName> getMatchingObjectNames() {
+        /*
+         * Optimisation tip: no need to skip 'mbeanServer.queryNames()' if the ObjectName is not a pattern
+         * (i.e. not '*' or '?' wildcard) because the mbeanserver internally performs the check.
+         * Seen on com.sun.jmx.interceptor.DefaultMBeanServerInterceptor
+         */
+        if (!objectNameRegistrationListenerRegistered) {
+            return embeddedJmxTrans.getMbeanServer().queryNames(this.objectName, null);
+        }
+        Set<ObjectName> cache = matchingObjectNamesCache;
+        long nowInNanos = System.nanoTime();
+        long resyncIntervalInNanos = TimeUnit.NANOSECONDS.convert(embeddedJmxTrans.getObjectNameCacheResyncIntervalInSeconds(), TimeUnit.SECONDS);
+        if (cache == null || nowInNanos - matchingObjectNamesCacheResyncTimeInNanos >= resyncIntervalInNanos) {
+            cache = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+            // publish the new set before querying to not miss the notifications emitted during queryNames()
+            matchingObjectNamesCache = cache;
+            cache.addAll(embeddedJmxTrans.getMbeanServer().queryNames(this.objectName, null));
+            matchingObjectNamesCacheResyncTimeInNanos = nowInNanos;
+            objectNameCacheResyncCount.incrementAndGet();
+            logger.trace("Query {}: resync matching ObjectNames cache {}", objectName, cache);
+        }
+        return cache;
     }
 
     /**
@@ -202,6 +545,7 @@ public class Query implements QueryMBean {
         long nanosBefore = System.nanoTime();
 
         List<OutputWriter> effectiveOutputWriters = getEffectiveOutputWriters();
+        int effectiveOutputWritersCount = effectiveOutputWriters.size();
         int exportBatchSize = getEmbeddedJmxTrans().getExportBatchSize();
         List<QueryResult> availableQueryResults = new ArrayList<QueryResult>(exportBatchSize);
 
@@ -209,12 +553,15 @@ public class Query implements QueryMBean {
         while ((size = queryResults.drainTo(availableQueryResults, exportBatchSize)) > 0) {
             totalExportedMetricsCount += size;
             exportedMetricsCount.addAndGet(size);
-            for (OutputWriter outputWriter : effectiveOutputWriters) {
-                outputWriter.write(availableQueryResults);
+            for (int i = 0; i < effectiveOutputWritersCount; i++) {
+                embeddedJmxTrans.exportToOutputWriter(effectiveOutputWriters.get(i), availableQueryResults);
             }
             availableQueryResults.clear();
         }
-        exportDurationInNanos.addAndGet(System.nanoTime() - nanosBefore);
+        long durationInNanos = System.nanoTime() - nanosBefore;
+        exportDurationInNanos.addAndGet(durationInNanos);
+        exportDurationHistogram.recordValue(durationInNanos);
+        embeddedJmxTrans.getExportDurationHistogram().recordValue(durationInNanos);
         exportCount.incrementAndGet();
         return totalExportedMetricsCount;
     }
@@ -226,10 +573,27 @@ public class Query implements QueryMBean {
     public void start() throws Exception {
         queryMbeanObjectName = JmxUtils2.registerObject(this, "org.jmxtrans.embedded:Type=Query,id=" + id, getEmbeddedJmxTrans().getMbeanServer());
 
+        if (getEmbeddedJmxTrans().getObjectNameCacheResyncIntervalInSeconds() > 0) {
+            MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+            filter.enableAllObjectNames();
+            try {
+                getEmbeddedJmxTrans().getMbeanServer().addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, objectNameRegistrationListener, filter, null);
+                objectNameRegistrationListenerRegistered = true;
+            } catch (Exception e) {
+                logger.warn("Failure to listen to MBean registrations, ObjectNames matching {} will be queried at each collection", objectName, e);
+            }
+        }
 
+        int outputWriterIndex = 0;
         for (OutputWriter outputWriter : outputWriters) {
             outputWriter.start();
+            ObjectName outputWriterObjectName = embeddedJmxTrans.registerOutputWriter(outputWriter, id + "-" + outputWriterIndex++);
+            if (outputWriterObjectName != null) {
+                outputWriterObjectNames.add(outputWriterObjectName);
+            }
         }
+        outputWriterRouting = null;
+        getOutputWriterRouting();
     }
 
     /**
@@ -239,6 +603,21 @@ public class Query implements QueryMBean {
     public void stop() throws Exception {
         JmxUtils2.unregisterObject(queryMbeanObjectName, embeddedJmxTrans.getMbeanServer());
 
+        if (objectNameRegistrationListenerRegistered) {
+            objectNameRegistrationListenerRegistered = false;
+            try {
+                embeddedJmxTrans.getMbeanServer().removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, objectNameRegistrationListener);
+            } catch (Exception e) {
+                logger.warn("Failure to stop listening to MBean registrations for {}", objectName, e);
+            }
+            matchingObjectNamesCache = null;
+        }
+        attributeCollectionPlans.clear();
+
+        for (ObjectName outputWriterObjectName : outputWriterObjectNames) {
+            JmxUtils2.unregisterObject(outputWriterObjectName, embeddedJmxTrans.getMbeanServer());
+        }
+        outputWriterObjectNames.clear();
         for (OutputWriter outputWriter : outputWriters) {
             outputWriter.stop();
         }
@@ -263,7 +642,7 @@ public class Query implements QueryMBean {
      * @return this
      */
     @Nonnull
-    public Query addAttribute(@Nonnull QueryAttribute attribute) {
+    public synchronized Query addAttribute(@Nonnull QueryAttribute attribute) {
         attribute.setQuery(this);
         attributesByName.put(attribute.getName(), attribute);
         attributeNames = attributesByName.keySet().toArray(new String[0]);
@@ -293,6 +672,22 @@ public class Query implements QueryMBean {
      */
     public void setResultsQueue(@Nonnull BlockingQueue<QueryResult> queryResultQueue) {
         this.queryResults = Preconditions.checkNotNull(queryResultQueue);
+        this.resultsQueueConfigured = true;
+    }
+
+    /**
+     * @return <code>true</code> if the results queue has been configured with {@link #setResultsQueue(BlockingQueue)}
+     */
+    public boolean isResultsQueueConfigured() {
+        return resultsQueueConfigured;
+    }
+
+    /**
+     * Swap the global results queue of the {@link EmbeddedJmxTrans} in and out without marking the results queue as
+     * configured. Same thread safety restrictions as {@link #setResultsQueue(BlockingQueue)}.
+     */
+    void replaceResultsQueue(@Nonnull BlockingQueue<QueryResult> queryResultQueue) {
+        this.queryResults = Preconditions.checkNotNull(queryResultQueue);
     }
 
     public void setResultAlias(@Nullable String resultAlias) {
@@ -316,19 +711,29 @@ public class Query implements QueryMBean {
      */
     @Nonnull
     public List<OutputWriter> getEffectiveOutputWriters() {
-        // Google Guava predicates would be nicer but we don't include guava to ease embeddability
-        List<OutputWriter> result = new ArrayList<OutputWriter>(embeddedJmxTrans.getOutputWriters().size() + outputWriters.size());
-        for (OutputWriter outputWriter : embeddedJmxTrans.getOutputWriters()) {
-            if (outputWriter.isEnabled()) {
-                result.add(outputWriter);
-            }
-        }
-        for (OutputWriter outputWriter : outputWriters) {
-            if (outputWriter.isEnabled()) {
-                result.add(outputWriter);
-            }
+        return getOutputWriterRouting().getEffectiveOutputWriters();
+    }
+
+    @Nonnull
+    private OutputWriterRouting getOutputWriterRouting() {
+        OutputWriterRouting routing = outputWriterRouting;
+        Set<OutputWriter> globalOutputWriters = embeddedJmxTrans.getOutputWriters();
+        int globalModificationCount = embeddedJmxTrans.getOutputWritersModificationCount();
+        int localModificationCount = outputWriters.getModificationCount();
+        if (routing == null || !routing.isUpToDate(globalOutputWriters, globalModificationCount, outputWriters, localModificationCount)) {
+            routing = new OutputWriterRouting(globalOutputWriters, globalModificationCount, outputWriters, localModificationCount);
+            outputWriterRouting = routing;
+            logger.debug("Query {}: output writer routing rebuilt {}", objectName, routing.getEffectiveOutputWriters());
         }
-        return result;
+        return routing;
+    }
+
+    /**
+     * @return the description of the effective {@link OutputWriter}s of this query
+     */
+    @Override
+    public String[] getEffectiveOutputWriterRouting() {
+        return getOutputWriterRouting().describe();
     }
 
     @Nonnull
@@ -347,6 +752,8 @@ public class Query implements QueryMBean {
         return "Query{" +
                 "objectName=" + objectName +
                 ", resultAlias='" + resultAlias + '\'' +
+                (queryIntervalInSeconds == null ? "" : ", queryIntervalInSeconds=" + queryIntervalInSeconds) +
+                (priority == Priority.NORMAL ? "" : ", priority=" + priority) +
                 ", outputWriters=" + outputWriters +
                 ", attributes=" + attributesByName.values() +
                 '}';
@@ -362,6 +769,16 @@ public class Query implements QueryMBean {
         return collectionDurationInNanos.get();
     }
 
+    @Override
+    public CompositeData getCollectionDurationPercentiles() {
+        return collectionDurationHistogram.getSnapshot().toCompositeData();
+    }
+
+    @Override
+    public CompositeData getRecentCollectionDurationPercentiles() {
+        return collectionDurationHistogram.getRecentSnapshot().toCompositeData();
+    }
+
     @Override
     public int getCollectionCount() {
         return collectionCount.get();
@@ -377,6 +794,16 @@ public class Query implements QueryMBean {
         return exportDurationInNanos.get();
     }
 
+    @Override
+    public CompositeData getExportDurationPercentiles() {
+        return exportDurationHistogram.getSnapshot().toCompositeData();
+    }
+
+    @Override
+    public CompositeData getRecentExportDurationPercentiles() {
+        return exportDurationHistogram.getRecentSnapshot().toCompositeData();
+    }
+
     @Override
     public int getExportCount() {
         return exportCount.get();
@@ -387,21 +814,191 @@ public class Query implements QueryMBean {
         return id;
     }
 
+    /**
+     * @return the collection interval of this query or, if not defined, the one of the {@link EmbeddedJmxTrans}
+     * ({@link EmbeddedJmxTrans#DEFAULT_QUERY_INTERVAL_IN_SECONDS} if this query is not yet attached to one)
+     */
+    @Override
+    public int getQueryIntervalInSeconds() {
+        if (queryIntervalInSeconds != null) {
+            return queryIntervalInSeconds;
+        }
+        if (embeddedJmxTrans == null) {
+            return EmbeddedJmxTrans.DEFAULT_QUERY_INTERVAL_IN_SECONDS;
+        }
+        return embeddedJmxTrans.getQueryIntervalInSeconds();
+    }
+
+    /**
+     * @param queryIntervalInSeconds collection interval of this query, <code>null</code> to use the one of the {@link EmbeddedJmxTrans}
+     */
+    public void setQueryIntervalInSeconds(@Nullable Integer queryIntervalInSeconds) {
+        this.queryIntervalInSeconds = queryIntervalInSeconds;
+    }
+
+    @Nonnull
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(@Nonnull Priority priority) {
+        this.priority = Preconditions.checkNotNull(priority);
+    }
+
+    @Override
+    public String getPriorityName() {
+        return priority.name();
+    }
+
+    @Override
+    public int getCollectParallelism() {
+        return collectParallelism;
+    }
+
+    @Nullable
+    public ChangeSuppressionFilter getChangeSuppressionFilter() {
+        return changeSuppressionFilter;
+    }
+
+    /**
+     * @param changeSuppressionFilter filter applied to the collected results, <code>null</code> to keep all of them
+     */
+    public void setChangeSuppressionFilter(@Nullable ChangeSuppressionFilter changeSuppressionFilter) {
+        this.changeSuppressionFilter = changeSuppressionFilter;
+    }
+
+    @Nullable
+    public WindowedAggregator getWindowedAggregator() {
+        return windowedAggregator;
+    }
+
+    /**
+     * @param windowedAggregator aggregator of the collected results, <code>null</code> to queue the raw results
+     */
+    public void setWindowedAggregator(@Nullable WindowedAggregator windowedAggregator) {
+        this.windowedAggregator = windowedAggregator;
+    }
+
+    @Override
+    public int getAggregationWindowInSeconds() {
+        WindowedAggregator aggregator = windowedAggregator;
+        return aggregator == null ? 0 : (int) TimeUnit.SECONDS.convert(aggregator.getWindowInMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public long getSuppressedResultsCount() {
+        ChangeSuppressionFilter filter = changeSuppressionFilter;
+        return filter == null ? 0 : filter.getSuppressedResultsCount();
+    }
+
+    /**
+     * @param collectParallelism maximum number of fork-join tasks used to collect the {@link ObjectName}s
+     *                           matched by this query, <code>1</code> to collect them sequentially
+     */
+    public void setCollectParallelism(int collectParallelism) {
+        this.collectParallelism = collectParallelism;
+    }
+
+    @Override
+    public int getObjectNameCacheResyncCount() {
+        return objectNameCacheResyncCount.get();
+    }
+
     public void setId(String id) {
         this.id = id;
     }
 
+    /**
+     * Distinct {@link ResultNameStrategy}s used by the attributes of this query.
+     */
+    @Nonnull
+    protected Collection<ResultNameStrategy> getResultNameStrategies() {
+        Set<ResultNameStrategy> result = Collections.newSetFromMap(new IdentityHashMap<ResultNameStrategy, Boolean>());
+        for (QueryAttribute queryAttribute : attributesByName.values()) {
+            result.add(queryAttribute.getResultNameStrategy());
+        }
+        return result;
+    }
+
+    @Override
+    public long getResultNameCacheHitCount() {
+        long result = 0;
+        for (ResultNameStrategy resultNameStrategy : getResultNameStrategies()) {
+            result += resultNameStrategy.getResultNameCacheHitCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getResultNameCacheMissCount() {
+        long result = 0;
+        for (ResultNameStrategy resultNameStrategy : getResultNameStrategies()) {
+            result += resultNameStrategy.getResultNameCacheMissCount();
+        }
+        return result;
+    }
+
+    @Override
+    public long getResultNameCacheEvictionCount() {
+        long result = 0;
+        for (ResultNameStrategy resultNameStrategy : getResultNameStrategies()) {
+            result += resultNameStrategy.getResultNameCacheEvictionCount();
+        }
+        return result;
+    }
+
     /**
      * Returns the number of discarded elements in the {@link #queryResults} queue
-     * or <code>-1</code> if the queue is not a {@link DiscardingBlockingQueue}.
+     * or <code>-1</code> if the queue is not a {@link DiscardingBlockingQueueMBean}.
      */
     @Override
     public int getDiscardedResultsCount() {
-        if (queryResults instanceof DiscardingBlockingQueue) {
-            DiscardingBlockingQueue discardingBlockingQueue = (DiscardingBlockingQueue) queryResults;
+        if (queryResults instanceof DiscardingBlockingQueueMBean) {
+            DiscardingBlockingQueueMBean discardingBlockingQueue = (DiscardingBlockingQueueMBean) queryResults;
             return discardingBlockingQueue.getDiscardedElementCount();
         } else {
             return -1;
         }
     }
+
+    /**
+     * Returns the {@link OverflowPolicyBlockingQueue.OverflowPolicy} of the {@link #queryResults} queue,
+     * <code>DROP_OLDEST</code> for the discarding queues.
+     */
+    @Override
+    public String getResultsQueueOverflowPolicy() {
+        if (queryResults instanceof OverflowPolicyBlockingQueueMBean) {
+            return ((OverflowPolicyBlockingQueueMBean) queryResults).getOverflowPolicy();
+        } else if (queryResults instanceof DiscardingBlockingQueueMBean) {
+            return OverflowPolicyBlockingQueue.OverflowPolicy.DROP_OLDEST.name();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of insertions in the {@link #queryResults} queue that waited for room
+     * or <code>-1</code> if the queue is not an {@link OverflowPolicyBlockingQueueMBean}.
+     */
+    @Override
+    public int getResultsQueueBlockedOfferCount() {
+        if (queryResults instanceof OverflowPolicyBlockingQueueMBean) {
+            return ((OverflowPolicyBlockingQueueMBean) queryResults).getBlockedOfferCount();
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the estimated size of the results in the {@link #queryResults} queue
+     * or <code>-1</code> if the queue is not an {@link OverflowPolicyBlockingQueueMBean}.
+     */
+    @Override
+    public long getResultsQueueSizeInBytes() {
+        if (queryResults instanceof OverflowPolicyBlockingQueueMBean) {
+            return ((OverflowPolicyBlockingQueueMBean) queryResults).getSizeInBytes();
+        } else {
+            return -1;
+        }
+    }
 }
@@ -23,6 +23,7 @@
  */
 package org.jmxtrans.embedded;
 
+import org.jmxtrans.embedded.util.LruCache;
 import org.jmxtrans.embedded.util.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,9 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
 import java.util.*;
 
 /**
@@ -45,6 +49,12 @@ import java.util.*;
  */
 public class QueryAttribute {
 
+    /**
+     * Max number of {@link CompositeType}s in {@link #compositeKeyPlans}, the least recently used ones are evicted
+     * when exceeded.
+     */
+    private static final int COMPOSITE_KEY_PLANS_MAX_SIZE = 64;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     protected ResultNameStrategy resultNameStrategy = new ResultNameStrategy();
@@ -80,7 +90,14 @@ public class QueryAttribute {
      * @see javax.management.openmbean.CompositeType#keySet()
      */
     @Nullable
-    private String[] keys;
+    private volatile String[] keys;
+
+    /**
+     * Keys to collect of each {@link CompositeType} returned for this attribute. The result names are resolved, and
+     * cached, by the {@link #resultNameStrategy}.
+     */
+    @Nonnull
+    private final LruCache<CompositeType, String[]> compositeKeyPlans = new LruCache<CompositeType, String[]>(COMPOSITE_KEY_PLANS_MAX_SIZE);
 
     /**
      * @param name        name of the JMX attribute
@@ -133,6 +150,11 @@ public class QueryAttribute {
         return type;
     }
 
+    @Nonnull
+    public ResultNameStrategy getResultNameStrategy() {
+        return resultNameStrategy;
+    }
+
     public QueryAttribute withResultNameStrategy(ResultNameStrategy strategy) {
         this.resultNameStrategy = strategy;
         return this;
@@ -150,21 +172,22 @@ public class QueryAttribute {
                               @Nonnull Queue<QueryResult> results) {
 
         int metricsCounter = 0;
+        CounterToRateConverter counterToRateConverter = getCounterToRateConverter();
+        ChangeSuppressionFilter changeSuppressionFilter = getQuery() == null ? null : getQuery().getChangeSuppressionFilter();
+        WindowedAggregator windowedAggregator = getQuery() == null ? null : getQuery().getWindowedAggregator();
 
         if (value instanceof CompositeData) {
             CompositeData compositeData = (CompositeData) value;
-            String[] keysToCollect;
-            if (keys == null) {
-                keysToCollect = compositeData.getCompositeType().keySet().toArray(new String[0]);
-                logger.info("No 'key' has been configured to collect data on this Composite attribute, collect all keys. {}:{}:{}", getQuery(), objectName, this);
-            } else {
-                keysToCollect = keys;
-            }
+            String[] keysToCollect = getKeysToCollect(objectName, compositeData.getCompositeType());
             for (String key : keysToCollect) {
-                String resultName = resultNameStrategy.getResultName(getQuery(), objectName, this, key);
                 Object compositeValue = compositeData.get(key);
                 if (compositeValue instanceof Number || compositeValue instanceof String || compositeValue instanceof Date) {
-                    QueryResult result = new QueryResult(resultName, getType(), compositeValue, epochInMillis);
+                    String resultName = resultNameStrategy.getResultName(getQuery(), objectName, this, key);
+                    QueryResult result = process(QueryResult.newQueryResult(resultName, getType(), compositeValue, epochInMillis),
+                            counterToRateConverter, windowedAggregator, changeSuppressionFilter, results);
+                    if (result == null) {
+                        continue;
+                    }
                     logger.debug("Collect {}", result);
                     results.add(result);
                     metricsCounter++;
@@ -177,16 +200,97 @@ public class QueryAttribute {
                 logger.info("Ignore keys configured for 'simple' jmx attribute. {}:{}:{}", getQuery(), objectName, this);
             }
             String resultName = resultNameStrategy.getResultName(getQuery(), objectName, this);
-            QueryResult result = new QueryResult(resultName, getType(), value, epochInMillis);
-            logger.debug("Collect {}", result);
-            results.add(result);
-            metricsCounter++;
+            QueryResult result = process(QueryResult.newQueryResult(resultName, getType(), value, epochInMillis),
+                    counterToRateConverter, windowedAggregator, changeSuppressionFilter, results);
+            if (result != null) {
+                logger.debug("Collect {}", result);
+                results.add(result);
+                metricsCounter++;
+            }
         } else {
             logger.info("Ignore non CompositeData attribute value {}:{}:{}={}", getQuery(), objectName, this, value);
         }
         return metricsCounter;
     }
 
+    /**
+     * Convert the given counter to a rate, aggregate it and drop it if its value has not changed.
+     *
+     * @param results queue to which the aggregates of a finished window are added
+     * @return the result to add to the queue or <code>null</code> if it is dropped or aggregated
+     */
+    @Nullable
+    private QueryResult process(@Nonnull QueryResult result, @Nullable CounterToRateConverter counterToRateConverter,
+                                @Nullable WindowedAggregator windowedAggregator, @Nullable ChangeSuppressionFilter changeSuppressionFilter,
+                                @Nonnull Queue<QueryResult> results) {
+        if (counterToRateConverter != null) {
+            result = counterToRateConverter.toRate(result);
+            if (result == null) {
+                return null;
+            }
+        }
+        if (windowedAggregator != null && windowedAggregator.add(result, results, changeSuppressionFilter)) {
+            return null;
+        }
+        if (changeSuppressionFilter != null && !changeSuppressionFilter.accept(result)) {
+            logger.trace("Suppress unchanged {}", result);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * @return the {@link CounterToRateConverter} of the parent {@link Query} if this attribute is a
+     * {@link CounterToRateConverter#COUNTER_METRIC_TYPE} and counters are converted to rates, <code>null</code> otherwise
+     */
+    @Nullable
+    private CounterToRateConverter getCounterToRateConverter() {
+        Query query = getQuery();
+        if (query == null || !CounterToRateConverter.COUNTER_METRIC_TYPE.equals(getType())) {
+            return null;
+        }
+        return query.getCounterToRateConverter();
+    }
+
+    @Nonnull
+    private String[] getKeysToCollect(@Nonnull ObjectName objectName, @Nonnull CompositeType compositeType) {
+        String[] keysToCollect = compositeKeyPlans.get(compositeType);
+        if (keysToCollect != null) {
+            return keysToCollect;
+        }
+        String[] configuredKeys = this.keys;
+        if (configuredKeys == null) {
+            List<String> supportedKeys = new ArrayList<String>();
+            for (String key : compositeType.keySet()) {
+                if (isSupportedOpenType(compositeType.getType(key))) {
+                    supportedKeys.add(key);
+                }
+            }
+            keysToCollect = supportedKeys.toArray(new String[supportedKeys.size()]);
+            logger.debug("No 'key' has been configured to collect data on this Composite attribute, collect all keys {}. {}:{}:{}",
+                    supportedKeys, getQuery(), objectName, this);
+        } else {
+            keysToCollect = configuredKeys;
+        }
+        compositeKeyPlans.put(compositeType, keysToCollect);
+        return keysToCollect;
+    }
+
+    /**
+     * @return <code>true</code> if values of the given {@link OpenType} are collected when no key is configured
+     */
+    private static boolean isSupportedOpenType(@Nullable OpenType<?> openType) {
+        if (!(openType instanceof SimpleType)) {
+            return false;
+        }
+        try {
+            Class<?> clazz = Class.forName(openType.getClassName());
+            return Number.class.isAssignableFrom(clazz) || String.class.equals(clazz) || Date.class.equals(clazz);
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
     /**
      * @return <code>this</code>
      */
@@ -201,6 +305,7 @@ public class QueryAttribute {
             Collections.addAll(newKeysSet, this.keys);
         }
         this.keys = newKeysSet.toArray(new String[0]);
+        compositeKeyPlans.clear();
         return this;
     }
 
@@ -24,6 +24,7 @@
 package org.jmxtrans.embedded;
 
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 /**
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
@@ -37,12 +38,32 @@ public interface QueryMBean {
 
     long getCollectionDurationInNanos();
 
+    /**
+     * Count, p50, p90, p99 and max of the collection durations in nanoseconds.
+     */
+    CompositeData getCollectionDurationPercentiles();
+
+    /**
+     * Same as {@link #getCollectionDurationPercentiles()} for the collections done since the previous read of this attribute.
+     */
+    CompositeData getRecentCollectionDurationPercentiles();
+
     int getCollectionCount();
 
     int getExportedMetricsCount();
 
     long getExportDurationInNanos();
 
+    /**
+     * Count, p50, p90, p99 and max of the export durations in nanoseconds.
+     */
+    CompositeData getExportDurationPercentiles();
+
+    /**
+     * Same as {@link #getExportDurationPercentiles()} for the exports done since the previous read of this attribute.
+     */
+    CompositeData getRecentExportDurationPercentiles();
+
     int getExportCount();
 
     String getResultAlias();
@@ -52,4 +73,30 @@ public interface QueryMBean {
     String getId();
 
     int getDiscardedResultsCount();
+
+    String getResultsQueueOverflowPolicy();
+
+    int getResultsQueueBlockedOfferCount();
+
+    long getResultsQueueSizeInBytes();
+
+    int getObjectNameCacheResyncCount();
+
+    int getCollectParallelism();
+
+    int getQueryIntervalInSeconds();
+
+    String getPriorityName();
+
+    long getSuppressedResultsCount();
+
+    int getAggregationWindowInSeconds();
+
+    String[] getEffectiveOutputWriterRouting();
+
+    long getResultNameCacheHitCount();
+
+    long getResultNameCacheMissCount();
+
+    long getResultNameCacheEvictionCount();
 }
\ No newline at end of file
@@ -33,19 +33,52 @@ import java.util.concurrent.TimeUnit;
 /**
  * Value of a collected metric.
  *
+ * Numeric values can be stored as primitive {@code long} or {@code double} (see {@link #getValueType()})
+ * to prevent boxing. {@link org.jmxtrans.embedded.output.OutputWriter}s should then use {@link #getLongValue()}, {@link #getDoubleValue()}
+ * or {@link #appendValue(StringBuilder)} rather than {@link #getValue()}.
+ *
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  * @author Jon Stevens
  */
 public class QueryResult {
 
+    /**
+     * Storage type of the value of a {@link QueryResult}.
+     */
+    public enum ValueType {
+        /**
+         * Primitive {@code long}, see {@link #getLongValue()}
+         */
+        LONG,
+        /**
+         * Primitive {@code double}, see {@link #getDoubleValue()}
+         */
+        DOUBLE,
+        /**
+         * Plain {@link Object} (e.g. {@link String}, {@link java.util.Date}, {@link Float}...), see {@link #getValue()}
+         */
+        OBJECT
+    }
+
     @Nonnull
     private final String name;
 
     private final long epochInMillis;
 
+    /**
+     * <code>null</code> if the value is stored as a primitive (see {@link #primitiveValue}).
+     */
     @Nullable
     private final Object value;
 
+    /**
+     * The {@code long} value or the raw bits of the {@code double} value (see {@link Double#doubleToRawLongBits(double)}).
+     */
+    private final long primitiveValue;
+
+    @Nonnull
+    private final ValueType valueType;
+
     @Nullable
     private final String type;
 
@@ -67,10 +100,77 @@ public class QueryResult {
     public QueryResult(@Nonnull String name, @Nullable String type, @Nullable Object value, long epochInMillis) {
         this.name = Preconditions.checkNotEmpty(name);
         this.value = value;
+        this.primitiveValue = 0;
+        this.valueType = ValueType.OBJECT;
         this.epochInMillis = epochInMillis;
         this.type = type;
     }
 
+    /**
+     * @param name          plain name of the metric (variables (e.g. <code>%my-jmx-attr%</code>) must have been resolved).
+     * @param type          type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
+     * @param value         value of the collected metric
+     * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
+     */
+    public QueryResult(@Nonnull String name, @Nullable String type, long value, long epochInMillis) {
+        this.name = Preconditions.checkNotEmpty(name);
+        this.value = null;
+        this.primitiveValue = value;
+        this.valueType = ValueType.LONG;
+        this.epochInMillis = epochInMillis;
+        this.type = type;
+    }
+
+    /**
+     * @param name          plain name of the metric (variables (e.g. <code>%my-jmx-attr%</code>) must have been resolved).
+     * @param type          type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
+     * @param value         value of the collected metric
+     * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
+     */
+    public QueryResult(@Nonnull String name, @Nullable String type, double value, long epochInMillis) {
+        this.name = Preconditions.checkNotEmpty(name);
+        this.value = null;
+        this.primitiveValue = Double.doubleToRawLongBits(value);
+        this.valueType = ValueType.DOUBLE;
+        this.epochInMillis = epochInMillis;
+        this.type = type;
+    }
+
+    /**
+     * Store the given {@code float} as a {@link Float} rather than widening it to a {@code double}, to preserve its
+     * textual representation (e.g. "{@code 0.1}" rather than "{@code 0.10000000149011612}").
+     *
+     * @param name          plain name of the metric (variables (e.g. <code>%my-jmx-attr%</code>) must have been resolved).
+     * @param type          type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
+     * @param value         value of the collected metric
+     * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
+     */
+    public QueryResult(@Nonnull String name, @Nullable String type, float value, long epochInMillis) {
+        this(name, type, Float.valueOf(value), epochInMillis);
+    }
+
+    /**
+     * Create a {@link QueryResult} storing the given <code>value</code> as a primitive if it is
+     * a {@link Long}, an {@link Integer}, a {@link Short}, a {@link Byte} or a {@link Double}.
+     *
+     * Other values (including {@link Float} to preserve their textual representation) are stored as an {@link Object}.
+     *
+     * @param name          plain name of the metric (variables (e.g. <code>%my-jmx-attr%</code>) must have been resolved).
+     * @param type          type of the metric (e.g. "{@code counter}", "{@code gauge}", ...)
+     * @param value         value of the collected metric
+     * @param epochInMillis collect time in millis (see {@link System#currentTimeMillis()})
+     */
+    @Nonnull
+    public static QueryResult newQueryResult(@Nonnull String name, @Nullable String type, @Nullable Object value, long epochInMillis) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return new QueryResult(name, type, ((Number) value).longValue(), epochInMillis);
+        } else if (value instanceof Double) {
+            return new QueryResult(name, type, ((Double) value).doubleValue(), epochInMillis);
+        } else {
+            return new QueryResult(name, type, value, epochInMillis);
+        }
+    }
+
     @Nonnull
     public String getName() {
         return name;
@@ -89,9 +189,96 @@ public class QueryResult {
         return timeUnit.convert(epochInMillis, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Returns the value of this result, boxing it if it is stored as a primitive (see {@link #getValueType()}).
+     */
     @Nullable
     public Object getValue() {
-        return value;
+        switch (valueType) {
+            case LONG:
+                return Long.valueOf(primitiveValue);
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(primitiveValue));
+            default:
+                return value;
+        }
+    }
+
+    @Nonnull
+    public ValueType getValueType() {
+        return valueType;
+    }
+
+    /**
+     * @return <code>true</code> if the value is a primitive or a {@link Number}
+     */
+    public boolean isNumeric() {
+        return valueType != ValueType.OBJECT || value instanceof Number;
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not numeric (see {@link #isNumeric()})
+     */
+    public long getLongValue() throws IllegalStateException {
+        switch (valueType) {
+            case LONG:
+                return primitiveValue;
+            case DOUBLE:
+                return (long) Double.longBitsToDouble(primitiveValue);
+            default:
+                if (value instanceof Number) {
+                    return ((Number) value).longValue();
+                }
+                throw new IllegalStateException("Non numeric value " + value + " for " + name);
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not numeric (see {@link #isNumeric()})
+     */
+    public double getDoubleValue() throws IllegalStateException {
+        switch (valueType) {
+            case LONG:
+                return primitiveValue;
+            case DOUBLE:
+                return Double.longBitsToDouble(primitiveValue);
+            default:
+                if (value instanceof Number) {
+                    return ((Number) value).doubleValue();
+                }
+                throw new IllegalStateException("Non numeric value " + value + " for " + name);
+        }
+    }
+
+    /**
+     * Append the textual representation of the value to the given <code>StringBuilder</code> without boxing primitive values.
+     * The output is the same as <code>String.valueOf(getValue())</code>.
+     *
+     * @return the given <code>StringBuilder</code>
+     */
+    @Nonnull
+    public StringBuilder appendValue(@Nonnull StringBuilder sb) {
+        switch (valueType) {
+            case LONG:
+                return sb.append(primitiveValue);
+            case DOUBLE:
+                return sb.append(Double.longBitsToDouble(primitiveValue));
+            default:
+                return sb.append(value);
+        }
+    }
+
+    /**
+     * Rough estimate of the heap retained by this result: the object itself, its name (names are rarely shared between
+     * results) and its boxed value if any. The type is a shared constant and is not counted.
+     */
+    public long getEstimatedSizeInBytes() {
+        // object header + fields, String object + char array header
+        long size = 48 + 40 + 2L * name.length();
+        if (value != null) {
+            size += value instanceof String ? 40 + 2L * ((String) value).length() : 24;
+        }
+        return size;
     }
 
     @Override
@@ -99,7 +286,7 @@ public class QueryResult {
         return "QueryResult{" +
                 " epoch=" + new Timestamp(epochInMillis) +
                 ", name='" + name + '\'' +
-                ", value=" + value +
+                ", value=" + getValue() +
                 ", type=" + type +
                 '}';
     }
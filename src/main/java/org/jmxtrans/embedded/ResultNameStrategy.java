@@ -27,12 +27,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.management.ObjectName;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Build a {@linkplain QueryResult#name} from a collected metric ({@linkplain QueryAttribute}, {@linkplain Query}).
@@ -97,10 +101,37 @@ public class ResultNameStrategy {
 
     public static final String REPLACE_DOTS_IN_OBJECT_NAME = "replaceDotsInObjectName";
 
+    /**
+     * Default max number of entries of the resolved result names cache.
+     */
+    public static final int DEFAULT_RESULT_NAME_CACHE_MAX_SIZE = 10000;
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private boolean replaceDotsInObjectNames = true;
 
+    /**
+     * Max number of entries of the {@link #resultNameCache}. <code>0</code> disables the cache.
+     */
+    private int resultNameCacheMaxSize = DEFAULT_RESULT_NAME_CACHE_MAX_SIZE;
+
+    /**
+     * Resolved result names. Cleared when the {@link #expressionEvaluators} change.
+     *
+     * @see #getResultName(Query, ObjectName, QueryAttribute, String)
+     */
+    @Nonnull
+    private final ConcurrentMap<ResultNameCacheKey, String> resultNameCache = new ConcurrentHashMap<ResultNameCacheKey, String>();
+
+    @Nonnull
+    private final AtomicLong resultNameCacheHitCount = new AtomicLong();
+
+    @Nonnull
+    private final AtomicLong resultNameCacheMissCount = new AtomicLong();
+
+    @Nonnull
+    private final AtomicLong resultNameCacheEvictionCount = new AtomicLong();
+
     /**
      * Function based evaluators for expressions like '#hostname#' or '#hostname_canonical#'
      */
@@ -112,16 +143,54 @@ public class ResultNameStrategy {
     }
 
     public String getResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute) {
+        return getCachedResultName(query, objectName, queryAttribute, null);
+    }
 
-        StringBuilder result = _getResultName(query, objectName, queryAttribute);
+    public String getResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute, String key) {
+        return getCachedResultName(query, objectName, queryAttribute, key);
+    }
 
-        return result.toString();
+    /**
+     * Lookup the result name in the {@link #resultNameCache} and build it if not found.
+     *
+     * If the cache is full, an arbitrary entry is evicted before the new result name is added.
+     *
+     * @param key key of the {@link javax.management.openmbean.CompositeData} or <code>null</code> for a 'simple' attribute
+     */
+    @Nonnull
+    protected String getCachedResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute, @Nullable String key) {
+        if (resultNameCacheMaxSize <= 0) {
+            return buildResultName(query, objectName, queryAttribute, key);
+        }
+        ResultNameCacheKey cacheKey = new ResultNameCacheKey(query.getResultAlias(), objectName, queryAttribute, key);
+        String resultName = resultNameCache.get(cacheKey);
+        if (resultName != null) {
+            resultNameCacheHitCount.incrementAndGet();
+            return resultName;
+        }
+        resultNameCacheMissCount.incrementAndGet();
+        resultName = buildResultName(query, objectName, queryAttribute, key);
+
+        while (resultNameCache.size() >= resultNameCacheMaxSize) {
+            Iterator<ResultNameCacheKey> it = resultNameCache.keySet().iterator();
+            if (!it.hasNext()) {
+                break;
+            }
+            if (resultNameCache.remove(it.next()) != null) {
+                resultNameCacheEvictionCount.incrementAndGet();
+            }
+        }
+        resultNameCache.put(cacheKey, resultName);
+        return resultName;
     }
 
-    public String getResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute, String key) {
+    @Nonnull
+    private String buildResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute, @Nullable String key) {
         StringBuilder result = _getResultName(query, objectName, queryAttribute);
-        result.append(".");
-        result.append(key);
+        if (key != null) {
+            result.append(".");
+            result.append(key);
+        }
         return result.toString();
     }
 
@@ -310,6 +379,7 @@ public class ResultNameStrategy {
      */
     public void registerExpressionEvaluator(String expression, Callable<String> evaluator) {
         expressionEvaluators.put(expression, evaluator);
+        clearResultNameCache();
     }
 
     /**
@@ -317,13 +387,100 @@ public class ResultNameStrategy {
      */
     public void registerExpressionEvaluator(String expression, String value) {
         expressionEvaluators.put(expression, new StaticEvaluator(value));
+        clearResultNameCache();
     }
 
+    /**
+     * WARNING: {@link #clearResultNameCache()} must be invoked if the returned map is modified.
+     */
     @Nonnull
     public Map<String, Callable<String>> getExpressionEvaluators() {
         return expressionEvaluators;
     }
 
+    /**
+     * Invalidate all the cached result names.
+     */
+    public void clearResultNameCache() {
+        resultNameCache.clear();
+    }
+
+    public int getResultNameCacheSize() {
+        return resultNameCache.size();
+    }
+
+    public int getResultNameCacheMaxSize() {
+        return resultNameCacheMaxSize;
+    }
+
+    /**
+     * @param resultNameCacheMaxSize max number of cached result names, <code>0</code> to disable the cache
+     */
+    public void setResultNameCacheMaxSize(int resultNameCacheMaxSize) {
+        this.resultNameCacheMaxSize = resultNameCacheMaxSize;
+        clearResultNameCache();
+    }
+
+    public long getResultNameCacheHitCount() {
+        return resultNameCacheHitCount.get();
+    }
+
+    public long getResultNameCacheMissCount() {
+        return resultNameCacheMissCount.get();
+    }
+
+    public long getResultNameCacheEvictionCount() {
+        return resultNameCacheEvictionCount.get();
+    }
+
+    /**
+     * Key of the {@link #resultNameCache}: all the inputs of {@link #_getResultName(Query, ObjectName, QueryAttribute)}
+     * that can vary for a given {@link ResultNameStrategy}.
+     *
+     * {@link QueryAttribute}s are compared by identity.
+     */
+    private static final class ResultNameCacheKey {
+        @Nullable
+        private final String queryResultAlias;
+        @Nonnull
+        private final ObjectName objectName;
+        @Nonnull
+        private final QueryAttribute queryAttribute;
+        @Nullable
+        private final String key;
+        private final int hashCode;
+
+        private ResultNameCacheKey(@Nullable String queryResultAlias, @Nonnull ObjectName objectName, @Nonnull QueryAttribute queryAttribute, @Nullable String key) {
+            this.queryResultAlias = queryResultAlias;
+            this.objectName = objectName;
+            this.queryAttribute = queryAttribute;
+            this.key = key;
+            int h = objectName.hashCode();
+            h = 31 * h + System.identityHashCode(queryAttribute);
+            h = 31 * h + (key == null ? 0 : key.hashCode());
+            h = 31 * h + (queryResultAlias == null ? 0 : queryResultAlias.hashCode());
+            this.hashCode = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ResultNameCacheKey)) return false;
+
+            ResultNameCacheKey that = (ResultNameCacheKey) o;
+            return hashCode == that.hashCode
+                    && queryAttribute == that.queryAttribute
+                    && objectName.equals(that.objectName)
+                    && (key == null ? that.key == null : key.equals(that.key))
+                    && (queryResultAlias == null ? that.queryResultAlias == null : queryResultAlias.equals(that.queryResultAlias));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
     public static class StaticEvaluator implements Callable<String> {
         final String value;
 
@@ -363,6 +520,12 @@ public class ResultNameStrategy {
             return this;
         }
 
+        public Builder resultNameCacheMaxSize(int resultNameCacheMaxSize)
+        {
+            delegate.setResultNameCacheMaxSize(resultNameCacheMaxSize);
+            return this;
+        }
+
         public ResultNameStrategy build()
         {
             return delegate;
@@ -0,0 +1,336 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bound the duration of the {@link MBeanServer#getAttributes(ObjectName, String[])} calls and quarantine the slow MBeans.
+ *
+ * Each call is executed in the <code>callExecutor</code> and abandoned after <code>callTimeoutInMillis</code>, an MBean
+ * that was fast and starts blocking can't hang the collect thread. At most one call per {@link ObjectName} is in
+ * flight, the {@link ObjectName} is skipped while its previous call is still running so that a hung MBean holds at
+ * most one thread.
+ *
+ * An {@link ObjectName} whose calls time out <code>quarantineThreshold</code> times in a row is quarantined:
+ * it is then only polled once every <code>quarantinePollingRatio</code> collections until a call succeeds
+ * within the timeout.
+ */
+public class SlowMBeanQuarantine implements SlowMBeanQuarantineMBean {
+
+    private static final int SLOWEST_OBJECT_NAMES_COUNT = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final long callTimeoutInMillis;
+
+    private final int quarantineThreshold;
+
+    private final int quarantinePollingRatio;
+
+    @Nonnull
+    private final ExecutorService callExecutor;
+
+    @Nonnull
+    private final ConcurrentMap<ObjectName, ObjectNameStats> statsByObjectName = new ConcurrentHashMap<ObjectName, ObjectNameStats>();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong skippedCallCount = new AtomicLong();
+
+    /**
+     * @param callTimeoutInMillis    maximum duration of a {@link MBeanServer#getAttributes(ObjectName, String[])} call
+     * @param quarantineThreshold    number of consecutive timeouts after which an {@link ObjectName} is quarantined
+     * @param quarantinePollingRatio a quarantined {@link ObjectName} is polled once every <code>quarantinePollingRatio</code> collections
+     * @param callExecutor           executor of the calls, should be bounded
+     */
+    public SlowMBeanQuarantine(long callTimeoutInMillis, int quarantineThreshold, int quarantinePollingRatio, @Nonnull ExecutorService callExecutor) {
+        this.callTimeoutInMillis = callTimeoutInMillis;
+        this.quarantineThreshold = Math.max(1, quarantineThreshold);
+        this.quarantinePollingRatio = Math.max(1, quarantinePollingRatio);
+        this.callExecutor = callExecutor;
+    }
+
+    /**
+     * @return <code>true</code> if the given {@link ObjectName} is quarantined and must not be polled in this collection
+     */
+    public boolean isSkipped(@Nonnull ObjectName objectName) {
+        ObjectNameStats stats = statsByObjectName.get(objectName);
+        if (stats == null) {
+            return false;
+        }
+        if (stats.callInFlight.get()) {
+            logger.trace("Skip {}, previous call still running", objectName);
+            skippedCallCount.incrementAndGet();
+            return true;
+        }
+        if (!stats.quarantined) {
+            return false;
+        }
+        if (stats.skippedCollections.incrementAndGet() % quarantinePollingRatio == 0) {
+            return false;
+        }
+        skippedCallCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Invoke {@link MBeanServer#getAttributes(ObjectName, String[])} with a timeout.
+     *
+     * @throws TimeoutException if the call didn't complete within {@link #getCallTimeoutInMillis()}, if the previous
+     *                          call to the given {@link ObjectName} is still running or if the <code>callExecutor</code> is saturated
+     * @throws Exception        the exception thrown by {@link MBeanServer#getAttributes(ObjectName, String[])}
+     */
+    @Nonnull
+    public AttributeList getAttributes(@Nonnull final MBeanServer mbeanServer, @Nonnull final ObjectName objectName, @Nonnull final String[] attributes) throws Exception {
+        final ObjectNameStats stats = getStats(objectName);
+        long nanosBefore = System.nanoTime();
+        if (!stats.callInFlight.compareAndSet(false, true)) {
+            skippedCallCount.incrementAndGet();
+            throw new TimeoutException("Previous call to " + objectName + " still running");
+        }
+        final AtomicBoolean started = new AtomicBoolean();
+        Future<AttributeList> future;
+        try {
+            future = callExecutor.submit(new Callable<AttributeList>() {
+                @Override
+                public AttributeList call() throws Exception {
+                    if (!started.compareAndSet(false, true)) {
+                        return null; // abandoned before being started
+                    }
+                    try {
+                        return mbeanServer.getAttributes(objectName, attributes);
+                    } finally {
+                        stats.callInFlight.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stats.callInFlight.set(false);
+            skippedCallCount.incrementAndGet();
+            throw new TimeoutException("No thread available to call " + objectName);
+        }
+        try {
+            AttributeList result = future.get(callTimeoutInMillis, TimeUnit.MILLISECONDS);
+            onCallCompleted(objectName, System.nanoTime() - nanosBefore);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            if (started.compareAndSet(false, true)) {
+                // never started, the call won't release the ObjectName
+                stats.callInFlight.set(false);
+            }
+            onCallTimedOut(objectName, System.nanoTime() - nanosBefore);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private void onCallCompleted(@Nonnull ObjectName objectName, long latencyInNanos) {
+        ObjectNameStats stats = getStats(objectName);
+        stats.record(latencyInNanos);
+        stats.consecutiveTimeouts = 0;
+        if (stats.quarantined) {
+            stats.quarantined = false;
+            logger.info("Release {} from quarantine, call completed in {}ms", objectName, TimeUnit.NANOSECONDS.toMillis(latencyInNanos));
+        }
+    }
+
+    private void onCallTimedOut(@Nonnull ObjectName objectName, long latencyInNanos) {
+        timeoutCount.incrementAndGet();
+        ObjectNameStats stats = getStats(objectName);
+        stats.record(latencyInNanos);
+        stats.consecutiveTimeouts++;
+        if (!stats.quarantined && stats.consecutiveTimeouts >= quarantineThreshold) {
+            stats.quarantined = true;
+            stats.skippedCollections.set(0);
+            logger.warn("Quarantine {} after {} consecutive calls exceeding {}ms, poll it once every {} collections",
+                    objectName, stats.consecutiveTimeouts, callTimeoutInMillis, quarantinePollingRatio);
+        } else {
+            logger.debug("Call to {} exceeded {}ms", objectName, callTimeoutInMillis);
+        }
+    }
+
+    @Nonnull
+    private ObjectNameStats getStats(@Nonnull ObjectName objectName) {
+        ObjectNameStats stats = statsByObjectName.get(objectName);
+        if (stats == null) {
+            ObjectNameStats newStats = new ObjectNameStats();
+            stats = statsByObjectName.putIfAbsent(objectName, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Forget the stats of the given unregistered {@link ObjectName}.
+     */
+    public void forget(@Nonnull ObjectName objectName) {
+        statsByObjectName.remove(objectName);
+    }
+
+    /**
+     * @return <code>true</code> if a call to the given {@link ObjectName} is still running
+     */
+    public boolean isCallInFlight(@Nonnull ObjectName objectName) {
+        ObjectNameStats stats = statsByObjectName.get(objectName);
+        return stats != null && stats.callInFlight.get();
+    }
+
+    public boolean isQuarantined(@Nonnull ObjectName objectName) {
+        ObjectNameStats stats = statsByObjectName.get(objectName);
+        return stats != null && stats.quarantined;
+    }
+
+    @Override
+    public long getCallTimeoutInMillis() {
+        return callTimeoutInMillis;
+    }
+
+    @Override
+    public int getQuarantineThreshold() {
+        return quarantineThreshold;
+    }
+
+    @Override
+    public int getQuarantinePollingRatio() {
+        return quarantinePollingRatio;
+    }
+
+    @Override
+    public String[] getQuarantinedObjectNames() {
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<ObjectName, ObjectNameStats> entry : statsByObjectName.entrySet()) {
+            if (entry.getValue().quarantined) {
+                result.add(entry.getKey().toString());
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public int getQuarantinedCount() {
+        int result = 0;
+        for (ObjectNameStats stats : statsByObjectName.values()) {
+            if (stats.quarantined) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public int getTrackedObjectNamesCount() {
+        return statsByObjectName.size();
+    }
+
+    @Override
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @Override
+    public long getSkippedCallCount() {
+        return skippedCallCount.get();
+    }
+
+    @Override
+    public String[] getSlowestObjectNames() {
+        List<Map.Entry<ObjectName, ObjectNameStats>> entries = new ArrayList<Map.Entry<ObjectName, ObjectNameStats>>(statsByObjectName.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<ObjectName, ObjectNameStats>>() {
+            @Override
+            public int compare(Map.Entry<ObjectName, ObjectNameStats> e1, Map.Entry<ObjectName, ObjectNameStats> e2) {
+                long l1 = e1.getValue().lastLatencyInNanos;
+                long l2 = e2.getValue().lastLatencyInNanos;
+                return l1 < l2 ? 1 : (l1 == l2 ? 0 : -1);
+            }
+        });
+        int size = Math.min(SLOWEST_OBJECT_NAMES_COUNT, entries.size());
+        String[] result = new String[size];
+        for (int i = 0; i < size; i++) {
+            ObjectNameStats stats = entries.get(i).getValue();
+            result[i] = entries.get(i).getKey() + ": last=" + TimeUnit.NANOSECONDS.toMillis(stats.lastLatencyInNanos) + "ms"
+                    + ", max=" + TimeUnit.NANOSECONDS.toMillis(stats.maxLatencyInNanos) + "ms"
+                    + (stats.quarantined ? ", quarantined" : "");
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SlowMBeanQuarantine{" +
+                "callTimeoutInMillis=" + callTimeoutInMillis +
+                ", quarantineThreshold=" + quarantineThreshold +
+                ", quarantinePollingRatio=" + quarantinePollingRatio +
+                '}';
+    }
+
+    /**
+     * Latency tracker of an {@link ObjectName}, updated by the collect threads of the query matching it.
+     */
+    private static class ObjectNameStats {
+        volatile long lastLatencyInNanos;
+        volatile long maxLatencyInNanos;
+        volatile int consecutiveTimeouts;
+        volatile boolean quarantined;
+        final AtomicBoolean callInFlight = new AtomicBoolean();
+        final AtomicLong skippedCollections = new AtomicLong();
+
+        void record(long latencyInNanos) {
+            lastLatencyInNanos = latencyInNanos;
+            if (latencyInNanos > maxLatencyInNanos) {
+                maxLatencyInNanos = latencyInNanos;
+            }
+        }
+    }
+}
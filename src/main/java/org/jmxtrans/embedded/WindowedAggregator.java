@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.jmxtrans.embedded.util.SeriesIndex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * Roll up the numeric samples of each series over fixed windows of {@link #getWindowInMillis()} aligned on the epoch
+ * and emit one result per configured {@link Aggregate} and per series at the end of each window, named
+ * <code>name + "." + aggregate</code> (e.g. <code>"...HeapMemoryUsage.used.max"</code>) and timestamped with the
+ * start of the window.
+ *
+ * A window is emitted by {@link #flush(long, Queue, ChangeSuppressionFilter)} once it is over or by
+ * {@link #add(QueryResult, Queue, ChangeSuppressionFilter)} when a sample of the following window arrives first.
+ *
+ * Accumulators are primitive arrays indexed by {@link SeriesIndex} id, adding a sample allocates nothing.
+ * Non numeric samples are not aggregated.
+ *
+ * Thread safe.
+ */
+public class WindowedAggregator {
+
+    public enum Aggregate {
+        MIN, MAX, AVG, LAST, SUM, COUNT;
+
+        /**
+         * Suffix of the result names.
+         */
+        @Nonnull
+        public String getSuffix() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 64;
+
+    private final long windowInMillis;
+
+    @Nonnull
+    private final Aggregate[] aggregates;
+
+    @Nonnull
+    private final SeriesIndex seriesIndex = new SeriesIndex(DEFAULT_INITIAL_CAPACITY);
+
+    /**
+     * Result names of each {@link #aggregates} by series id.
+     */
+    @Nonnull
+    private String[][] aggregateNames;
+
+    @Nonnull
+    private String[] types;
+
+    /**
+     * Window (epoch in millis divided by {@link #windowInMillis}) of the accumulated samples by series id.
+     */
+    @Nonnull
+    private long[] windows;
+
+    @Nonnull
+    private long[] counts;
+
+    @Nonnull
+    private double[] mins;
+
+    @Nonnull
+    private double[] maxs;
+
+    @Nonnull
+    private double[] sums;
+
+    @Nonnull
+    private double[] lasts;
+
+    /**
+     * Most recent window passed to {@link #flush(long, Queue, ChangeSuppressionFilter)}.
+     */
+    private long flushedWindow = Long.MIN_VALUE;
+
+    /**
+     * @param windowInMillis length of the aggregation windows
+     * @param aggregates     aggregates to emit for each series at the end of each window
+     */
+    public WindowedAggregator(long windowInMillis, @Nonnull Collection<Aggregate> aggregates) {
+        if (windowInMillis <= 0) {
+            throw new IllegalArgumentException("windowInMillis must be greater than 0: " + windowInMillis);
+        }
+        if (aggregates.isEmpty()) {
+            throw new IllegalArgumentException("aggregates can not be empty");
+        }
+        this.windowInMillis = windowInMillis;
+        this.aggregates = aggregates.toArray(new Aggregate[aggregates.size()]);
+        allocate(seriesIndex.getIdCapacity());
+    }
+
+    /**
+     * Accumulate the given sample.
+     *
+     * @param sample  sample to aggregate
+     * @param results queue to which the aggregates of the previous window of the series are added if they have not
+     *                been flushed yet
+     * @param filter  filter applied to the emitted aggregates
+     * @return <code>false</code> if the sample is not numeric and has not been aggregated
+     */
+    public synchronized boolean add(@Nonnull QueryResult sample, @Nonnull Queue<QueryResult> results, @Nullable ChangeSuppressionFilter filter) {
+        if (!sample.isNumeric()) {
+            return false;
+        }
+        String name = sample.getName();
+        long window = Math.max(sample.getEpochInMillis(), 0) / windowInMillis;
+        double value = sample.getDoubleValue();
+
+        int id = seriesIndex.indexOf(name);
+        if (id < 0) {
+            if (seriesIndex.size() == seriesIndex.getIdCapacity()) {
+                purgeIdleSeries(window);
+            }
+            id = seriesIndex.add(name);
+            if (id >= windows.length) {
+                allocate(seriesIndex.getIdCapacity());
+            }
+            String[] names = new String[aggregates.length];
+            for (int i = 0; i < aggregates.length; i++) {
+                names[i] = name + "." + aggregates[i].getSuffix();
+            }
+            aggregateNames[id] = names;
+            counts[id] = 0;
+        } else if (counts[id] > 0 && windows[id] != window) {
+            emit(id, results, filter);
+        }
+
+        if (counts[id] == 0) {
+            windows[id] = window;
+            mins[id] = value;
+            maxs[id] = value;
+            sums[id] = value;
+        } else {
+            mins[id] = Math.min(mins[id], value);
+            maxs[id] = Math.max(maxs[id], value);
+            sums[id] += value;
+        }
+        lasts[id] = value;
+        counts[id]++;
+        types[id] = sample.getType();
+        return true;
+    }
+
+    /**
+     * Emit the aggregates of the series whose window is over at the given time.
+     *
+     * @return number of emitted results
+     */
+    public synchronized int flush(long nowInMillis, @Nonnull Queue<QueryResult> results, @Nullable ChangeSuppressionFilter filter) {
+        long currentWindow = Math.max(nowInMillis, 0) / windowInMillis;
+        if (currentWindow <= flushedWindow) {
+            return 0;
+        }
+        flushedWindow = currentWindow;
+        int emitted = 0;
+        for (int id = 0; id < seriesIndex.getIdCapacity(); id++) {
+            if (counts[id] > 0 && windows[id] < currentWindow && seriesIndex.getName(id) != null) {
+                emitted += emit(id, results, filter);
+            }
+        }
+        return emitted;
+    }
+
+    public long getWindowInMillis() {
+        return windowInMillis;
+    }
+
+    @Nonnull
+    public Aggregate[] getAggregates() {
+        return aggregates.clone();
+    }
+
+    /**
+     * @return number of tracked series
+     */
+    public synchronized int size() {
+        return seriesIndex.size();
+    }
+
+    private int emit(int id, @Nonnull Queue<QueryResult> results, @Nullable ChangeSuppressionFilter filter) {
+        long epochInMillis = windows[id] * windowInMillis;
+        String[] names = aggregateNames[id];
+        int emitted = 0;
+        for (int i = 0; i < aggregates.length; i++) {
+            QueryResult result;
+            switch (aggregates[i]) {
+                case MIN:
+                    result = new QueryResult(names[i], types[id], mins[id], epochInMillis);
+                    break;
+                case MAX:
+                    result = new QueryResult(names[i], types[id], maxs[id], epochInMillis);
+                    break;
+                case AVG:
+                    result = new QueryResult(names[i], types[id], sums[id] / counts[id], epochInMillis);
+                    break;
+                case LAST:
+                    result = new QueryResult(names[i], types[id], lasts[id], epochInMillis);
+                    break;
+                case SUM:
+                    result = new QueryResult(names[i], types[id], sums[id], epochInMillis);
+                    break;
+                case COUNT:
+                    result = new QueryResult(names[i], types[id], counts[id], epochInMillis);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported aggregate " + aggregates[i]);
+            }
+            if (filter == null || filter.accept(result)) {
+                results.add(result);
+                emitted++;
+            }
+        }
+        counts[id] = 0;
+        return emitted;
+    }
+
+    /**
+     * Remove the series without pending samples that have not been updated for more than one window.
+     */
+    private void purgeIdleSeries(long currentWindow) {
+        for (int id = 0; id < seriesIndex.getIdCapacity(); id++) {
+            if (seriesIndex.getName(id) != null && counts[id] == 0 && currentWindow - windows[id] > 1) {
+                seriesIndex.remove(id);
+                aggregateNames[id] = null;
+                types[id] = null;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        if (windows == null) {
+            aggregateNames = new String[capacity][];
+            types = new String[capacity];
+            windows = new long[capacity];
+            counts = new long[capacity];
+            mins = new double[capacity];
+            maxs = new double[capacity];
+            sums = new double[capacity];
+            lasts = new double[capacity];
+        } else {
+            aggregateNames = Arrays.copyOf(aggregateNames, capacity);
+            types = Arrays.copyOf(types, capacity);
+            windows = Arrays.copyOf(windows, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            mins = Arrays.copyOf(mins, capacity);
+            maxs = Arrays.copyOf(maxs, capacity);
+            sums = Arrays.copyOf(sums, capacity);
+            lasts = Arrays.copyOf(lasts, capacity);
+        }
+    }
+}
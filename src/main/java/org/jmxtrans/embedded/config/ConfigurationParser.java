@@ -28,23 +28,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.management.MBeanServer;
 
+import org.jmxtrans.embedded.ChangeSuppressionFilter;
 import org.jmxtrans.embedded.EmbeddedJmxTrans;
 import org.jmxtrans.embedded.EmbeddedJmxTransException;
 import org.jmxtrans.embedded.Query;
 import org.jmxtrans.embedded.QueryAttribute;
 import org.jmxtrans.embedded.QueryResult;
 import org.jmxtrans.embedded.ResultNameStrategy;
+import org.jmxtrans.embedded.WindowedAggregator;
 import org.jmxtrans.embedded.output.OutputWriter;
 import org.jmxtrans.embedded.util.Preconditions;
 import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueue;
+import org.jmxtrans.embedded.util.concurrent.DiscardingRingBuffer;
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueue;
 import org.jmxtrans.embedded.util.json.PlaceholderEnabledJsonNodeFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -176,13 +184,83 @@ public class ConfigurationParser {
             }
 
             JsonNode capacityNode = queryNode.path("capacity");
-            if (capacityNode.isMissingNode()) {
-            } else if (capacityNode.isNumber()) {
-                Integer capacity = capacityNode.isMissingNode() ? null : capacityNode.asInt();
-                if (capacity != null && capacity > 0) {
-                    BlockingQueue<QueryResult> queryResults = new DiscardingBlockingQueue<QueryResult>(capacity);
-                    query.setResultsQueue(queryResults);
+            JsonNode resultsQueueNode = queryNode.path("resultsQueue");
+            JsonNode overflowPolicyNode = queryNode.path("overflowPolicy");
+            JsonNode capacityInBytesNode = queryNode.path("capacityInBytes");
+            Integer capacity = capacityNode.isNumber() ? capacityNode.asInt() : null;
+            OverflowPolicyBlockingQueue.OverflowPolicy overflowPolicy = null;
+            if (overflowPolicyNode.isMissingNode()) {
+            } else if (overflowPolicyNode.isValueNode()) {
+                try {
+                    overflowPolicy = OverflowPolicyBlockingQueue.OverflowPolicy.valueOf(overflowPolicyNode.asText().replace('-', '_').toUpperCase(Locale.ENGLISH));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Ignore unsupported overflowPolicy '{}', expected one of {}", overflowPolicyNode.asText(), Arrays.toString(OverflowPolicyBlockingQueue.OverflowPolicy.values()));
+                }
+            } else {
+                logger.warn("Ignore invalid node {}", overflowPolicyNode);
+            }
+            long capacityInBytes = 0;
+            if (capacityInBytesNode.isMissingNode()) {
+            } else if (capacityInBytesNode.isNumber() && capacityInBytesNode.asLong() > 0) {
+                capacityInBytes = capacityInBytesNode.asLong();
+            } else {
+                logger.warn("Ignore invalid node {}", capacityInBytesNode);
+            }
+            if ((capacity != null && capacity > 0) || resultsQueueNode.isValueNode() || overflowPolicy != null || capacityInBytes > 0) {
+                BlockingQueue<QueryResult> queryResults = newResultsQueue(
+                        resultsQueueNode.isValueNode() ? resultsQueueNode.asText() : null,
+                        capacity != null && capacity > 0 ? capacity : Query.DEFAULT_RESULTS_QUEUE_CAPACITY,
+                        overflowPolicy, capacityInBytes, queryNode.path("blockTimeoutInMillis").asLong(OverflowPolicyBlockingQueue.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS));
+                query.setResultsQueue(queryResults);
+            }
+
+            JsonNode queryIntervalInSecondsNode = queryNode.path("queryIntervalInSeconds");
+            if (queryIntervalInSecondsNode.isMissingNode()) {
+            } else if (queryIntervalInSecondsNode.isNumber() && queryIntervalInSecondsNode.asInt() > 0) {
+                query.setQueryIntervalInSeconds(queryIntervalInSecondsNode.asInt());
+            } else {
+                logger.warn("Ignore invalid node {}", queryIntervalInSecondsNode);
+            }
+
+            JsonNode priorityNode = queryNode.path("priority");
+            if (priorityNode.isMissingNode()) {
+            } else if (priorityNode.isValueNode()) {
+                try {
+                    query.setPriority(Query.Priority.valueOf(priorityNode.asText().toUpperCase(Locale.ENGLISH)));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Ignore unsupported priority '{}', expected one of {}", priorityNode.asText(), Arrays.toString(Query.Priority.values()));
                 }
+            } else {
+                logger.warn("Ignore invalid node {}", priorityNode);
+            }
+
+            JsonNode suppressUnchangedValuesNode = queryNode.path("suppressUnchangedValues");
+            if (suppressUnchangedValuesNode.isMissingNode()) {
+            } else if (suppressUnchangedValuesNode.isValueNode()) {
+                if (suppressUnchangedValuesNode.asBoolean()) {
+                    int heartbeatIntervalInSeconds = queryNode.path("heartbeatIntervalInSeconds").asInt(ChangeSuppressionFilter.DEFAULT_HEARTBEAT_INTERVAL_IN_SECONDS);
+                    query.setChangeSuppressionFilter(new ChangeSuppressionFilter(TimeUnit.MILLISECONDS.convert(heartbeatIntervalInSeconds, TimeUnit.SECONDS)));
+                }
+            } else {
+                logger.warn("Ignore invalid node {}", suppressUnchangedValuesNode);
+            }
+
+            JsonNode aggregationWindowInSecondsNode = queryNode.path("aggregationWindowInSeconds");
+            if (aggregationWindowInSecondsNode.isMissingNode()) {
+            } else if (aggregationWindowInSecondsNode.isNumber() && aggregationWindowInSecondsNode.asInt() > 0) {
+                List<WindowedAggregator.Aggregate> aggregates = parseAggregates(queryNode.path("aggregates"));
+                query.setWindowedAggregator(new WindowedAggregator(
+                        TimeUnit.MILLISECONDS.convert(aggregationWindowInSecondsNode.asInt(), TimeUnit.SECONDS), aggregates));
+            } else {
+                logger.warn("Ignore invalid node {}", aggregationWindowInSecondsNode);
+            }
+
+            JsonNode collectParallelismNode = queryNode.path("collectParallelism");
+            if (collectParallelismNode.isMissingNode()) {
+            } else if (collectParallelismNode.isNumber()) {
+                query.setCollectParallelism(collectParallelismNode.asInt());
+            } else {
+                logger.warn("Ignore invalid node {}", collectParallelismNode);
             }
 
             JsonNode attributesNode = queryNode.path("attributes");
@@ -223,6 +301,58 @@ public class ConfigurationParser {
             embeddedJmxTrans.setNumQueryThreads(numQueryThreadsNode.asInt());
         }
 
+        JsonNode executionModeNode = configurationRootNode.path("executionMode");
+        if (executionModeNode.isMissingNode()) {
+        } else if (executionModeNode.isValueNode()) {
+            try {
+                embeddedJmxTrans.setExecutionMode(EmbeddedJmxTrans.ExecutionMode.valueOf(executionModeNode.asText().toUpperCase(Locale.ENGLISH)));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignore unsupported executionMode '{}', expected one of {}", executionModeNode.asText(), Arrays.toString(EmbeddedJmxTrans.ExecutionMode.values()));
+            }
+        } else {
+            logger.warn("Ignore invalid node {}", executionModeNode);
+        }
+
+        JsonNode alignCollectionOnWallClockNode = configurationRootNode.path("alignCollectionOnWallClock");
+        if (!alignCollectionOnWallClockNode.isMissingNode()) {
+            embeddedJmxTrans.setAlignCollectionOnWallClock(alignCollectionOnWallClockNode.asBoolean());
+        }
+
+        JsonNode convertCountersToRatesNode = configurationRootNode.path("convertCountersToRates");
+        if (!convertCountersToRatesNode.isMissingNode()) {
+            embeddedJmxTrans.setConvertCountersToRates(convertCountersToRatesNode.asBoolean());
+        }
+
+        JsonNode exportLaneCapacityNode = configurationRootNode.path("exportLaneCapacity");
+        if (!exportLaneCapacityNode.isMissingNode()) {
+            embeddedJmxTrans.setExportLaneCapacity(exportLaneCapacityNode.asInt());
+        }
+
+        JsonNode mbeanCallTimeoutInMillisNode = configurationRootNode.path("mbeanCallTimeoutInMillis");
+        if (!mbeanCallTimeoutInMillisNode.isMissingNode()) {
+            embeddedJmxTrans.setMbeanCallTimeoutInMillis(mbeanCallTimeoutInMillisNode.asLong());
+        }
+
+        JsonNode mbeanQuarantineThresholdNode = configurationRootNode.path("mbeanQuarantineThreshold");
+        if (!mbeanQuarantineThresholdNode.isMissingNode()) {
+            embeddedJmxTrans.setMbeanQuarantineThreshold(mbeanQuarantineThresholdNode.asInt());
+        }
+
+        JsonNode mbeanQuarantinePollingRatioNode = configurationRootNode.path("mbeanQuarantinePollingRatio");
+        if (!mbeanQuarantinePollingRatioNode.isMissingNode()) {
+            embeddedJmxTrans.setMbeanQuarantinePollingRatio(mbeanQuarantinePollingRatioNode.asInt());
+        }
+
+        JsonNode mbeanCallMaxThreadsNode = configurationRootNode.path("mbeanCallMaxThreads");
+        if (!mbeanCallMaxThreadsNode.isMissingNode()) {
+            embeddedJmxTrans.setMbeanCallMaxThreads(mbeanCallMaxThreadsNode.asInt());
+        }
+
+        JsonNode numCollectForkJoinThreadsNode = configurationRootNode.path("numCollectForkJoinThreads");
+        if (!numCollectForkJoinThreadsNode.isMissingNode()) {
+            embeddedJmxTrans.setNumCollectForkJoinThreads(numCollectForkJoinThreadsNode.asInt());
+        }
+
         JsonNode exportIntervalInSecondsNode = configurationRootNode.path("exportIntervalInSeconds");
         if (!exportIntervalInSecondsNode.isMissingNode()) {
             embeddedJmxTrans.setExportIntervalInSeconds(exportIntervalInSecondsNode.asInt());
@@ -233,6 +363,16 @@ public class ConfigurationParser {
             embeddedJmxTrans.setNumExportThreads(numExportThreadsNode.asInt());
         }
 
+        JsonNode globalResultsQueueCapacityNode = configurationRootNode.path("globalResultsQueueCapacity");
+        if (!globalResultsQueueCapacityNode.isMissingNode()) {
+            embeddedJmxTrans.setGlobalResultsQueueCapacity(globalResultsQueueCapacityNode.asInt());
+        }
+
+        JsonNode objectNameCacheResyncIntervalInSecondsNode = configurationRootNode.path("objectNameCacheResyncIntervalInSeconds");
+        if (!objectNameCacheResyncIntervalInSecondsNode.isMissingNode()) {
+            embeddedJmxTrans.setObjectNameCacheResyncIntervalInSeconds(objectNameCacheResyncIntervalInSecondsNode.asInt());
+        }
+
         logger.info("Loaded {}", embeddedJmxTrans);
     }
 
@@ -275,6 +415,78 @@ public class ConfigurationParser {
         return outputWriters;
     }
 
+    /**
+     * @param resultsQueue <code>"blockingQueue"</code> (default) for a {@link DiscardingBlockingQueue} or
+     *                     <code>"ringBuffer"</code> for a lock-free {@link DiscardingRingBuffer}
+     * @param capacity     capacity of the queue
+     */
+    @Nonnull
+    protected BlockingQueue<QueryResult> newResultsQueue(@Nullable String resultsQueue, int capacity) {
+        return newResultsQueue(resultsQueue, capacity, null, 0, OverflowPolicyBlockingQueue.DEFAULT_BLOCK_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * @param resultsQueue         see {@link #newResultsQueue(String, int)}, ignored if an <code>overflowPolicy</code>
+     *                             other than {@link OverflowPolicyBlockingQueue.OverflowPolicy#DROP_OLDEST} or a
+     *                             <code>capacityInBytes</code> is given
+     * @param capacity             capacity of the queue
+     * @param overflowPolicy       behavior of the full queue, <code>null</code> to discard the oldest results
+     * @param capacityInBytes      maximum estimated size of the queued results, <code>0</code> for no limit
+     * @param blockTimeoutInMillis timeout of the {@link OverflowPolicyBlockingQueue.OverflowPolicy#BLOCK} policy
+     */
+    @Nonnull
+    protected BlockingQueue<QueryResult> newResultsQueue(@Nullable String resultsQueue, int capacity,
+                                                         @Nullable OverflowPolicyBlockingQueue.OverflowPolicy overflowPolicy,
+                                                         long capacityInBytes, long blockTimeoutInMillis) {
+        if (capacityInBytes > 0 || (overflowPolicy != null && overflowPolicy != OverflowPolicyBlockingQueue.OverflowPolicy.DROP_OLDEST)) {
+            if (resultsQueue != null && !"blockingQueue".equals(resultsQueue)) {
+                logger.warn("Ignore resultsQueue '{}' for overflowPolicy '{}' and capacityInBytes {}", resultsQueue, overflowPolicy, capacityInBytes);
+            }
+            return new OverflowPolicyBlockingQueue<QueryResult>(capacity, capacityInBytes, Query.RESULT_SIZE_WEIGHER,
+                    overflowPolicy == null ? OverflowPolicyBlockingQueue.OverflowPolicy.DROP_OLDEST : overflowPolicy, blockTimeoutInMillis);
+        }
+        if ("ringBuffer".equals(resultsQueue)) {
+            return new DiscardingRingBuffer<QueryResult>(capacity);
+        } else if (resultsQueue != null && !"blockingQueue".equals(resultsQueue)) {
+            logger.warn("Unsupported resultsQueue '{}', use 'blockingQueue'", resultsQueue);
+        }
+        return new DiscardingBlockingQueue<QueryResult>(capacity);
+    }
+
+    /**
+     * @param aggregatesNode array or comma separated list of {@link WindowedAggregator.Aggregate} names,
+     *                       missing for <code>min, max, avg, last</code>
+     */
+    @Nonnull
+    private List<WindowedAggregator.Aggregate> parseAggregates(@Nonnull JsonNode aggregatesNode) {
+        List<String> names = new ArrayList<String>();
+        if (aggregatesNode.isArray()) {
+            for (JsonNode aggregateNode : aggregatesNode) {
+                names.add(aggregateNode.asText());
+            }
+        } else if (aggregatesNode.isValueNode()) {
+            names.addAll(Arrays.asList(aggregatesNode.asText().split(",")));
+        } else if (!aggregatesNode.isMissingNode()) {
+            logger.warn("Ignore invalid node {}", aggregatesNode);
+        }
+        List<WindowedAggregator.Aggregate> aggregates = new ArrayList<WindowedAggregator.Aggregate>();
+        for (String name : names) {
+            try {
+                WindowedAggregator.Aggregate aggregate = WindowedAggregator.Aggregate.valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+                if (!aggregates.contains(aggregate)) {
+                    aggregates.add(aggregate);
+                }
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignore unsupported aggregate '{}', expected one of {}", name, Arrays.toString(WindowedAggregator.Aggregate.values()));
+            }
+        }
+        if (aggregates.isEmpty()) {
+            aggregates.addAll(Arrays.asList(WindowedAggregator.Aggregate.MIN, WindowedAggregator.Aggregate.MAX,
+                    WindowedAggregator.Aggregate.AVG, WindowedAggregator.Aggregate.LAST));
+        }
+        return aggregates;
+    }
+
     protected void parseQueryAttributeNode(@Nonnull Query query, @Nonnull JsonNode attributeNode,@Nonnull JsonNode queryNode) {
         if (attributeNode.isMissingNode()) {
         } else if (attributeNode.isValueNode()) {
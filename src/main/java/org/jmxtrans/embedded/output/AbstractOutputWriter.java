@@ -25,19 +25,30 @@ package org.jmxtrans.embedded.output;
 
 import org.jmxtrans.embedded.QueryResult;
 import org.jmxtrans.embedded.ResultNameStrategy;
+import org.jmxtrans.embedded.util.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.openmbean.CompositeData;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Convenience abstract class to implement an {@link OutputWriter}.
  *
+ * The statistics exposed by {@link AbstractOutputWriterMBean} are maintained by
+ * {@link #write(OutputWriter, Collection)}, writers that log and swallow their failures or that know the number of
+ * bytes they send report them with {@link #incrementWriteFailureCount(Exception)} and
+ * {@link #incrementWrittenBytesCount(long)}.
+ *
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  * @author <a href="mailto:patrick.bruehlmann@gmail.com">Patrick Brühlmann</a>
  */
-public abstract class AbstractOutputWriter implements OutputWriter {
+public abstract class AbstractOutputWriter implements OutputWriter, AbstractOutputWriterMBean {
 
     public final static String SETTING_URL = "url";
     public final static String SETTING_USERNAME = "username";
@@ -55,6 +66,8 @@ public abstract class AbstractOutputWriter implements OutputWriter {
     public final static String SETTING_PROXY_HOST = "proxyHost";
     public final static String SETTING_NAME_PREFIX = "namePrefix";
     public final static String SETTING_PROTOCOL = "protocol";
+    public final static String SETTING_SUPPRESS_UNCHANGED_VALUES = "suppressUnchangedValues";
+    public final static String SETTING_HEARTBEAT_INTERVAL_IN_SECONDS = "heartbeatIntervalInSeconds";
 
     protected final Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -62,6 +75,91 @@ public abstract class AbstractOutputWriter implements OutputWriter {
     private Map<String, Object> settings = new HashMap<String, Object>();
     private boolean enabled = true;
 
+    private final AtomicLong writtenResultsCount = new AtomicLong();
+    private final AtomicLong failedResultsCount = new AtomicLong();
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong writtenBytesCount = new AtomicLong();
+    private final AtomicLong writeFailureCount = new AtomicLong();
+    private final AtomicLong writeDurationInNanos = new AtomicLong();
+    private final LatencyHistogram writeDurationHistogram = new LatencyHistogram();
+    @Nullable
+    private volatile String lastWriteFailure;
+    private volatile long lastWriteFailureTimeInMillis;
+    /**
+     * Failures reported by the current thread, to attribute the failures swallowed by {@link #write(Iterable)} to the
+     * results of the call that reported them when the writer is written concurrently.
+     */
+    private final ThreadLocal<long[]> threadWriteFailureCount = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    /**
+     * Write the given results with the given writer and, if it is an {@link AbstractOutputWriter}, update its
+     * statistics. Exceptions thrown by the writer are counted and rethrown.
+     *
+     * @return <code>false</code> if the writer reported a failure that it logged and swallowed (see
+     * {@link #incrementWriteFailureCount(String)}) while writing the given results
+     */
+    public static boolean write(@Nonnull OutputWriter outputWriter, @Nonnull Collection<QueryResult> results) {
+        if (!(outputWriter instanceof AbstractOutputWriter)) {
+            outputWriter.write(results);
+            return true;
+        }
+        AbstractOutputWriter abstractOutputWriter = (AbstractOutputWriter) outputWriter;
+        long nanosBefore = System.nanoTime();
+        // failures swallowed by the writer are only visible through the failures it reports in the calling thread
+        long[] threadWriteFailureCount = abstractOutputWriter.threadWriteFailureCount.get();
+        long threadWriteFailureCountBefore = threadWriteFailureCount[0];
+        try {
+            abstractOutputWriter.write(results);
+            if (threadWriteFailureCount[0] == threadWriteFailureCountBefore) {
+                abstractOutputWriter.writtenResultsCount.addAndGet(results.size());
+                return true;
+            } else {
+                abstractOutputWriter.failedResultsCount.addAndGet(results.size());
+                return false;
+            }
+        } catch (RuntimeException e) {
+            abstractOutputWriter.failedResultsCount.addAndGet(results.size());
+            abstractOutputWriter.incrementWriteFailureCount(e);
+            throw e;
+        } finally {
+            long durationInNanos = System.nanoTime() - nanosBefore;
+            abstractOutputWriter.writeCount.incrementAndGet();
+            abstractOutputWriter.writeDurationInNanos.addAndGet(durationInNanos);
+            abstractOutputWriter.writeDurationHistogram.recordValue(durationInNanos);
+        }
+    }
+
+    /**
+     * Report a write failure that is not propagated to the caller of {@link #write(Iterable)}.
+     */
+    protected void incrementWriteFailureCount(@Nonnull Exception e) {
+        incrementWriteFailureCount(e.toString());
+    }
+
+    /**
+     * Report a write failure that is not propagated to the caller of {@link #write(Iterable)}.
+     *
+     * @param description description of the failure (e.g. an unexpected HTTP response code)
+     */
+    protected void incrementWriteFailureCount(@Nonnull String description) {
+        writeFailureCount.incrementAndGet();
+        threadWriteFailureCount.get()[0]++;
+        lastWriteFailure = description;
+        lastWriteFailureTimeInMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Report the number of bytes sent to the target system.
+     */
+    protected void incrementWrittenBytesCount(long bytes) {
+        writtenBytesCount.addAndGet(bytes);
+    }
+
     /**
      * No-op implementation
      */
@@ -222,6 +320,7 @@ public abstract class AbstractOutputWriter implements OutputWriter {
         this.strategy = strategy;
     }
 
+    @Override
     public boolean isEnabled() {
         return enabled;
     }
@@ -230,6 +329,57 @@ public abstract class AbstractOutputWriter implements OutputWriter {
         this.enabled = enabled;
     }
 
+    @Override
+    public long getWrittenResultsCount() {
+        return writtenResultsCount.get();
+    }
+
+    @Override
+    public long getFailedResultsCount() {
+        return failedResultsCount.get();
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    @Override
+    public long getWrittenBytesCount() {
+        return writtenBytesCount.get();
+    }
+
+    @Override
+    public long getWriteFailureCount() {
+        return writeFailureCount.get();
+    }
+
+    @Override
+    @Nullable
+    public String getLastWriteFailure() {
+        return lastWriteFailure;
+    }
+
+    @Override
+    public long getLastWriteFailureTimeInMillis() {
+        return lastWriteFailureTimeInMillis;
+    }
+
+    @Override
+    public long getWriteDurationInNanos() {
+        return writeDurationInNanos.get();
+    }
+
+    @Override
+    public CompositeData getWriteDurationPercentiles() {
+        return writeDurationHistogram.getSnapshot().toCompositeData();
+    }
+
+    @Override
+    public CompositeData getRecentWriteDurationPercentiles() {
+        return writeDurationHistogram.getRecentSnapshot().toCompositeData();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import javax.management.openmbean.CompositeData;
+
+/**
+ * JMX exposition of the runtime statistics of an {@link AbstractOutputWriter}, registered under
+ * <code>org.jmxtrans.embedded:type=OutputWriter</code>.
+ */
+public interface AbstractOutputWriterMBean {
+
+    boolean isEnabled();
+
+    /**
+     * Number of results handed to the successful invocations of {@link OutputWriter#write(Iterable)}.
+     */
+    long getWrittenResultsCount();
+
+    /**
+     * Number of results handed to the invocations of {@link OutputWriter#write(Iterable)} that failed, including the
+     * failures logged and swallowed by the writer in the thread invoking {@link OutputWriter#write(Iterable)}.
+     */
+    long getFailedResultsCount();
+
+    /**
+     * Number of invocations of {@link OutputWriter#write(Iterable)}.
+     */
+    long getWriteCount();
+
+    /**
+     * Number of bytes sent to the target system, <code>0</code> if the writer doesn't report it.
+     */
+    long getWrittenBytesCount();
+
+    /**
+     * Number of failed writes, including the failures logged and swallowed by the writer.
+     */
+    long getWriteFailureCount();
+
+    /**
+     * Description of the last write failure, <code>null</code> if none.
+     */
+    String getLastWriteFailure();
+
+    /**
+     * Time of the last write failure, <code>0</code> if none.
+     */
+    long getLastWriteFailureTimeInMillis();
+
+    long getWriteDurationInNanos();
+
+    /**
+     * Count, p50, p90, p99 and max of the write durations in nanoseconds.
+     */
+    CompositeData getWriteDurationPercentiles();
+
+    /**
+     * Same as {@link #getWriteDurationPercentiles()} for the writes done since the previous read of this attribute.
+     */
+    CompositeData getRecentWriteDurationPercentiles();
+}
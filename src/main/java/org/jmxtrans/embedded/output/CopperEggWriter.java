@@ -536,6 +536,7 @@ public class CopperEggWriter extends AbstractOutputWriter implements OutputWrite
             }
         } catch (Exception e) {
             exceptionCounter.incrementAndGet();
+            incrementWriteFailureCount(e);
             logger.warn("Exception: one_set: failed to connect to CopperEgg Service '{}' with proxy {}", newurl, proxy, e);
             return;
         }
@@ -544,6 +545,7 @@ public class CopperEggWriter extends AbstractOutputWriter implements OutputWrite
                 cue_serialize(counters, urlCxn.getOutputStream());
                 int responseCode = urlCxn.getResponseCode();
                 if (responseCode != 200) {
+                    incrementWriteFailureCount("HTTP " + responseCode + " from " + newurl);
                     logger.warn("one_set: Failure {}: {} to send result to CopperEgg service {}", responseCode, urlCxn.getResponseMessage(), newurl);
                 }       
                 try {
@@ -562,6 +564,7 @@ public class CopperEggWriter extends AbstractOutputWriter implements OutputWrite
 
             } catch (Exception e) {
                 exceptionCounter.incrementAndGet();
+                incrementWriteFailureCount(e);
                 logger.warn("Execption: one_set: Failure to send result to CopperEgg Service '{}' with proxy {}", newurl, proxy, e);
             }
         }
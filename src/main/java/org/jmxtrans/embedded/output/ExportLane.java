@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.ChangeSuppressionFilter;
+import org.jmxtrans.embedded.QueryResult;
+import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Bounded queue in front of an {@link OutputWriter} with a dedicated dispatch task, so that a slow writer
+ * (e.g. stuck in an HTTP read timeout) doesn't delay the export to the other writers.
+ *
+ * {@link #offer(Iterable)} copies the results in the queue and returns immediately, if the queue is full
+ * the oldest results are discarded and counted (see {@link #getDiscardedResultsCount()}).
+ * The dispatch task writes the queued results by batches of at most <code>batchSize</code>.
+ *
+ * The write statistics are maintained by {@link AbstractOutputWriter#write(OutputWriter, java.util.Collection)} and
+ * exposed by the MBean of the {@link OutputWriter} (see {@link AbstractOutputWriterMBean}).
+ *
+ * If the writer suppresses unchanged values, the values are recorded in its {@link ChangeSuppressionFilter} once
+ * written: an unchanged value offered again while the previous one is still queued is not suppressed.
+ */
+public class ExportLane implements ExportLaneMBean, Runnable {
+
+    /**
+     * Maximum time given to the dispatch task to complete its write in progress when the lane is stopped.
+     */
+    static final long STOP_TIMEOUT_IN_MILLIS = 10000;
+
+    /**
+     * Maximum time during which the dispatch task waits for results before checking if the lane is stopped.
+     */
+    private static final long POLL_TIMEOUT_IN_MILLIS = 100;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    @Nonnull
+    private final OutputWriter outputWriter;
+
+    @Nonnull
+    private final DiscardingBlockingQueue<QueryResult> queue;
+
+    private final int batchSize;
+
+    /**
+     * Change suppression filter of the {@link #outputWriter} whose accepted values are recorded once written,
+     * <code>null</code> if unchanged values are not suppressed.
+     */
+    @Nullable
+    private final ChangeSuppressionFilter changeSuppressionFilter;
+
+    private volatile boolean running;
+
+    /**
+     * Serializes the writes of the dispatch task and of {@link #stop()}.
+     */
+    private final Object writeLock = new Object();
+
+    @Nullable
+    private Future<?> dispatchTask;
+
+    /**
+     * @param outputWriter the writer to which the results are dispatched
+     * @param capacity     maximum number of queued results
+     * @param batchSize    maximum number of results per {@link OutputWriter#write(Iterable)}
+     */
+    public ExportLane(@Nonnull OutputWriter outputWriter, int capacity, int batchSize) {
+        this(outputWriter, capacity, batchSize, null);
+    }
+
+    /**
+     * @param changeSuppressionFilter filter that selected the offered results, the values of the written results are
+     *                                recorded in it (see {@link ChangeSuppressionFilter#recordAccepted(Iterable)})
+     */
+    public ExportLane(@Nonnull OutputWriter outputWriter, int capacity, int batchSize, @Nullable ChangeSuppressionFilter changeSuppressionFilter) {
+        this.outputWriter = outputWriter;
+        this.queue = new DiscardingBlockingQueue<QueryResult>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.changeSuppressionFilter = changeSuppressionFilter;
+    }
+
+    /**
+     * Start the dispatch task on the given executor which must provide a dedicated thread.
+     */
+    public synchronized void start(@Nonnull ExecutorService executor) {
+        running = true;
+        dispatchTask = executor.submit(this);
+    }
+
+    /**
+     * Stop the dispatch task and write the remaining queued results in the calling thread.
+     *
+     * The write in progress in the dispatch task, if any, is not interrupted: the dispatch task is given up to
+     * {@link #STOP_TIMEOUT_IN_MILLIS} to complete it and exit before the queue is drained. It is only interrupted
+     * if it doesn't exit in time.
+     */
+    public void stop() {
+        Future<?> task;
+        synchronized (this) {
+            running = false;
+            task = dispatchTask;
+            dispatchTask = null;
+        }
+        if (task != null) {
+            try {
+                task.get(STOP_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logger.warn("Dispatch task of {} did not complete within {}ms, interrupt it", outputWriter, STOP_TIMEOUT_IN_MILLIS);
+                task.cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                task.cancel(true);
+            } catch (CancellationException e) {
+                // executor shut down
+            } catch (ExecutionException e) {
+                logger.warn("Exception in the dispatch task of {}", outputWriter, e.getCause());
+            }
+        }
+        List<QueryResult> batch = new ArrayList<QueryResult>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Queue the given results, never blocks.
+     */
+    public void offer(@Nonnull Iterable<QueryResult> results) {
+        for (QueryResult result : results) {
+            queue.offer(result);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<QueryResult> batch = new ArrayList<QueryResult>(batchSize);
+        while (running) {
+            try {
+                QueryResult first = queue.poll(POLL_TIMEOUT_IN_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(@Nonnull List<QueryResult> batch) {
+        synchronized (writeLock) {
+            try {
+                if (AbstractOutputWriter.write(outputWriter, batch) && changeSuppressionFilter != null) {
+                    changeSuppressionFilter.recordAccepted(batch);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Exception writing {} results to {}", batch.size(), outputWriter, e);
+            }
+        }
+    }
+
+    @Nonnull
+    public OutputWriter getWrappedOutputWriter() {
+        return outputWriter;
+    }
+
+    @Override
+    public String getOutputWriter() {
+        return outputWriter.toString();
+    }
+
+    @Override
+    public int getCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public int getDiscardedResultsCount() {
+        return queue.getDiscardedElementCount();
+    }
+
+    @Override
+    public String toString() {
+        return "ExportLane{" +
+                "outputWriter=" + outputWriter +
+                ", queueSize=" + queue.size() +
+                ", batchSize=" + batchSize +
+                '}';
+    }
+}
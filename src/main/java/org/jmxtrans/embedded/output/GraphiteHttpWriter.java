@@ -100,9 +100,12 @@ public class GraphiteHttpWriter extends AbstractOutputWriter implements OutputWr
         try {
             StringBuilder sbUrlWriter = new StringBuilder("");
             for (QueryResult result : results) {
-                String msg = metricPathPrefix + result.getName() + " " + result.getValue() + " " + result.getEpoch(TimeUnit.SECONDS) + "\n";
-                logger.debug("Export '{}'", msg);
-                sbUrlWriter.append(msg);
+                int start = sbUrlWriter.length();
+                sbUrlWriter.append(metricPathPrefix).append(result.getName()).append(' ');
+                result.appendValue(sbUrlWriter).append(' ').append(result.getEpoch(TimeUnit.SECONDS)).append('\n');
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Export '{}'", sbUrlWriter.substring(start));
+                }
             }
             if (sbUrlWriter.length() > 0) {
                 sbUrlWriter.insert(0, "data=");
@@ -115,6 +118,7 @@ public class GraphiteHttpWriter extends AbstractOutputWriter implements OutputWr
                 IoUtils2.closeQuietly(urlWriter);
                 int responseCode = urlConnection.getResponseCode();
                 if (responseCode != 200) {
+                    incrementWriteFailureCount("HTTP " + responseCode + " from " + graphiteHttpUrl);
                     logger.warn("Failure {}:'{}' to send result to Graphite HTTP proxy'{}' ", responseCode, urlConnection.getResponseMessage(), graphiteHttpUrl);
                 }
                 if (logger.isTraceEnabled()) {
@@ -122,6 +126,7 @@ public class GraphiteHttpWriter extends AbstractOutputWriter implements OutputWr
                 }
             }
         } catch (Exception e) {
+            incrementWriteFailureCount(e);
             logger.warn("Failure to send result to Graphite HTTP proxy '{}'", graphiteHttpUrl, e);
         } finally {
             // Release the connection.
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode {@link QueryResult}s in a message of the
+ * <a href="http://graphite.readthedocs.org/en/0.9.10/feeding-carbon.html#the-pickle-protocol">Carbon Pickle protocol</a>:
+ * a 4 bytes big endian length header followed by the pickle of <code>[(name, (timestamp, value)), ...]</code>.
+ *
+ * Pure Java encoder of the subset of the pickle protocol 2 needed by this structure, readable by the unpicklers of
+ * both Python 2 and Python 3 carbon: names and string values are unicode strings ({@code BINUNICODE}), integers are
+ * {@code BININT1}, {@code BININT2}, {@code BININT} or {@code LONG1} and floats are {@code BINFLOAT}. The memo opcodes
+ * emitted by the Python pickler are not needed to unpickle and are omitted. As the C pickler of CPython, the list
+ * items are appended by batches of {@value #APPENDS_BATCH_SIZE} with {@code MARK ... APPENDS} and the item of a single
+ * item list with {@code APPEND}: the output is the one of {@code pickletools.optimize(pickle.dumps(obj, 2))} of
+ * CPython 3 for names and string values of type {@code str}. Thread safe.
+ *
+ * Messages are streamed result per result with {@link #startMessage(ByteBuffer)},
+ * {@link #encode(QueryResult, ByteBuffer, int)} and {@link #endMessage(ByteBuffer, int)}, the buffer grows up to the
+ * {@code maxMessageSizeInBytes} so that a message is never rejected by carbon. Until the message is ended, its
+ * header holds the position of the {@code MARK} of the current batch.
+ */
+public class GraphitePickleEncoder {
+
+    public static final int HEADER_LENGTH = 4;
+
+    /**
+     * {@code MAX_LENGTH} of the carbon {@code MetricPickleReceiver}, larger messages are rejected.
+     */
+    public static final int DEFAULT_MAX_MESSAGE_SIZE_IN_BYTES = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16 * 1024;
+
+    /**
+     * {@code BATCHSIZE} of the Python pickler.
+     */
+    static final int APPENDS_BATCH_SIZE = 1000;
+
+    /**
+     * Largest encoding of a number: {@code LONG1} of 8 bytes.
+     */
+    private static final int MAX_NUMBER_LENGTH = 1 + 1 + 8;
+
+    private static final byte PROTO = (byte) 0x80;
+    private static final byte EMPTY_LIST = ']';
+    private static final byte MARK = '(';
+    private static final byte APPEND = 'a';
+    private static final byte APPENDS = 'e';
+    private static final byte TUPLE2 = (byte) 0x86;
+    private static final byte BINUNICODE = 'X';
+    private static final byte BININT1 = 'K';
+    private static final byte BININT2 = 'M';
+    private static final byte BININT = 'J';
+    private static final byte LONG1 = (byte) 0x8a;
+    private static final byte BINFLOAT = 'G';
+    private static final byte STOP = '.';
+
+    /**
+     * {@code PROTO 2}, {@code EMPTY_LIST} and {@code MARK}.
+     */
+    private static final int MESSAGE_START_LENGTH = 4;
+
+    /**
+     * {@code APPENDS} or {@code APPEND}, and {@code STOP}.
+     */
+    private static final int MESSAGE_END_LENGTH = 2;
+
+    /**
+     * {@code APPENDS} and {@code MARK} between two batches.
+     */
+    private static final int BATCH_SEPARATOR_LENGTH = 2;
+
+    @Nonnull
+    private final String metricPathPrefix;
+
+    private final int maxMessageSizeInBytes;
+
+    public GraphitePickleEncoder(@Nonnull String metricPathPrefix) {
+        this(metricPathPrefix, DEFAULT_MAX_MESSAGE_SIZE_IN_BYTES);
+    }
+
+    /**
+     * @param maxMessageSizeInBytes maximum size of the pickle of a message, header excluded
+     */
+    public GraphitePickleEncoder(@Nonnull String metricPathPrefix, int maxMessageSizeInBytes) {
+        if (maxMessageSizeInBytes < MESSAGE_START_LENGTH + MESSAGE_END_LENGTH) {
+            throw new IllegalArgumentException("Invalid maxMessageSizeInBytes " + maxMessageSizeInBytes);
+        }
+        this.metricPathPrefix = metricPathPrefix;
+        this.maxMessageSizeInBytes = maxMessageSizeInBytes;
+    }
+
+    /**
+     * Encode the given results in one message, regardless of the {@code maxMessageSizeInBytes}.
+     *
+     * @param buffer buffer to reuse, a larger one is allocated if it is <code>null</code> or too small
+     * @return the buffer holding the header and the pickle between its position and its limit
+     */
+    @Nonnull
+    public ByteBuffer encode(@Nonnull Iterable<QueryResult> results, @Nullable ByteBuffer buffer) {
+        buffer = startMessage(buffer);
+        int resultsCount = 0;
+        for (QueryResult result : results) {
+            buffer = encode(result, buffer, resultsCount++, Integer.MAX_VALUE);
+        }
+        endMessage(buffer, resultsCount);
+        return buffer;
+    }
+
+    /**
+     * Start a new message in the given buffer.
+     *
+     * @param buffer buffer to reuse, a new one is allocated if it is <code>null</code>
+     * @return the buffer in which the results must be encoded
+     */
+    @Nonnull
+    public ByteBuffer startMessage(@Nullable ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() < HEADER_LENGTH + MESSAGE_START_LENGTH + MESSAGE_END_LENGTH) {
+            buffer = ByteBuffer.allocate(Math.min(DEFAULT_INITIAL_CAPACITY, HEADER_LENGTH + maxMessageSizeInBytes));
+        }
+        buffer.clear();
+        buffer.position(HEADER_LENGTH);
+        buffer.put(PROTO).put((byte) 2);
+        buffer.put(EMPTY_LIST);
+        putMark(buffer);
+        return buffer;
+    }
+
+    /**
+     * Append the given result to the message started in the given buffer.
+     *
+     * @param resultsInMessage number of results already encoded in the message
+     * @return the buffer holding the message, a larger copy if the given one was too small, or <code>null</code> if
+     * the result would make the message exceed the {@code maxMessageSizeInBytes}, nothing has been written then
+     */
+    @Nullable
+    public ByteBuffer encode(@Nonnull QueryResult result, @Nonnull ByteBuffer buffer, int resultsInMessage) {
+        return encode(result, buffer, resultsInMessage, HEADER_LENGTH + maxMessageSizeInBytes);
+    }
+
+    @Nullable
+    private ByteBuffer encode(@Nonnull QueryResult result, @Nonnull ByteBuffer buffer, int resultsInMessage, int maxCapacity) {
+        byte[] name = (metricPathPrefix + result.getName()).getBytes(UTF_8);
+        byte[] stringValue = null;
+        Number value = toNumber(result);
+        if (value == null) {
+            stringValue = String.valueOf(result.getValue()).getBytes(UTF_8);
+        }
+        boolean newBatch = resultsInMessage > 0 && resultsInMessage % APPENDS_BATCH_SIZE == 0;
+        int maxLength = (newBatch ? BATCH_SEPARATOR_LENGTH : 0)
+                + 5 + name.length + MAX_NUMBER_LENGTH + (stringValue == null ? MAX_NUMBER_LENGTH : 5 + stringValue.length) + 2;
+        if ((long) buffer.position() + maxLength + MESSAGE_END_LENGTH > maxCapacity) {
+            return null;
+        }
+        buffer = ensureRemaining(buffer, maxLength + MESSAGE_END_LENGTH, maxCapacity);
+
+        if (newBatch) {
+            buffer.put(APPENDS);
+            putMark(buffer);
+        }
+        putUnicode(buffer, name);
+        putLong(buffer, result.getEpoch(TimeUnit.SECONDS));
+        if (stringValue != null) {
+            putUnicode(buffer, stringValue);
+        } else if (value instanceof Double || value instanceof Float) {
+            buffer.put(BINFLOAT).putDouble(value.doubleValue());
+        } else {
+            putLong(buffer, value.longValue());
+        }
+        buffer.put(TUPLE2);
+        buffer.put(TUPLE2);
+        return buffer;
+    }
+
+    /**
+     * Terminate the message and write its header, the message is between the position and the limit of the buffer.
+     *
+     * @param resultsInMessage number of results encoded in the message
+     */
+    public void endMessage(@Nonnull ByteBuffer buffer, int resultsInMessage) {
+        int markPosition = buffer.getInt(0);
+        if (resultsInMessage == 0) {
+            // empty list
+            buffer.position(markPosition);
+        } else if (resultsInMessage == 1) {
+            // single item list, remove the MARK
+            int itemLength = buffer.position() - markPosition - 1;
+            for (int i = 0; i < itemLength; i++) {
+                buffer.put(markPosition + i, buffer.get(markPosition + 1 + i));
+            }
+            buffer.position(markPosition + itemLength);
+            buffer.put(APPEND);
+        } else {
+            buffer.put(APPENDS);
+        }
+        buffer.put(STOP);
+        buffer.putInt(0, buffer.position() - HEADER_LENGTH);
+        buffer.flip();
+    }
+
+    /**
+     * @return the numeric value of the given result, <code>null</code> if it is encoded as a string
+     */
+    @Nullable
+    private static Number toNumber(@Nonnull QueryResult result) {
+        switch (result.getValueType()) {
+            case LONG:
+                return result.getLongValue();
+            case DOUBLE:
+                return result.getDoubleValue();
+            default:
+                Object value = result.getValue();
+                if (value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double) {
+                    return (Number) value;
+                } else if (value instanceof Date) {
+                    return TimeUnit.SECONDS.convert(((Date) value).getTime(), TimeUnit.MILLISECONDS);
+                }
+                return null;
+        }
+    }
+
+    @Nonnull
+    private static ByteBuffer ensureRemaining(@Nonnull ByteBuffer buffer, int length, int maxCapacity) {
+        if (buffer.remaining() >= length) {
+            return buffer;
+        }
+        int capacity = (int) Math.min(maxCapacity, Math.max(buffer.capacity() * 2L, buffer.position() + (long) length));
+        ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * Write a {@code MARK} and save its position in the header.
+     */
+    private static void putMark(@Nonnull ByteBuffer buffer) {
+        buffer.putInt(0, buffer.position());
+        buffer.put(MARK);
+    }
+
+    private static void putUnicode(@Nonnull ByteBuffer buffer, @Nonnull byte[] utf8) {
+        buffer.put(BINUNICODE);
+        putIntLittleEndian(buffer, utf8.length);
+        buffer.put(utf8);
+    }
+
+    /**
+     * Smallest integer opcode for the given value, same as the Python pickler.
+     */
+    static void putLong(@Nonnull ByteBuffer buffer, long value) {
+        if (value >= 0 && value <= 0xFF) {
+            buffer.put(BININT1).put((byte) value);
+        } else if (value >= 0 && value <= 0xFFFF) {
+            buffer.put(BININT2).put((byte) value).put((byte) (value >> 8));
+        } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            buffer.put(BININT);
+            putIntLittleEndian(buffer, (int) value);
+        } else {
+            // little endian two's complement without the redundant sign bytes
+            int length = 8;
+            while (length > 1 && (value >> (8 * (length - 1) - 1)) == (value >> 63)) {
+                length--;
+            }
+            buffer.put(LONG1).put((byte) length);
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) (value >> (8 * i)));
+            }
+        }
+    }
+
+    private static void putIntLittleEndian(@Nonnull ByteBuffer buffer, int value) {
+        buffer.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16)).put((byte) (value >> 24));
+    }
+}
@@ -25,19 +25,16 @@ package org.jmxtrans.embedded.output;
 
 import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
-import org.jmxtrans.embedded.EmbeddedJmxTransException;
 import org.jmxtrans.embedded.QueryResult;
 import org.jmxtrans.embedded.util.net.HostAndPort;
 import org.jmxtrans.embedded.util.net.SocketOutputStream;
 import org.jmxtrans.embedded.util.net.SocketWriter;
 import org.jmxtrans.embedded.util.pool.SocketOutputStreamPoolFactory;
-import org.python.core.*;
-import org.python.modules.cPickle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -56,8 +53,16 @@ import java.util.concurrent.TimeUnit;
  * <li>"enabled": flag to enable/disable the writer. Optional, default value: {$code true}.</li>
  * <li>"graphite.socketConnectTimeoutInMillis": timeout for the socketConnect in millis.
  * Optional, default value {@link SocketOutputStreamPoolFactory#DEFAULT_SOCKET_CONNECT_TIMEOUT_IN_MILLIS}</li>
+ * <li>"graphite.maxMessageSizeInBytes": maximum size of a pickle message, must not exceed the {@code MAX_LENGTH} of
+ * the carbon pickle receiver. Optional, default value
+ * {@value GraphitePickleEncoder#DEFAULT_MAX_MESSAGE_SIZE_IN_BYTES}</li>
+ * <li>"graphite.maxMetricsPerMessage": maximum number of metrics of a pickle message, must be positive.
+ * Optional, default value {@value #DEFAULT_MAX_METRICS_PER_MESSAGE}</li>
  * </ul>
- * <p>All the results of {@link #write(Iterable)} are sent in one single {@code cPickle} message.</p>
+ * <p>The results of {@link #write(Iterable)} are streamed in pickle messages encoded by the
+ * {@link GraphitePickleEncoder}, Jython is not needed. A message is sent on the connection as soon as one of the
+ * limits is reached so that the memory used doesn't depend on the number of results. A message that fails is
+ * dropped and the next ones are sent on a new connection.</p>
  *
  * @author <a href="mailto:cleclerc@cloudbees.com">Cyrille Le Clerc</a>
  */
@@ -65,6 +70,10 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
 
     public static final int DEFAULT_GRAPHITE_SERVER_PORT = 2004;
     public static final String DEFAULT_NAME_PREFIX = "servers.#hostname#.";
+    /**
+     * {@code MAX_DATAPOINTS_PER_MESSAGE} of carbon-relay.
+     */
+    public static final int DEFAULT_MAX_METRICS_PER_MESSAGE = 500;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     /**
      * Metric path prefix. Ends with "." if not empty;
@@ -72,6 +81,8 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
     private String metricPathPrefix;
     private HostAndPort graphiteServerHostAndPort;
     private GenericKeyedObjectPool<HostAndPort, SocketOutputStream> socketOutputStreamPool;
+    private GraphitePickleEncoder encoder;
+    private int maxMetricsPerMessage;
 
     /**
      * Load settings, initialize the {@link SocketWriter} pool and test the connection to the graphite server.
@@ -92,6 +103,12 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
             metricPathPrefix = metricPathPrefix + ".";
         }
 
+        maxMetricsPerMessage = getIntSetting("graphite.maxMetricsPerMessage", DEFAULT_MAX_METRICS_PER_MESSAGE);
+        if (maxMetricsPerMessage <= 0) {
+            throw new IllegalArgumentException("Setting 'graphite.maxMetricsPerMessage=" + maxMetricsPerMessage + "' must be positive on " + this.toString());
+        }
+        encoder = new GraphitePickleEncoder(metricPathPrefix, getIntSetting("graphite.maxMessageSizeInBytes", GraphitePickleEncoder.DEFAULT_MAX_MESSAGE_SIZE_IN_BYTES));
+
         GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
         config.setTestOnBorrow(getBooleanSetting("pool.testOnBorrow", true));
         config.setTestWhileIdle(getBooleanSetting("pool.testWhileIdle", true));
@@ -114,12 +131,6 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
                 logger.warn("Test Connection: FAILURE to connect to Graphite server '{}'", graphiteServerHostAndPort, e);
             }
         }
-        try {
-            Class.forName("org.python.modules.cPickle");
-        } catch (ClassNotFoundException e) {
-            throw new EmbeddedJmxTransException("jython librarie is required by the " + getClass().getSimpleName() +
-                    " but is not found in the classpath. Please add org.python:jython:2.5.3+ to the classpath.");
-        }
     }
 
     /**
@@ -131,40 +142,35 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
         SocketOutputStream socketOutputStream = null;
         try {
             socketOutputStream = socketOutputStreamPool.borrowObject(graphiteServerHostAndPort);
-            PyList list = new PyList();
-
+            // the buffer of the connection is reused by the next messages
+            ByteBuffer buffer = encoder.startMessage(socketOutputStream.getBuffer());
+            int metricsInMessage = 0;
             for (QueryResult result : results) {
-                String metricName = metricPathPrefix + result.getName();
-                int time = (int) result.getEpoch(TimeUnit.SECONDS);
-                PyObject pyValue;
-                if (result.getValue() instanceof Integer) {
-                    pyValue = new PyInteger((Integer) result.getValue());
-                } else if (result.getValue() instanceof Long) {
-                    pyValue = new PyLong((Long) result.getValue());
-                } else if (result.getValue() instanceof Float) {
-                    pyValue = new PyFloat((Float) result.getValue());
-                } else if (result.getValue() instanceof Double) {
-                    pyValue = new PyFloat((Double) result.getValue());
-                } else if (result.getValue() instanceof Date) {
-                    pyValue = new PyLong(TimeUnit.SECONDS.convert(((Date) result.getValue()).getTime(), TimeUnit.MILLISECONDS));
-                } else {
-                    pyValue = new PyString(result.getValue().toString());
+                ByteBuffer newBuffer = metricsInMessage < maxMetricsPerMessage ? encoder.encode(result, buffer, metricsInMessage) : null;
+                if (newBuffer == null && metricsInMessage > 0) {
+                    // message full, send it and start the next one
+                    if (!sendMessage(socketOutputStream, buffer, metricsInMessage)) {
+                        socketOutputStream = null;
+                        socketOutputStream = socketOutputStreamPool.borrowObject(graphiteServerHostAndPort);
+                    }
+                    metricsInMessage = 0;
+                    buffer = encoder.startMessage(buffer);
+                    newBuffer = encoder.encode(result, buffer, 0);
                 }
-                list.add(new PyTuple(new PyString(metricName), new PyTuple(new PyInteger(time), pyValue)));
-
-                logger.debug("Export '{}': ", metricName, result);
+                if (newBuffer == null) {
+                    logger.warn("Skip result larger than the maximum pickle message size: {}", result);
+                    continue;
+                }
+                buffer = newBuffer;
+                metricsInMessage++;
             }
-
-            PyString payload = cPickle.dumps(list);
-
-            byte[] header = ByteBuffer.allocate(4).putInt(payload.__len__()).array();
-
-            socketOutputStream.write(header);
-            socketOutputStream.write(payload.toBytes());
-
-            socketOutputStream.flush();
+            if (metricsInMessage > 0 && !sendMessage(socketOutputStream, buffer, metricsInMessage)) {
+                return;
+            }
+            socketOutputStream.setBuffer(buffer);
             socketOutputStreamPool.returnObject(graphiteServerHostAndPort, socketOutputStream);
         } catch (Exception e) {
+            incrementWriteFailureCount(e);
             logger.warn("Failure to send result to graphite server '{}' with {}", graphiteServerHostAndPort, socketOutputStream, e);
             if (socketOutputStream != null) {
                 try {
@@ -176,6 +182,32 @@ public class GraphitePickleWriter extends AbstractOutputWriter implements Output
         }
     }
 
+    /**
+     * Terminate and send the message of the given buffer. On failure, the message is dropped and the given
+     * connection is invalidated.
+     *
+     * @return <code>false</code> if the message could not be sent
+     */
+    private boolean sendMessage(SocketOutputStream socketOutputStream, ByteBuffer buffer, int metricsInMessage) {
+        encoder.endMessage(buffer, metricsInMessage);
+        int length = buffer.remaining();
+        try {
+            socketOutputStream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+            socketOutputStream.flush();
+            incrementWrittenBytesCount(length);
+            return true;
+        } catch (IOException e) {
+            incrementWriteFailureCount(e);
+            logger.warn("Failure to send a message of {} bytes to graphite server '{}' with {}, message dropped", length, graphiteServerHostAndPort, socketOutputStream, e);
+            try {
+                socketOutputStreamPool.invalidateObject(graphiteServerHostAndPort, socketOutputStream);
+            } catch (Exception e2) {
+                logger.warn("Exception invalidating socketWriter connected to graphite server '{}': {}", graphiteServerHostAndPort, socketOutputStream, e2);
+            }
+            return false;
+        }
+    }
+
     /**
      * Close the {@link SocketWriter} pool.
      */
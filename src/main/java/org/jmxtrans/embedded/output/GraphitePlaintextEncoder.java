@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.jmxtrans.embedded.util.LruCache;
+
+import javax.annotation.Nonnull;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode {@link QueryResult}s in the Graphite plaintext format (<code>"prefix.name value epoch\n"</code>) directly
+ * into a {@link ByteBuffer}: the prefixed names are encoded once and cached, <code>long</code> values and epochs are
+ * written as ASCII digits without intermediate <code>String</code>. Thread safe.
+ *
+ * The cache of the encoded names keeps the <code>maxCachedNames</code> most recently used names, it should be larger
+ * than the number of distinct names written at each export.
+ *
+ * The output is the same as the {@link StringBuilder} based encoding of {@link GraphiteWriter}.
+ */
+public class GraphitePlaintextEncoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final int DEFAULT_MAX_CACHED_NAMES = 64 * 1024;
+
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(UTF_8);
+
+    @Nonnull
+    private final String metricPathPrefix;
+
+    /**
+     * <code>prefix + name + ' '</code> encoded in UTF-8, by name.
+     */
+    @Nonnull
+    private final LruCache<String, byte[]> encodedNames;
+
+    public GraphitePlaintextEncoder(@Nonnull String metricPathPrefix) {
+        this(metricPathPrefix, DEFAULT_MAX_CACHED_NAMES);
+    }
+
+    /**
+     * @param maxCachedNames maximum number of encoded names kept in cache
+     */
+    public GraphitePlaintextEncoder(@Nonnull String metricPathPrefix, int maxCachedNames) {
+        this.metricPathPrefix = metricPathPrefix;
+        this.encodedNames = new LruCache<String, byte[]>(maxCachedNames);
+    }
+
+    /**
+     * Encode the given result at the position of the given buffer.
+     *
+     * @return <code>false</code> if the buffer doesn't have enough room, nothing has been written then
+     */
+    public boolean encode(@Nonnull QueryResult result, @Nonnull ByteBuffer buffer) {
+        byte[] encodedName = getEncodedName(result.getName());
+        String doubleValue = null;
+        byte[] encodedValue = null;
+        int valueLength;
+        switch (result.getValueType()) {
+            case LONG:
+                valueLength = longLength(result.getLongValue());
+                break;
+            case DOUBLE:
+                doubleValue = Double.toString(result.getDoubleValue());
+                valueLength = doubleValue.length();
+                break;
+            default:
+                encodedValue = String.valueOf(result.getValue()).getBytes(UTF_8);
+                valueLength = encodedValue.length;
+        }
+        long epoch = result.getEpoch(TimeUnit.SECONDS);
+        // exact size of the line, a full buffer is filled to the last byte
+        if (buffer.remaining() < encodedName.length + valueLength + 1 + longLength(epoch) + 1) {
+            return false;
+        }
+        buffer.put(encodedName);
+        switch (result.getValueType()) {
+            case LONG:
+                putLong(buffer, result.getLongValue());
+                break;
+            case DOUBLE:
+                putAscii(buffer, doubleValue);
+                break;
+            default:
+                buffer.put(encodedValue);
+        }
+        buffer.put((byte) ' ');
+        putLong(buffer, epoch);
+        buffer.put((byte) '\n');
+        return true;
+    }
+
+    @Nonnull
+    private byte[] getEncodedName(@Nonnull String name) {
+        byte[] encodedName = encodedNames.get(name);
+        if (encodedName == null) {
+            encodedName = (metricPathPrefix + name + ' ').getBytes(UTF_8);
+            encodedNames.put(name, encodedName);
+        }
+        return encodedName;
+    }
+
+    @Nonnull
+    LruCache<String, byte[]> getEncodedNames() {
+        return encodedNames;
+    }
+
+    /**
+     * @return the length of {@link Long#toString(long)}
+     */
+    static int longLength(long value) {
+        if (value == Long.MIN_VALUE) {
+            return LONG_MIN_VALUE.length;
+        }
+        if (value < 0) {
+            return 1 + digitCount(-value);
+        }
+        return digitCount(value);
+    }
+
+    private static int digitCount(long positiveValue) {
+        int length = 1;
+        for (long limit = 10; length < 19 && positiveValue >= limit; limit *= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write the ASCII digits of the given value, same output as {@link Long#toString(long)}.
+     */
+    static void putLong(@Nonnull ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(LONG_MIN_VALUE);
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = digitCount(value);
+        int position = buffer.position();
+        for (int index = position + length - 1; index >= position; index--) {
+            buffer.put(index, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(position + length);
+    }
+
+    private static void putAscii(@Nonnull ByteBuffer buffer, @Nonnull String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer.put((byte) ascii.charAt(i));
+        }
+    }
+}
@@ -27,16 +27,31 @@ import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
 import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
 import org.jmxtrans.embedded.QueryResult;
 import org.jmxtrans.embedded.util.StringUtils2;
+import org.jmxtrans.embedded.util.net.BufferedSocketChannel;
+import org.jmxtrans.embedded.util.net.ConsistentHashRing;
+import org.jmxtrans.embedded.util.net.DatagramPacker;
 import org.jmxtrans.embedded.util.net.HostAndPort;
 import org.jmxtrans.embedded.util.net.SocketWriter;
 import org.jmxtrans.embedded.util.net.ssl.SslUtils;
+import org.jmxtrans.embedded.util.pool.BufferedSocketChannelPoolFactory;
+import org.jmxtrans.embedded.util.pool.DatagramPackerPoolFactory;
 import org.jmxtrans.embedded.util.pool.SocketWriterPoolFactory;
 import org.jmxtrans.embedded.util.pool.UDPSocketWriterPoolFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.SocketFactory;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,9 +62,15 @@ import java.util.concurrent.TimeUnit;
  *
  * Settings:
  * <ul>
- * <li>"host": hostname or ip address of the Graphite server. Mandatory</li>
+ * <li>"host": hostname or ip address of the Graphite server. Mandatory unless "destinations" is defined</li>
  * <li>"port": listen port for the TCP Plain Text Protocol of the Graphite server.
  * Optional, default value: {@value #DEFAULT_GRAPHITE_SERVER_PORT}.</li>
+ * <li>"destinations": comma separated list of carbon destinations "host:port[:instance]" as in the
+ * "DESTINATIONS" of a carbon-relay. Optional, replaces "host" and "port". The metrics are sharded across the
+ * destinations with the {@link ConsistentHashRing} of carbon-relay, with one pooled connection and one batch per
+ * destination. The metrics of a destination that can not be reached are sent to the next destination of the ring.</li>
+ * <li>"graphite.destinationRetryIntervalInMillis": with "destinations", delay before an unreachable destination is
+ * tried again. Optional, default value: {@value #DEFAULT_DESTINATION_RETRY_INTERVAL_IN_MILLIS}.</li>
  * <li>"namePrefix": prefix append to the metrics name.
  * Optional, default value: {@value #DEFAULT_NAME_PREFIX}.</li>
  * <li>"enabled": flag to enable/disable the writer. Optional, default value: {$code true}.</li>
@@ -58,6 +79,14 @@ import java.util.concurrent.TimeUnit;
  * </li>
  * <li>"socketFactory": name of a custom javax.net.SocketFactory to customize the SocketFactory used to connect to the Graphite server</li>
  * <li>"protocol": "TCP" or "UDP". Optional, the default value is "TCP"</li>
+ * <li>"graphite.nio": for "TCP" without TLS nor custom "socketFactory", encode the metrics with a
+ * {@link GraphitePlaintextEncoder} in direct {@link java.nio.ByteBuffer}s sent with gathering writes on a
+ * {@link java.nio.channels.SocketChannel}. For "UDP", pack the encoded metrics in datagrams with a
+ * {@link DatagramPacker}. Optional, default is "true"</li>
+ * <li>"graphite.maxDatagramPayloadSizeInBytes": for "UDP", maximum size of the datagrams, lines are never split
+ * across datagrams. Optional, default value: {@value DatagramPacker#DEFAULT_MAX_PAYLOAD_SIZE_IN_BYTES}</li>
+ * <li>"graphite.maxCachedNames": with "graphite.nio", number of encoded metric names kept in cache, should exceed the
+ * number of distinct metrics. Optional, default value: {@value GraphitePlaintextEncoder#DEFAULT_MAX_CACHED_NAMES}</li>
  * <li>"useTls": for "TCP", boolean to use TLS/SSL. Optional, default is "false"</li>
  * <li>"tls.insecure": please don't. For TLS/SSL, disable x509 certificate checks. Optional, default is "false"</li>
  * <li>"tls.keyStore": path to the given JKS key store. Can be a classpath resource ("classpath:com/example/keystore.jks") of file system related. Optional, if {code null}, then the JVM key store is used.</li>
@@ -78,6 +107,18 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
     private static final String PROTOCOL_TCP = "TCP";
     private static final String PROTOCOL_UDP = "UDP";
 
+    private static final String SETTING_NIO = "graphite.nio";
+
+    private static final String SETTING_MAX_DATAGRAM_PAYLOAD_SIZE_IN_BYTES = "graphite.maxDatagramPayloadSizeInBytes";
+
+    private static final String SETTING_MAX_CACHED_NAMES = "graphite.maxCachedNames";
+
+    private static final String SETTING_DESTINATIONS = "destinations";
+
+    private static final String SETTING_DESTINATION_RETRY_INTERVAL_IN_MILLIS = "graphite.destinationRetryIntervalInMillis";
+
+    public static final long DEFAULT_DESTINATION_RETRY_INTERVAL_IN_MILLIS = 30000;
+
     public static final String DEFAULT_NAME_PREFIX = "servers.#hostname#.";
 
     private final Logger logger = LoggerFactory.getLogger(getClass());
@@ -87,10 +128,45 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
      */
     private String metricPathPrefix;
 
+    /**
+     * {@link #metricPathPrefix} encoded in UTF-8, hashed with the metric names by the {@link #destinationsRing}.
+     */
+    private byte[] encodedMetricPathPrefix;
+
+    /**
+     * The single destination or the first of the {@link #destinationsRing}.
+     */
     private HostAndPort graphiteServerHostAndPort;
 
+    /**
+     * <code>null</code> if there is a single destination.
+     */
+    private ConsistentHashRing destinationsRing;
+
+    private long destinationRetryIntervalInMillis;
+
+    /**
+     * Destinations that failed, with the time in millis after which they can be tried again.
+     */
+    private final ConcurrentMap<HostAndPort, Long> unavailableDestinations = new ConcurrentHashMap<HostAndPort, Long>();
+
+    /**
+     * <code>null</code> if {@link #socketChannelPool} or {@link #datagramPackerPool} is used.
+     */
     private GenericKeyedObjectPool<HostAndPort, SocketWriter> socketWriterPool;
 
+    /**
+     * Pool of the NIO TCP connections, <code>null</code> if another pool is used.
+     */
+    private GenericKeyedObjectPool<HostAndPort, BufferedSocketChannel> socketChannelPool;
+
+    /**
+     * Pool of the NIO UDP channels, <code>null</code> if another pool is used.
+     */
+    private GenericKeyedObjectPool<HostAndPort, DatagramPacker> datagramPackerPool;
+
+    private GraphitePlaintextEncoder encoder;
+
     /**
      * Load settings, initialize the {@link SocketWriter} pool and test the connection to the graphite server.
      *
@@ -98,17 +174,34 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
      */
     @Override
     public void start() {
-        int port = getIntSetting(SETTING_PORT, DEFAULT_GRAPHITE_SERVER_PORT);
-        String host = getStringSetting(SETTING_HOST);
-        graphiteServerHostAndPort = new HostAndPort(host, port);
+        String destinations = getStringSetting(SETTING_DESTINATIONS, null);
+        if (StringUtils2.isNullOrEmpty(destinations)) {
+            int port = getIntSetting(SETTING_PORT, DEFAULT_GRAPHITE_SERVER_PORT);
+            String host = getStringSetting(SETTING_HOST);
+            graphiteServerHostAndPort = new HostAndPort(host, port);
 
-        logger.info("Start Graphite writer connected to '{}'...", graphiteServerHostAndPort);
+            logger.info("Start Graphite writer connected to '{}'...", graphiteServerHostAndPort);
+        } else {
+            destinationsRing = new ConsistentHashRing();
+            for (String destination : StringUtils2.delimitedStringToList(destinations)) {
+                String[] tokens = destination.split(":");
+                if (tokens.length < 2 || tokens.length > 3) {
+                    throw new IllegalArgumentException("Invalid destination '" + destination + "', expected 'host:port[:instance]'");
+                }
+                destinationsRing.addNode(new HostAndPort(tokens[0].trim(), Integer.parseInt(tokens[1].trim())), tokens.length == 3 ? tokens[2].trim() : null);
+            }
+            graphiteServerHostAndPort = destinationsRing.getNodes().get(0);
+            destinationRetryIntervalInMillis = getLongSetting(SETTING_DESTINATION_RETRY_INTERVAL_IN_MILLIS, DEFAULT_DESTINATION_RETRY_INTERVAL_IN_MILLIS);
+
+            logger.info("Start Graphite writer connected to '{}'...", destinationsRing.getNodes());
+        }
 
         metricPathPrefix = getStringSetting(SETTING_NAME_PREFIX, DEFAULT_NAME_PREFIX);
         metricPathPrefix = getStrategy().resolveExpression(metricPathPrefix);
         if (!metricPathPrefix.isEmpty() && !metricPathPrefix.endsWith(".")) {
             metricPathPrefix = metricPathPrefix + ".";
         }
+        encodedMetricPathPrefix = metricPathPrefix.getBytes(UTF_8);
 
         GenericKeyedObjectPoolConfig config = new GenericKeyedObjectPoolConfig();
         config.setTestOnBorrow(getBooleanSetting("pool.testOnBorrow", true));
@@ -124,7 +217,13 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
 
         String protocol = getStringSetting(SETTING_PROTOCOL, null);
         if (protocol != null && protocol.equalsIgnoreCase(PROTOCOL_UDP)) {
-            socketWriterPool = new GenericKeyedObjectPool<HostAndPort, SocketWriter>(new UDPSocketWriterPoolFactory(UTF_8), config);
+            if (getBooleanSetting(SETTING_NIO, true)) {
+                encoder = new GraphitePlaintextEncoder(metricPathPrefix, getIntSetting(SETTING_MAX_CACHED_NAMES, GraphitePlaintextEncoder.DEFAULT_MAX_CACHED_NAMES));
+                int maxDatagramPayloadSizeInBytes = getIntSetting(SETTING_MAX_DATAGRAM_PAYLOAD_SIZE_IN_BYTES, DatagramPacker.DEFAULT_MAX_PAYLOAD_SIZE_IN_BYTES);
+                datagramPackerPool = new GenericKeyedObjectPool<HostAndPort, DatagramPacker>(new DatagramPackerPoolFactory(maxDatagramPayloadSizeInBytes), config);
+            } else {
+                socketWriterPool = new GenericKeyedObjectPool<HostAndPort, SocketWriter>(new UDPSocketWriterPoolFactory(UTF_8), config);
+            }
         } else {
             if (protocol == null) {
                 // protocol not specified, use default one
@@ -135,9 +234,12 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
             }
             String socketFactoryClassName = getStringSetting(SETTING_SOCKET_FACTORY, null);
             boolean useTls = getBooleanSetting(SETTING_USE_TLS, false);
-            SocketFactory socketFactory;
+            SocketFactory socketFactory = null;
 
-            if (!StringUtils2.isNullOrEmpty(socketFactoryClassName)) {
+            if (StringUtils2.isNullOrEmpty(socketFactoryClassName) && !useTls && getBooleanSetting(SETTING_NIO, true)) {
+                encoder = new GraphitePlaintextEncoder(metricPathPrefix, getIntSetting(SETTING_MAX_CACHED_NAMES, GraphitePlaintextEncoder.DEFAULT_MAX_CACHED_NAMES));
+                socketChannelPool = new GenericKeyedObjectPool<HostAndPort, BufferedSocketChannel>(new BufferedSocketChannelPoolFactory(socketConnectTimeoutInMillis), config);
+            } else if (!StringUtils2.isNullOrEmpty(socketFactoryClassName)) {
                 try {
                     socketFactory = (SocketFactory) Class.forName(socketFactoryClassName, true, Thread.currentThread().getContextClassLoader()).newInstance();
                 } catch (Exception e) {
@@ -157,54 +259,232 @@ public class GraphiteWriter extends AbstractOutputWriter implements OutputWriter
             } else {
                 socketFactory = SocketFactory.getDefault();
             }
-            socketWriterPool = new GenericKeyedObjectPool<HostAndPort, SocketWriter>(new SocketWriterPoolFactory(socketFactory, UTF_8, socketConnectTimeoutInMillis), config);
+            if (socketChannelPool == null) {
+                socketWriterPool = new GenericKeyedObjectPool<HostAndPort, SocketWriter>(new SocketWriterPoolFactory(socketFactory, UTF_8, socketConnectTimeoutInMillis), config);
+            }
         }
 
         if (isEnabled()) {
-            try {
-                SocketWriter socketWriter = socketWriterPool.borrowObject(graphiteServerHostAndPort);
-                socketWriterPool.returnObject(graphiteServerHostAndPort, socketWriter);
-            } catch (Exception e) {
-                logger.warn("Test Connection: FAILURE to connect to Graphite server '{}'", graphiteServerHostAndPort, e);
+            List<HostAndPort> destinationsToTest = destinationsRing == null ? Collections.singletonList(graphiteServerHostAndPort) : destinationsRing.getNodes();
+            for (HostAndPort destination : destinationsToTest) {
+                try {
+                    if (socketChannelPool != null) {
+                        BufferedSocketChannel channel = socketChannelPool.borrowObject(destination);
+                        socketChannelPool.returnObject(destination, channel);
+                    } else if (datagramPackerPool != null) {
+                        DatagramPacker datagramPacker = datagramPackerPool.borrowObject(destination);
+                        datagramPackerPool.returnObject(destination, datagramPacker);
+                    } else {
+                        SocketWriter socketWriter = socketWriterPool.borrowObject(destination);
+                        socketWriterPool.returnObject(destination, socketWriter);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Test Connection: FAILURE to connect to Graphite server '{}'", destination, e);
+                }
             }
         }
     }
 
     /**
-     * Send given metrics to the Graphite server.
+     * Send given metrics to the Graphite server or, with "destinations", one batch to each destination of the ring
+     * failing over to the next destination when a batch can not be sent.
      */
     @Override
     public void write(Iterable<QueryResult> results) {
-        logger.debug("Export to '{}' results {}", graphiteServerHostAndPort, results);
+        if (destinationsRing == null) {
+            write(graphiteServerHostAndPort, results);
+            return;
+        }
+        Set<HostAndPort> failedDestinations = new HashSet<HostAndPort>();
+        List<QueryResult> droppedResults = new ArrayList<QueryResult>();
+        Map<HostAndPort, List<QueryResult>> batches = route(results, failedDestinations, droppedResults);
+        while (!batches.isEmpty()) {
+            List<QueryResult> failedResults = new ArrayList<QueryResult>();
+            for (Map.Entry<HostAndPort, List<QueryResult>> batch : batches.entrySet()) {
+                if (!write(batch.getKey(), batch.getValue())) {
+                    failedDestinations.add(batch.getKey());
+                    unavailableDestinations.put(batch.getKey(), System.currentTimeMillis() + destinationRetryIntervalInMillis);
+                    failedResults.addAll(batch.getValue());
+                }
+            }
+            batches = route(failedResults, failedDestinations, droppedResults);
+        }
+        if (!droppedResults.isEmpty()) {
+            logger.warn("Drop {} results, all the Graphite servers failed {}. First dropped result: {}",
+                    droppedResults.size(), failedDestinations, droppedResults.get(0));
+        }
+    }
+
+    /**
+     * Group the given results by destination: the destination of the metric in the {@link #destinationsRing} or, if it
+     * is unavailable, the next available one of the ring. Destinations that are waiting for their retry interval are
+     * used if all the others failed, results are dropped if all the destinations failed.
+     *
+     * @param failedDestinations destinations that failed during the current write
+     * @param droppedResults     receives the results that could not be routed
+     */
+    private Map<HostAndPort, List<QueryResult>> route(Iterable<QueryResult> results, Set<HostAndPort> failedDestinations, List<QueryResult> droppedResults) {
+        Map<HostAndPort, List<QueryResult>> batches = new LinkedHashMap<HostAndPort, List<QueryResult>>();
+        long now = System.currentTimeMillis();
+        for (QueryResult result : results) {
+            HostAndPort destination = destinationsRing.getNode(encodedMetricPathPrefix, result.getName());
+            if (failedDestinations.contains(destination) || !isAvailable(destination, now)) {
+                HostAndPort fallback = null;
+                destination = null;
+                for (HostAndPort candidate : destinationsRing.getNodes(encodedMetricPathPrefix, result.getName())) {
+                    if (failedDestinations.contains(candidate)) {
+                        continue;
+                    }
+                    if (isAvailable(candidate, now)) {
+                        destination = candidate;
+                        break;
+                    } else if (fallback == null) {
+                        fallback = candidate;
+                    }
+                }
+                if (destination == null) {
+                    destination = fallback;
+                }
+            }
+            if (destination == null) {
+                droppedResults.add(result);
+                continue;
+            }
+            List<QueryResult> batch = batches.get(destination);
+            if (batch == null) {
+                batch = new ArrayList<QueryResult>();
+                batches.put(destination, batch);
+            }
+            batch.add(result);
+        }
+        return batches;
+    }
+
+    private boolean isAvailable(HostAndPort destination, long now) {
+        Long retryTime = unavailableDestinations.get(destination);
+        return retryTime == null || retryTime <= now;
+    }
+
+    /**
+     * Send given metrics to the given Graphite server.
+     *
+     * @return <code>false</code> if the write failed
+     */
+    private boolean write(HostAndPort destination, Iterable<QueryResult> results) {
+        logger.debug("Export to '{}' results {}", destination, results);
+        if (socketChannelPool != null) {
+            return writeWithSocketChannel(destination, results);
+        } else if (datagramPackerPool != null) {
+            return writeWithDatagramPacker(destination, results);
+        }
         SocketWriter socketWriter = null;
         try {
-            socketWriter = socketWriterPool.borrowObject(graphiteServerHostAndPort);
+            socketWriter = socketWriterPool.borrowObject(destination);
+            StringBuilder msg = new StringBuilder();
+            long writtenChars = 0;
             for (QueryResult result : results) {
-                String msg = metricPathPrefix + result.getName() + " " + result.getValue() + " " + result.getEpoch(TimeUnit.SECONDS) + "\n";
+                msg.setLength(0);
+                msg.append(metricPathPrefix).append(result.getName()).append(' ');
+                result.appendValue(msg).append(' ').append(result.getEpoch(TimeUnit.SECONDS)).append('\n');
                 logger.debug("Export '{}'", msg);
-                socketWriter.write(msg);
+                socketWriter.write(msg.toString());
+                writtenChars += msg.length();
             }
             socketWriter.flush();
-            socketWriterPool.returnObject(graphiteServerHostAndPort, socketWriter);
+            // metric paths and values are ASCII, one byte per char
+            incrementWrittenBytesCount(writtenChars);
+            socketWriterPool.returnObject(destination, socketWriter);
+            unavailableDestinations.remove(destination);
+            return true;
         } catch (Exception e) {
-            logger.warn("Failure to send result to graphite server '{}' with {}", graphiteServerHostAndPort, socketWriter, e);
+            incrementWriteFailureCount(e);
+            logger.warn("Failure to send result to graphite server '{}' with {}", destination, socketWriter, e);
             if (socketWriter != null) {
                 try {
-                    socketWriterPool.invalidateObject(graphiteServerHostAndPort, socketWriter);
+                    socketWriterPool.invalidateObject(destination, socketWriter);
+                } catch (Exception e2) {
+                    logger.warn("Exception invalidating socketWriter connected to graphite server '{}': {}", destination, socketWriter, e2);
+                }
+            }
+            return false;
+        }
+    }
+
+    private boolean writeWithSocketChannel(HostAndPort destination, Iterable<QueryResult> results) {
+        BufferedSocketChannel channel = null;
+        try {
+            channel = socketChannelPool.borrowObject(destination);
+            ByteBuffer buffer = channel.getBuffer();
+            for (QueryResult result : results) {
+                if (!encoder.encode(result, buffer)) {
+                    buffer = channel.nextBuffer();
+                    if (!encoder.encode(result, buffer)) {
+                        logger.warn("Skip result larger than the buffer: {}", result);
+                    }
+                }
+            }
+            incrementWrittenBytesCount(channel.flush());
+            socketChannelPool.returnObject(destination, channel);
+            unavailableDestinations.remove(destination);
+            return true;
+        } catch (Exception e) {
+            incrementWriteFailureCount(e);
+            logger.warn("Failure to send result to graphite server '{}' with {}", destination, channel, e);
+            if (channel != null) {
+                try {
+                    socketChannelPool.invalidateObject(destination, channel);
+                } catch (Exception e2) {
+                    logger.warn("Exception invalidating socketChannel connected to graphite server '{}': {}", destination, channel, e2);
+                }
+            }
+            return false;
+        }
+    }
+
+    private boolean writeWithDatagramPacker(HostAndPort destination, Iterable<QueryResult> results) {
+        DatagramPacker datagramPacker = null;
+        try {
+            datagramPacker = datagramPackerPool.borrowObject(destination);
+            ByteBuffer buffer = datagramPacker.getBuffer();
+            for (QueryResult result : results) {
+                if (!encoder.encode(result, buffer)) {
+                    buffer = datagramPacker.nextBuffer();
+                    if (!encoder.encode(result, buffer)) {
+                        logger.warn("Skip result larger than the maximum datagram payload size: {}", result);
+                    }
+                }
+            }
+            incrementWrittenBytesCount(datagramPacker.flush());
+            datagramPackerPool.returnObject(destination, datagramPacker);
+            unavailableDestinations.remove(destination);
+            return true;
+        } catch (Exception e) {
+            incrementWriteFailureCount(e);
+            logger.warn("Failure to send result to graphite server '{}' with {}", destination, datagramPacker, e);
+            if (datagramPacker != null) {
+                try {
+                    datagramPackerPool.invalidateObject(destination, datagramPacker);
                 } catch (Exception e2) {
-                    logger.warn("Exception invalidating socketWriter connected to graphite server '{}': {}", graphiteServerHostAndPort, socketWriter, e2);
+                    logger.warn("Exception invalidating datagramPacker of graphite server '{}': {}", destination, datagramPacker, e2);
                 }
             }
+            return false;
         }
     }
 
     /**
-     * Close the {@link SocketWriter} pool.
+     * Close the {@link SocketWriter}, {@link BufferedSocketChannel} or {@link DatagramPacker} pool.
      */
     @Override
     public void stop() throws Exception {
-        logger.info("Stop GraphiteWriter connected to '{}' ...", graphiteServerHostAndPort);
+        logger.info("Stop GraphiteWriter connected to '{}' ...", destinationsRing == null ? graphiteServerHostAndPort : destinationsRing.getNodes());
         super.stop();
-        socketWriterPool.close();
+        if (socketChannelPool != null) {
+            socketChannelPool.close();
+        } else if (datagramPackerPool != null) {
+            datagramPackerPool.close();
+        } else {
+            socketWriterPool.close();
+        }
     }
 }
@@ -98,7 +98,6 @@ public class LibratoWriter extends AbstractOutputWriter implements OutputWriter
                     System.getProperty("java.vm.name") + "/" + System.getProperty("java.version") + "; " +
                     System.getProperty("os.name") + "-" + System.getProperty("os.arch") + "/" + System.getProperty("os.version")
                     + ")";
-    private final AtomicInteger exceptionCounter = new AtomicInteger();
     private JsonFactory jsonFactory = new JsonFactory();
     /**
      * Librato HTTP API URL
@@ -194,14 +193,14 @@ public class LibratoWriter extends AbstractOutputWriter implements OutputWriter
             serialize(counters, gauges, urlConnection.getOutputStream());
             int responseCode = urlConnection.getResponseCode();
             if (responseCode != 200) {
-                exceptionCounter.incrementAndGet();
+                incrementWriteFailureCount("HTTP " + responseCode + " from " + url);
                 logger.warn("Failure {}:'{}' to send result to Librato server '{}' with proxy {}, user {}", responseCode, urlConnection.getResponseMessage(), url, proxy, user);
             }
             if (logger.isTraceEnabled()) {
                 IoUtils2.copy(urlConnection.getInputStream(), System.out);
             }
         } catch (Exception e) {
-            exceptionCounter.incrementAndGet();
+            incrementWriteFailureCount(e);
             logger.warn("Failure to send result to Librato server '{}' with proxy {}, user {}", url, proxy, user, e);
         } finally {
             if (urlConnection != null) {
@@ -234,18 +233,28 @@ public class LibratoWriter extends AbstractOutputWriter implements OutputWriter
                 g.writeStringField("source", source);
             }
             g.writeNumberField("measure_time", counter.getEpoch(TimeUnit.SECONDS));
-            if (counter.getValue() instanceof Integer) {
-                g.writeNumberField("value", (Integer) counter.getValue());
-            } else if (counter.getValue() instanceof Long) {
-                g.writeNumberField("value", (Long) counter.getValue());
-            } else if (counter.getValue() instanceof Float) {
-                g.writeNumberField("value", (Float) counter.getValue());
-            } else if (counter.getValue() instanceof Double) {
-                g.writeNumberField("value", (Double) counter.getValue());
-            } else if (counter.getValue() instanceof AtomicInteger) {
-                g.writeNumberField("value", ((AtomicInteger) counter.getValue()).get());
-            } else if (counter.getValue() instanceof AtomicLong) {
-                g.writeNumberField("value", ((AtomicLong) counter.getValue()).get());
+            switch (counter.getValueType()) {
+                case LONG:
+                    g.writeNumberField("value", counter.getLongValue());
+                    break;
+                case DOUBLE:
+                    g.writeNumberField("value", counter.getDoubleValue());
+                    break;
+                default:
+                    if (counter.getValue() instanceof Integer) {
+                        g.writeNumberField("value", (Integer) counter.getValue());
+                    } else if (counter.getValue() instanceof Long) {
+                        g.writeNumberField("value", (Long) counter.getValue());
+                    } else if (counter.getValue() instanceof Float) {
+                        g.writeNumberField("value", (Float) counter.getValue());
+                    } else if (counter.getValue() instanceof Double) {
+                        g.writeNumberField("value", (Double) counter.getValue());
+                    } else if (counter.getValue() instanceof AtomicInteger) {
+                        g.writeNumberField("value", ((AtomicInteger) counter.getValue()).get());
+                    } else if (counter.getValue() instanceof AtomicLong) {
+                        g.writeNumberField("value", ((AtomicLong) counter.getValue()).get());
+                    }
+                    break;
             }
             g.writeEndObject();
         }
@@ -260,18 +269,28 @@ public class LibratoWriter extends AbstractOutputWriter implements OutputWriter
                 g.writeStringField("source", source);
             }
             g.writeNumberField("measure_time", gauge.getEpoch(TimeUnit.SECONDS));
-            if (gauge.getValue() instanceof Integer) {
-                g.writeNumberField("value", (Integer) gauge.getValue());
-            } else if (gauge.getValue() instanceof Long) {
-                g.writeNumberField("value", (Long) gauge.getValue());
-            } else if (gauge.getValue() instanceof Float) {
-                g.writeNumberField("value", (Float) gauge.getValue());
-            } else if (gauge.getValue() instanceof Double) {
-                g.writeNumberField("value", (Double) gauge.getValue());
-            } else if (gauge.getValue() instanceof AtomicInteger) {
-                g.writeNumberField("value", ((AtomicInteger) gauge.getValue()).get());
-            } else if (gauge.getValue() instanceof AtomicLong) {
-                g.writeNumberField("value", ((AtomicLong) gauge.getValue()).get());
+            switch (gauge.getValueType()) {
+                case LONG:
+                    g.writeNumberField("value", gauge.getLongValue());
+                    break;
+                case DOUBLE:
+                    g.writeNumberField("value", gauge.getDoubleValue());
+                    break;
+                default:
+                    if (gauge.getValue() instanceof Integer) {
+                        g.writeNumberField("value", (Integer) gauge.getValue());
+                    } else if (gauge.getValue() instanceof Long) {
+                        g.writeNumberField("value", (Long) gauge.getValue());
+                    } else if (gauge.getValue() instanceof Float) {
+                        g.writeNumberField("value", (Float) gauge.getValue());
+                    } else if (gauge.getValue() instanceof Double) {
+                        g.writeNumberField("value", (Double) gauge.getValue());
+                    } else if (gauge.getValue() instanceof AtomicInteger) {
+                        g.writeNumberField("value", ((AtomicInteger) gauge.getValue()).get());
+                    } else if (gauge.getValue() instanceof AtomicLong) {
+                        g.writeNumberField("value", ((AtomicLong) gauge.getValue()).get());
+                    }
+                    break;
             }
             g.writeEndObject();
         }
@@ -282,6 +301,6 @@ public class LibratoWriter extends AbstractOutputWriter implements OutputWriter
     }
 
     public int getExceptionCounter() {
-        return exceptionCounter.get();
+        return (int) getWriteFailureCount();
     }
 }
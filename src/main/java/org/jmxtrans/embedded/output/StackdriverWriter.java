@@ -35,7 +35,6 @@ import java.net.Proxy;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -79,7 +78,6 @@ public class StackdriverWriter extends AbstractOutputWriter implements OutputWri
 	public static final String SETTING_STACKDRIVER_API_TIMEOUT_IN_MILLIS = "stackdriverApiTimeoutInMillis";
 	public static final int DEFAULT_STACKDRIVER_API_TIMEOUT_IN_MILLIS = 1000;
 	private final Logger logger = LoggerFactory.getLogger(getClass());
-	private final AtomicInteger exceptionCounter = new AtomicInteger();
 	private JsonFactory jsonFactory = new JsonFactory();
 	/**
 	 * Stackdriver HTTP API URL
@@ -176,7 +174,7 @@ public class StackdriverWriter extends AbstractOutputWriter implements OutputWri
 			serialize(results, urlConnection.getOutputStream());
 			int responseCode = urlConnection.getResponseCode();
 			if (responseCode != 200 && responseCode != 201) {
-				exceptionCounter.incrementAndGet();
+				incrementWriteFailureCount("HTTP " + responseCode + " from " + url);
 				logger.warn("Failure {}:'{}' to send result to Stackdriver server '{}' with proxy {}", responseCode,
 						urlConnection.getResponseMessage(), url, proxy);
 			}
@@ -184,7 +182,7 @@ public class StackdriverWriter extends AbstractOutputWriter implements OutputWri
 				IoUtils2.copy(urlConnection.getInputStream(), System.out);
 			}
 		} catch (Exception e) {
-			exceptionCounter.incrementAndGet();
+			incrementWriteFailureCount(e);
 			logger.warn("Failure to send result to Stackdriver server '{}' with proxy {}", url, proxy, e);
 		} finally {
 			if (urlConnection != null) {
@@ -254,14 +252,24 @@ public class StackdriverWriter extends AbstractOutputWriter implements OutputWri
 				g.writeStringField("instance", instanceId);
 			}
 			g.writeNumberField("collected_at", metric.getEpoch(TimeUnit.SECONDS));
-			if (metric.getValue() instanceof Integer) {
-				g.writeNumberField("value", (Integer) metric.getValue());
-			} else if (metric.getValue() instanceof Long) {
-				g.writeNumberField("value", (Long) metric.getValue());
-			} else if (metric.getValue() instanceof Float) {
-				g.writeNumberField("value", (Float) metric.getValue());
-			} else if (metric.getValue() instanceof Double) {
-				g.writeNumberField("value", (Double) metric.getValue());
+			switch (metric.getValueType()) {
+				case LONG:
+					g.writeNumberField("value", metric.getLongValue());
+					break;
+				case DOUBLE:
+					g.writeNumberField("value", metric.getDoubleValue());
+					break;
+				default:
+					if (metric.getValue() instanceof Integer) {
+						g.writeNumberField("value", (Integer) metric.getValue());
+					} else if (metric.getValue() instanceof Long) {
+						g.writeNumberField("value", (Long) metric.getValue());
+					} else if (metric.getValue() instanceof Float) {
+						g.writeNumberField("value", (Float) metric.getValue());
+					} else if (metric.getValue() instanceof Double) {
+						g.writeNumberField("value", (Double) metric.getValue());
+					}
+					break;
 			}
 			g.writeEndObject();
 		}
@@ -273,6 +281,6 @@ public class StackdriverWriter extends AbstractOutputWriter implements OutputWri
 	}
 
 	public int getExceptionCounter() {
-		return exceptionCounter.get();
+		return (int) getWriteFailureCount();
 	}
 }
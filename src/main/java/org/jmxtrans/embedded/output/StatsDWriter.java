@@ -100,9 +100,12 @@ public class StatsDWriter extends AbstractOutputWriter implements OutputWriter {
     @Override
     public synchronized void write(Iterable<QueryResult> results) {
         logger.debug("Export to {} results {}", addressReference.get(), results);
+        StringBuilder sb = new StringBuilder();
         for (QueryResult result : results) {
-
-            String stat = metricPathPrefix + result.getName() + ":" + result.getValue() + "|" + getStatsdMetricType(result) + "\n";
+            sb.setLength(0);
+            sb.append(metricPathPrefix).append(result.getName()).append(':');
+            result.appendValue(sb).append('|').append(getStatsdMetricType(result)).append('\n');
+            String stat = sb.toString();
 
             logger.debug("Export '{}'", stat);
             final byte[] data = stat.getBytes(UTF_8);
@@ -140,12 +143,14 @@ public class StatsDWriter extends AbstractOutputWriter implements OutputWriter {
             // send and reset the buffer
             sendBuffer.flip();
             final int nbSentBytes = channel.send(sendBuffer, address);
+            incrementWrittenBytesCount(nbSentBytes);
 
             if (sizeOfBuffer != nbSentBytes) {
                 logger.warn("Could not send entirely stat {} to host {}:{}. Only sent {} bytes out of {} bytes",
                         sendBuffer, address.getHostName(), address.getPort(), nbSentBytes, sizeOfBuffer);
             }
         } catch (IOException e) {
+            incrementWriteFailureCount(e);
             addressReference.purge();
             logger.warn("Could not send stat {} to host {}:{}", sendBuffer, address.getHostName(), address.getPort(), e);
         } finally {
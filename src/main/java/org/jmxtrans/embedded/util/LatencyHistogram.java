@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import javax.annotation.Nonnull;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with log-linear buckets (as in HdrHistogram): each power of 2 is split in
+ * {@value #SUB_BUCKET_COUNT} buckets, so percentiles are reported with a relative error lower than 1/{@value #SUB_BUCKET_COUNT}.
+ * Values greater than 2^{@value #MAX_EXPONENT} are counted in the last bucket, the max is tracked exactly.
+ *
+ * Recording a value is one {@link AtomicLongArray#incrementAndGet(int)} plus the update of the max values.
+ * {@link #getSnapshot()} covers all the recorded values, {@link #getRecentSnapshot()} only the values recorded since
+ * its previous invocation ("reset on read").
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 36;
+
+    /**
+     * Values below {@link #SUB_BUCKET_COUNT} plus {@link #SUB_BUCKET_COUNT} buckets for each exponent from
+     * {@link #SUB_BUCKET_BITS} to {@link #MAX_EXPONENT} included.
+     */
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private static final String[] ITEM_NAMES = {"count", "p50", "p90", "p99", "max"};
+
+    private static final CompositeType COMPOSITE_TYPE;
+
+    static {
+        try {
+            COMPOSITE_TYPE = new CompositeType("LatencyHistogramSnapshot", "Count and percentiles of recorded durations",
+                    ITEM_NAMES, ITEM_NAMES,
+                    new OpenType<?>[]{SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG});
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nonnull
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    @Nonnull
+    private final AtomicLong max = new AtomicLong();
+
+    @Nonnull
+    private final AtomicLong recentMax = new AtomicLong();
+
+    /**
+     * Counts at the previous {@link #getRecentSnapshot()}, guarded by <code>this</code>.
+     */
+    @Nonnull
+    private final long[] countsAtPreviousRecentSnapshot = new long[BUCKET_COUNT];
+
+    /**
+     * @param value duration to record, negative values are recorded as <code>0</code>
+     */
+    public void recordValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        updateMax(max, value);
+        updateMax(recentMax, value);
+    }
+
+    /**
+     * @return snapshot of all the values recorded so far
+     */
+    @Nonnull
+    public Snapshot getSnapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshotCounts[i] = counts.get(i);
+        }
+        return new Snapshot(snapshotCounts, max.get());
+    }
+
+    /**
+     * @return snapshot of the values recorded since the previous invocation of this method
+     */
+    @Nonnull
+    public synchronized Snapshot getRecentSnapshot() {
+        long[] snapshotCounts = new long[BUCKET_COUNT];
+        long snapshotMax = recentMax.getAndSet(0);
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long count = counts.get(i);
+            snapshotCounts[i] = count - countsAtPreviousRecentSnapshot[i];
+            countsAtPreviousRecentSnapshot[i] = count;
+        }
+        return new Snapshot(snapshotCounts, snapshotMax);
+    }
+
+    private static void updateMax(@Nonnull AtomicLong max, long value) {
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * @return highest value counted in the given bucket
+     */
+    static long highestValueOfBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = ((long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT)) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * Immutable view of a {@link LatencyHistogram}.
+     */
+    public static class Snapshot {
+        @Nonnull
+        private final long[] counts;
+        private final long totalCount;
+        private final long max;
+
+        private Snapshot(@Nonnull long[] counts, long max) {
+            this.counts = counts;
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            this.totalCount = total;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return totalCount;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile between <code>0</code> and <code>100</code>
+         * @return the value under which the given percentage of the recorded values fall, <code>0</code> if no value
+         * has been recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (totalCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * totalCount));
+            long cumulativeCount = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulativeCount += counts[i];
+                if (cumulativeCount >= rank) {
+                    // the last bucket is unbounded
+                    return i == counts.length - 1 ? max : Math.min(highestValueOfBucket(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return <code>count</code>, <code>p50</code>, <code>p90</code>, <code>p99</code> and <code>max</code>
+         */
+        @Nonnull
+        public CompositeData toCompositeData() {
+            try {
+                return new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES, new Object[]{
+                        totalCount, getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), max});
+            } catch (OpenDataException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + totalCount +
+                    ", p50=" + getValueAtPercentile(50) +
+                    ", p90=" + getValueAtPercentile(90) +
+                    ", p99=" + getValueAtPercentile(99) +
+                    ", max=" + max;
+        }
+    }
+}
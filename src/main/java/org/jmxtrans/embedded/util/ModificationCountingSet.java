@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * {@link HashSet} backed {@link Set} that counts its structural modifications so that values derived from its content
+ * can be cached and invalidated (see {@link #getModificationCount()}).
+ *
+ * Not thread safe, like {@link HashSet}.
+ */
+public class ModificationCountingSet<E> extends AbstractSet<E> {
+
+    private final Set<E> delegate = new HashSet<E>();
+
+    private volatile int modificationCount;
+
+    @Override
+    public boolean add(E e) {
+        boolean added = delegate.add(e);
+        if (added) {
+            modificationCount++;
+        }
+        return added;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        boolean removed = delegate.remove(o);
+        if (removed) {
+            modificationCount++;
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        delegate.clear();
+        modificationCount++;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return delegate.contains(o);
+    }
+
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    @Override
+    @Nonnull
+    public Iterator<E> iterator() {
+        final Iterator<E> iterator = delegate.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+                modificationCount++;
+            }
+        };
+    }
+
+    /**
+     * @return a counter incremented at each modification of this set
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+}
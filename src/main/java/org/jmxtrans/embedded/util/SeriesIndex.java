@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Assign a dense <code>int</code> id to each metric name so that the state of the series can be kept in primitive
+ * arrays indexed by id rather than in a <code>Map&lt;String, ...&gt;</code> of boxed values.
+ *
+ * Names are stored in an open-addressing table with linear probing and backward shift deletion, ids of removed
+ * names are reused. Ids are always lower than {@link #getIdCapacity()}.
+ *
+ * Not thread safe.
+ */
+public class SeriesIndex {
+
+    /**
+     * Names by slot, <code>null</code> for free slots. The length is a power of 2, at least twice {@link #size}.
+     */
+    @Nonnull
+    private String[] slotNames;
+
+    @Nonnull
+    private int[] slotIds;
+
+    /**
+     * Names by id, <code>null</code> for free ids.
+     */
+    @Nonnull
+    private String[] names;
+
+    @Nonnull
+    private int[] freeIds;
+
+    private int freeIdsCount;
+
+    private int nextId;
+
+    private int size;
+
+    public SeriesIndex(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 2);
+        int tableSize = 4;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        slotNames = new String[tableSize];
+        slotIds = new int[tableSize];
+        names = new String[capacity];
+        freeIds = new int[capacity];
+    }
+
+    /**
+     * @return the id of the given name or <code>-1</code> if it is not indexed
+     */
+    public int indexOf(@Nonnull String name) {
+        int slot = slotOf(name);
+        return slotNames[slot] == null ? -1 : slotIds[slot];
+    }
+
+    /**
+     * @param name name that is not yet indexed (see {@link #indexOf(String)})
+     * @return the id assigned to the given name
+     */
+    public int add(@Nonnull String name) {
+        if (size + 1 > slotNames.length >> 1) {
+            rehash(slotNames.length << 1);
+        }
+        int id;
+        if (freeIdsCount > 0) {
+            id = freeIds[--freeIdsCount];
+        } else {
+            if (nextId == names.length) {
+                names = Arrays.copyOf(names, names.length << 1);
+                freeIds = Arrays.copyOf(freeIds, names.length);
+            }
+            id = nextId++;
+        }
+        int slot = slotOf(name);
+        slotNames[slot] = name;
+        slotIds[slot] = id;
+        names[id] = name;
+        size++;
+        return id;
+    }
+
+    /**
+     * Remove the name of the given id, the id can then be reused by {@link #add(String)}.
+     */
+    public void remove(int id) {
+        String name = names[id];
+        if (name == null) {
+            return;
+        }
+        int mask = slotNames.length - 1;
+        int slot = slotOf(name);
+        // backward shift deletion: move back the following entries of the cluster that are not at their home slot
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            String nextName = slotNames[next];
+            if (nextName == null) {
+                break;
+            }
+            int home = mix(nextName.hashCode()) & mask;
+            boolean homeBetweenSlotAndNext = slot <= next ? slot < home && home <= next : slot < home || home <= next;
+            if (!homeBetweenSlotAndNext) {
+                slotNames[slot] = nextName;
+                slotIds[slot] = slotIds[next];
+                slot = next;
+            }
+        }
+        slotNames[slot] = null;
+        names[id] = null;
+        freeIds[freeIdsCount++] = id;
+        size--;
+    }
+
+    /**
+     * @return the name of the given id or <code>null</code> if the id is not used
+     */
+    @Nullable
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return number of indexed names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return upper bound (exclusive) of the ids, arrays indexed by id must be at least this long
+     */
+    public int getIdCapacity() {
+        return names.length;
+    }
+
+    /**
+     * @return the slot of the given name or the free slot where it would be inserted
+     */
+    private int slotOf(@Nonnull String name) {
+        int mask = slotNames.length - 1;
+        int slot = mix(name.hashCode()) & mask;
+        while (true) {
+            String candidate = slotNames[slot];
+            if (candidate == null || candidate == name || candidate.equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void rehash(int tableSize) {
+        String[] oldSlotNames = slotNames;
+        int[] oldSlotIds = slotIds;
+        slotNames = new String[tableSize];
+        slotIds = new int[tableSize];
+        for (int i = 0; i < oldSlotNames.length; i++) {
+            if (oldSlotNames[i] != null) {
+                int slot = slotOf(oldSlotNames[i]);
+                slotNames[slot] = oldSlotNames[i];
+                slotIds[slot] = oldSlotIds[i];
+            }
+        }
+    }
+
+    /**
+     * Spread the bits of {@link String#hashCode()} (see MurmurHash3 fmix32).
+     */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.concurrent;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded multi-producer multi-consumer ring buffer that automatically discards the oldest element if it is full.
+ *
+ * Each slot of the ring holds a sequence number telling producers and consumers whether the slot is free or filled
+ * for a given lap (Dmitry Vyukov's bounded MPMC queue), a {@link #offer(Object)} or a {@link #poll()} is then a single
+ * CAS on the enqueue or dequeue position.
+ *
+ * {@link #drainTo(Collection, int)} claims a run of filled slots with a single CAS so that the exporter drains large
+ * batches without contending with the producers once per element.
+ *
+ * Blocking methods ({@link #take()}, {@link #poll(long, TimeUnit)}) are implemented by parking the consumer thread,
+ * they are not optimized for latency. Insertion methods never block.
+ */
+public class DiscardingRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E>, DiscardingBlockingQueueMBean {
+
+    private static final long PARK_TIME_IN_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final int capacity;
+
+    private final AtomicReferenceArray<E> elements;
+
+    /**
+     * Sequence number of each slot: equals the enqueue position when the slot is free, equals the enqueue position + 1
+     * when the slot is filled.
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong enqueuePosition = new AtomicLong();
+
+    private final AtomicLong dequeuePosition = new AtomicLong();
+
+    private final AtomicInteger discardedElementCount = new AtomicInteger();
+
+    /**
+     * @param capacity the capacity of this ring buffer
+     * @throws IllegalArgumentException if {@code capacity < 1}
+     */
+    public DiscardingRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.elements = new AtomicReferenceArray<E>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Try to insert the given element without discarding any element.
+     *
+     * @return {@code false} if the ring buffer is full
+     */
+    protected boolean tryOffer(@Nonnull E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            long position = enqueuePosition.get();
+            int index = (int) (position % capacity);
+            long delta = sequences.get(index) - position;
+            if (delta == 0) {
+                if (enqueuePosition.compareAndSet(position, position + 1)) {
+                    elements.set(index, e);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+            } else if (delta < 0) {
+                return false;
+            }
+            // else another producer got this slot, retry
+        }
+    }
+
+    /**
+     * Offer the given element to the ring buffer removing the oldest elements if necessary (ie if the ring buffer is full).
+     *
+     * @param e the element to add to the ring buffer
+     * @return {@code true}
+     */
+    @Override
+    public boolean offer(@Nonnull E e) {
+        while (!tryOffer(e)) {
+            if (poll() != null) {
+                discardedElementCount.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, @Nonnull TimeUnit unit) {
+        return offer(e);
+    }
+
+    @Override
+    public void put(@Nonnull E e) {
+        offer(e);
+    }
+
+    @Override
+    public E poll() {
+        while (true) {
+            long position = dequeuePosition.get();
+            int index = (int) (position % capacity);
+            long delta = sequences.get(index) - (position + 1);
+            if (delta == 0) {
+                if (dequeuePosition.compareAndSet(position, position + 1)) {
+                    E e = elements.get(index);
+                    elements.set(index, null);
+                    sequences.set(index, position + capacity);
+                    return e;
+                }
+            } else if (delta < 0) {
+                return null;
+            }
+            // else another consumer got this slot, retry
+        }
+    }
+
+    @Override
+    public E poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, PARK_TIME_IN_NANOS));
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    @Nonnull
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            LockSupport.parkNanos(this, PARK_TIME_IN_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        while (true) {
+            long position = dequeuePosition.get();
+            int index = (int) (position % capacity);
+            long delta = sequences.get(index) - (position + 1);
+            if (delta < 0) {
+                return null;
+            }
+            E e = elements.get(index);
+            if (delta == 0 && e != null && dequeuePosition.get() == position) {
+                return e;
+            }
+            // else a consumer moved the dequeue position, retry
+        }
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        int count = 0;
+        while (count < maxElements) {
+            // claim a run of filled slots with a single CAS on the dequeue position
+            long position = dequeuePosition.get();
+            int batchSize = 0;
+            while (count + batchSize < maxElements && batchSize < capacity
+                    && sequences.get((int) ((position + batchSize) % capacity)) == position + batchSize + 1) {
+                batchSize++;
+            }
+            if (batchSize == 0) {
+                if (sequences.get((int) (position % capacity)) - (position + 1) < 0) {
+                    return count; // empty
+                } else {
+                    continue; // another consumer moved the dequeue position
+                }
+            }
+            if (!dequeuePosition.compareAndSet(position, position + batchSize)) {
+                continue;
+            }
+            for (long p = position; p < position + batchSize; p++) {
+                int index = (int) (p % capacity);
+                E e = elements.get(index);
+                elements.set(index, null);
+                sequences.set(index, p + capacity);
+                c.add(e);
+            }
+            count += batchSize;
+        }
+        return count;
+    }
+
+    @Override
+    public int size() {
+        while (true) {
+            long dequeue = dequeuePosition.get();
+            long enqueue = enqueuePosition.get();
+            if (dequeue == dequeuePosition.get()) {
+                long size = enqueue - dequeue;
+                return (int) Math.max(0, Math.min(size, capacity));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Weakly consistent snapshot iterator, removal is not supported.
+     */
+    @Override
+    @Nonnull
+    public Iterator<E> iterator() {
+        List<E> snapshot = new ArrayList<E>(size());
+        long dequeue = dequeuePosition.get();
+        long enqueue = enqueuePosition.get();
+        for (long position = Math.max(dequeue, enqueue - capacity); position < enqueue; position++) {
+            int index = (int) (position % capacity);
+            if (sequences.get(index) == position + 1) {
+                E e = elements.get(index);
+                if (e != null) {
+                    snapshot.add(e);
+                }
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    @Override
+    public int getDiscardedElementCount() {
+        return discardedElementCount.get();
+    }
+}
@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.concurrent;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded blocking queue whose behavior when it is full is given by an {@link OverflowPolicy}. The queue is bounded
+ * by a number of elements and optionally by a total size in bytes estimated by a {@link Weigher}.
+ *
+ * Insertion methods apply the {@link OverflowPolicy} and never throw when the queue is full, they return
+ * <code>false</code> if the inserted element has been discarded. Elements heavier than the capacity in bytes are
+ * always discarded. {@link #put(Object)} waits without timeout for room with the {@link OverflowPolicy#BLOCK} policy
+ * and applies the other policies as {@link #offer(Object)}.
+ */
+public class OverflowPolicyBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E>, OverflowPolicyBlockingQueueMBean {
+
+    /**
+     * Behavior of a full {@link OverflowPolicyBlockingQueue}.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest elements to make room for the new one, as {@link DiscardingBlockingQueue}.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the new element, the queue keeps the oldest data.
+         */
+        DROP_NEWEST,
+        /**
+         * Keep a uniform random sample of the elements offered since the queue was last empty (reservoir sampling):
+         * the new element replaces a random element or is discarded. The replaced element loses its FIFO position.
+         */
+        SAMPLE,
+        /**
+         * Wait for room up to the block timeout then discard the new element. Once an insertion has timed out, the
+         * next ones are discarded without waiting until an element is removed: the collector thread that adds the
+         * results of a query to a full queue is stalled for up to the block timeout, not for the block timeout per
+         * result.
+         */
+        BLOCK
+    }
+
+    /**
+     * Default maximum wait of the insertion methods with the {@link OverflowPolicy#BLOCK} policy.
+     */
+    public static final long DEFAULT_BLOCK_TIMEOUT_IN_MILLIS = 1000;
+
+    /**
+     * Estimate of the memory retained by an element.
+     */
+    public interface Weigher<E> {
+        long weigh(@Nonnull E element);
+    }
+
+    private final int capacity;
+
+    /**
+     * Maximum total weight of the elements, <code>0</code> if the queue is only bounded by {@link #capacity}.
+     */
+    private final long capacityInBytes;
+
+    @Nullable
+    private final Weigher<? super E> weigher;
+
+    @Nonnull
+    private final OverflowPolicy overflowPolicy;
+
+    private final long blockTimeoutInNanos;
+
+    private final Object[] elements;
+
+    private final long[] weights;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private int head;
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private int count;
+
+    /**
+     * Guarded by {@link #lock}.
+     */
+    private long sizeInBytes;
+
+    /**
+     * Number of elements offered since the queue was last empty, the population of the {@link OverflowPolicy#SAMPLE}
+     * reservoir. Guarded by {@link #lock}.
+     */
+    private long offeredSinceEmptyCount;
+
+    /**
+     * <code>true</code> if an insertion timed out with the {@link OverflowPolicy#BLOCK} policy and no element has been
+     * removed since, the next timed insertions are then discarded without waiting. Guarded by {@link #lock}.
+     */
+    private boolean blockTimedOut;
+
+    private final AtomicInteger discardedElementCount = new AtomicInteger();
+
+    private final AtomicInteger blockedOfferCount = new AtomicInteger();
+
+    /**
+     * @param capacity       maximum number of elements
+     * @param overflowPolicy behavior when the queue is full
+     */
+    public OverflowPolicyBlockingQueue(int capacity, @Nonnull OverflowPolicy overflowPolicy) {
+        this(capacity, 0, null, overflowPolicy, 0);
+    }
+
+    /**
+     * @param capacity            maximum number of elements
+     * @param capacityInBytes     maximum total weight of the elements, <code>0</code> to only bound the number of elements
+     * @param weigher             weigher of the elements, required if <code>capacityInBytes</code> is greater than <code>0</code>
+     * @param overflowPolicy      behavior when the queue is full
+     * @param blockTimeoutInMillis maximum wait of the insertion methods with the {@link OverflowPolicy#BLOCK} policy
+     * @throws IllegalArgumentException if {@code capacity < 1} or if a capacity in bytes is given without weigher
+     */
+    public OverflowPolicyBlockingQueue(int capacity, long capacityInBytes, @Nullable Weigher<? super E> weigher,
+                                       @Nonnull OverflowPolicy overflowPolicy, long blockTimeoutInMillis) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        if (capacityInBytes > 0 && weigher == null) {
+            throw new IllegalArgumentException("A weigher is required with a capacity in bytes");
+        }
+        this.capacity = capacity;
+        this.capacityInBytes = Math.max(0, capacityInBytes);
+        this.weigher = weigher;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutInMillis));
+        this.elements = new Object[capacity];
+        this.weights = new long[capacity];
+    }
+
+    /**
+     * Insert the given element applying the {@link OverflowPolicy} if the queue is full.
+     *
+     * @return <code>false</code> if the given element has been discarded
+     */
+    @Override
+    public boolean offer(@Nonnull E e) {
+        try {
+            return offer(e, blockTimeoutInNanos);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            discardedElementCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Insert the given element applying the {@link OverflowPolicy} if the queue is full, the {@link OverflowPolicy#BLOCK}
+     * policy waits up to the given timeout instead of the configured one.
+     * It doesn't wait if a previous insertion timed out and no element has been removed since.
+     *
+     * @return <code>false</code> if the given element has been discarded
+     */
+    @Override
+    public boolean offer(@Nonnull E e, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        return offer(e, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Insert the given element, waiting without timeout for room with the {@link OverflowPolicy#BLOCK} policy and
+     * applying the other policies as {@link #offer(Object)}.
+     */
+    @Override
+    public void put(@Nonnull E e) throws InterruptedException {
+        offer(e, -1);
+    }
+
+    /**
+     * Same as {@link #offer(Object)}, never throws {@link IllegalStateException}.
+     */
+    @Override
+    public boolean add(@Nonnull E e) {
+        return offer(e);
+    }
+
+    /**
+     * @param timeoutInNanos maximum wait with the {@link OverflowPolicy#BLOCK} policy, negative to wait without timeout
+     */
+    private boolean offer(@Nonnull E e, long timeoutInNanos) throws InterruptedException {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long weight = weigher == null ? 0 : weigher.weigh(e);
+        lock.lockInterruptibly();
+        try {
+            if (capacityInBytes > 0 && weight > capacityInBytes) {
+                discardedElementCount.incrementAndGet();
+                return false;
+            }
+            offeredSinceEmptyCount++;
+            if (!hasRoomFor(weight)) {
+                switch (overflowPolicy) {
+                    case DROP_OLDEST:
+                        while (!hasRoomFor(weight)) {
+                            dequeue();
+                            discardedElementCount.incrementAndGet();
+                        }
+                        break;
+                    case DROP_NEWEST:
+                        discardedElementCount.incrementAndGet();
+                        return false;
+                    case SAMPLE:
+                        return replaceRandomElement(e, weight);
+                    case BLOCK:
+                        if (timeoutInNanos >= 0 && blockTimedOut) {
+                            discardedElementCount.incrementAndGet();
+                            return false;
+                        }
+                        blockedOfferCount.incrementAndGet();
+                        long nanos = timeoutInNanos;
+                        while (!hasRoomFor(weight)) {
+                            if (timeoutInNanos < 0) {
+                                notFull.await();
+                            } else if (nanos <= 0) {
+                                blockTimedOut = true;
+                                discardedElementCount.incrementAndGet();
+                                return false;
+                            } else {
+                                nanos = notFull.awaitNanos(nanos);
+                            }
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unsupported overflow policy " + overflowPolicy);
+                }
+            }
+            enqueue(e, weight);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reservoir sampling (algorithm R): the n-th element offered since the queue was last empty replaces a random
+     * element with the probability <code>count / n</code>. Must be called with the {@link #lock} held.
+     */
+    private boolean replaceRandomElement(@Nonnull E e, long weight) {
+        discardedElementCount.incrementAndGet();
+        long random = ThreadLocalRandom.current().nextLong(offeredSinceEmptyCount);
+        if (random >= count) {
+            return false;
+        }
+        int index = (int) ((head + random) % elements.length);
+        long newSizeInBytes = sizeInBytes - weights[index] + weight;
+        if (capacityInBytes > 0 && newSizeInBytes > capacityInBytes) {
+            return false;
+        }
+        elements[index] = e;
+        weights[index] = weight;
+        sizeInBytes = newSizeInBytes;
+        return true;
+    }
+
+    private boolean hasRoomFor(long weight) {
+        return count < capacity && (capacityInBytes == 0 || sizeInBytes + weight <= capacityInBytes);
+    }
+
+    private void enqueue(@Nonnull E e, long weight) {
+        int index = (head + count) % elements.length;
+        elements[index] = e;
+        weights[index] = weight;
+        count++;
+        sizeInBytes += weight;
+        notEmpty.signal();
+    }
+
+    @SuppressWarnings("unchecked")
+    private E dequeue() {
+        E e = (E) elements[head];
+        elements[head] = null;
+        sizeInBytes -= weights[head];
+        head = (head + 1) % elements.length;
+        count--;
+        if (count == 0) {
+            offeredSinceEmptyCount = 0;
+        }
+        blockTimedOut = false;
+        // with a capacity in bytes, the removed element may make room for several waiting producers
+        notFull.signalAll();
+        return e;
+    }
+
+    @Override
+    @Nullable
+    public E poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    public E poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nonnull
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        lock.lock();
+        try {
+            return count == 0 ? null : (E) elements[head];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super E> c, int maxElements) {
+        if (c == this) {
+            throw new IllegalArgumentException();
+        }
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            for (int i = 0; i < n; i++) {
+                c.add(dequeue());
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Weakly consistent iterator over a snapshot of the queue, {@link Iterator#remove()} is not supported.
+     */
+    @Override
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        lock.lock();
+        try {
+            List<E> snapshot = new ArrayList<E>(count);
+            for (int i = 0; i < count; i++) {
+                snapshot.add((E) elements[(head + i) % elements.length]);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getDiscardedElementCount() {
+        return discardedElementCount.get();
+    }
+
+    @Override
+    public int getBlockedOfferCount() {
+        return blockedOfferCount.get();
+    }
+
+    @Override
+    @Nonnull
+    public String getOverflowPolicy() {
+        return overflowPolicy.name();
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getCapacityInBytes() {
+        return capacityInBytes;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        lock.lock();
+        try {
+            return sizeInBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OverflowPolicyBlockingQueue{" +
+                "capacity=" + capacity +
+                ", capacityInBytes=" + capacityInBytes +
+                ", overflowPolicy=" + overflowPolicy +
+                ", size=" + size() +
+                '}';
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.net;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * {@linkplain SocketChannel} with reusable direct {@linkplain ByteBuffer}s: the caller encodes its data in
+ * {@link #getBuffer()}, moves to the {@link #nextBuffer()} when it is full, and {@link #flush()} sends all the filled
+ * buffers with a single gathering write. Not thread safe, intended to be pooled.
+ */
+public class BufferedSocketChannel implements Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_MAX_BUFFERS = 16;
+
+    @Nonnull
+    private final SocketChannel channel;
+
+    private final int bufferSize;
+
+    /**
+     * Allocated lazily, reused across flushes.
+     */
+    @Nonnull
+    private final ByteBuffer[] buffers;
+
+    /**
+     * Index of the buffer being filled.
+     */
+    private int current;
+
+    /**
+     * Bytes sent by the flushes triggered by {@link #nextBuffer()} and not yet reported by {@link #flush()}.
+     */
+    private long unreportedWrittenBytes;
+
+    public BufferedSocketChannel(@Nonnull SocketChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_BUFFERS);
+    }
+
+    /**
+     * @param channel    connected blocking channel
+     * @param bufferSize size of each buffer
+     * @param maxBuffers number of buffers filled before they are sent
+     */
+    public BufferedSocketChannel(@Nonnull SocketChannel channel, int bufferSize, int maxBuffers) {
+        if (bufferSize < 1 || maxBuffers < 1) {
+            throw new IllegalArgumentException("Invalid bufferSize " + bufferSize + " or maxBuffers " + maxBuffers);
+        }
+        this.channel = channel;
+        this.bufferSize = bufferSize;
+        this.buffers = new ByteBuffer[maxBuffers];
+        this.buffers[0] = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * @return the buffer being filled
+     */
+    @Nonnull
+    public ByteBuffer getBuffer() {
+        return buffers[current];
+    }
+
+    /**
+     * Move to an empty buffer, sending the filled buffers first if all of them are used.
+     *
+     * @return the new buffer being filled
+     */
+    @Nonnull
+    public ByteBuffer nextBuffer() throws IOException {
+        if (current + 1 == buffers.length) {
+            unreportedWrittenBytes += write();
+        } else {
+            current++;
+            if (buffers[current] == null) {
+                buffers[current] = ByteBuffer.allocateDirect(bufferSize);
+            }
+        }
+        return buffers[current];
+    }
+
+    /**
+     * Send the content of the buffers.
+     *
+     * @return the number of bytes sent since the previous flush
+     */
+    public long flush() throws IOException {
+        long writtenBytes = unreportedWrittenBytes + write();
+        unreportedWrittenBytes = 0;
+        return writtenBytes;
+    }
+
+    private long write() throws IOException {
+        int length = current + 1;
+        long size = 0;
+        for (int i = 0; i < length; i++) {
+            buffers[i].flip();
+            size += buffers[i].remaining();
+        }
+        long writtenBytes = 0;
+        try {
+            // blocking channel: loop in case of partial writes
+            while (writtenBytes < size) {
+                writtenBytes += channel.write(buffers, 0, length);
+            }
+        } finally {
+            for (int i = 0; i < length; i++) {
+                buffers[i].clear();
+            }
+            current = 0;
+        }
+        return writtenBytes;
+    }
+
+    @Nonnull
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferedSocketChannel{" +
+                "channel=" + channel +
+                '}';
+    }
+}
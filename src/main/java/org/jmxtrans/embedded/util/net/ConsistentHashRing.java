@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.net;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Consistent hash ring compatible with the "{@code carbon_ch}" hashing of
+ * <a href="https://github.com/graphite-project/carbon">carbon-relay</a>: a metric is routed to the same carbon
+ * cache as the one chosen by a carbon-relay configured with the same destinations.
+ *
+ * Each node {@code (host, instance)} is placed {@link #DEFAULT_REPLICA_COUNT} times on a ring of 16 bits positions
+ * computed with the first 2 bytes of the MD5 of {@code "('host', 'instance'):i"}. As in carbon, the port is not part
+ * of the hashed key. A key is routed to the first node whose position is greater or equal to the position of the key.
+ *
+ * Immutable once the nodes are added, lookups are thread safe. Lookups reuse a {@link MessageDigest} per thread.
+ */
+public class ConsistentHashRing {
+
+    public static final int DEFAULT_REPLICA_COUNT = 100;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY_KEY_PREFIX = new byte[0];
+
+    private static final ThreadLocal<MessageDigest> MD5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 is not available", e);
+            }
+        }
+    };
+
+    private final int replicaCount;
+
+    /**
+     * Distinct nodes in the order they have been added.
+     */
+    private final List<HostAndPort> nodes = new ArrayList<HostAndPort>();
+
+    /**
+     * Sorted positions of the ring, {@link #ringNodes} holds the node of each position.
+     */
+    private int[] ringPositions = new int[0];
+
+    private HostAndPort[] ringNodes = new HostAndPort[0];
+
+    public ConsistentHashRing() {
+        this(DEFAULT_REPLICA_COUNT);
+    }
+
+    public ConsistentHashRing(int replicaCount) {
+        if (replicaCount < 1) {
+            throw new IllegalArgumentException("Invalid replicaCount " + replicaCount);
+        }
+        this.replicaCount = replicaCount;
+    }
+
+    /**
+     * @param node     destination
+     * @param instance carbon instance name of the destination, {@code null} if none is defined in the carbon-relay
+     *                 destinations ({@code "host:port"} rather than {@code "host:port:instance"})
+     */
+    public void addNode(@Nonnull HostAndPort node, @Nullable String instance) {
+        if (nodes.contains(node)) {
+            throw new IllegalArgumentException("Duplicate node " + node);
+        }
+        nodes.add(node);
+        // python repr of the carbon (server, instance) tuple
+        String nodeKey = "('" + node.getHost() + "', " + (instance == null ? "None" : "'" + instance + "'") + ")";
+
+        int[] positions = Arrays.copyOf(ringPositions, ringPositions.length + replicaCount);
+        HostAndPort[] ringNodes = Arrays.copyOf(this.ringNodes, this.ringNodes.length + replicaCount);
+        int size = ringPositions.length;
+        for (int i = 0; i < replicaCount; i++) {
+            int position = computeRingPosition(EMPTY_KEY_PREFIX, nodeKey + ":" + i);
+            // carbon moves colliding positions to the next free one
+            while (Arrays.binarySearch(positions, 0, size, position) >= 0) {
+                position++;
+            }
+            int index = -(Arrays.binarySearch(positions, 0, size, position) + 1);
+            System.arraycopy(positions, index, positions, index + 1, size - index);
+            System.arraycopy(ringNodes, index, ringNodes, index + 1, size - index);
+            positions[index] = position;
+            ringNodes[index] = node;
+            size++;
+        }
+        this.ringPositions = positions;
+        this.ringNodes = ringNodes;
+    }
+
+    /**
+     * @return the node of the given key
+     */
+    @Nonnull
+    public HostAndPort getNode(@Nonnull String key) {
+        return getNode(EMPTY_KEY_PREFIX, key);
+    }
+
+    /**
+     * Same as {@link #getNode(String)} for the key made of the given UTF-8 encoded prefix followed by
+     * <code>keySuffix</code>, without building the concatenated key.
+     */
+    @Nonnull
+    public HostAndPort getNode(@Nonnull byte[] keyPrefix, @Nonnull String keySuffix) {
+        if (nodes.isEmpty()) {
+            throw new IllegalStateException("Empty ring");
+        }
+        return ringNodes[indexOf(keyPrefix, keySuffix)];
+    }
+
+    /**
+     * @return all the nodes ordered by preference for the given key: the {@linkplain #getNode(String) node of the key}
+     * first, then the next distinct nodes walking the ring, used to fail over when the preferred nodes are down
+     */
+    @Nonnull
+    public List<HostAndPort> getNodes(@Nonnull String key) {
+        return getNodes(EMPTY_KEY_PREFIX, key);
+    }
+
+    /**
+     * Same as {@link #getNodes(String)} for the key made of the given UTF-8 encoded prefix followed by
+     * <code>keySuffix</code>.
+     */
+    @Nonnull
+    public List<HostAndPort> getNodes(@Nonnull byte[] keyPrefix, @Nonnull String keySuffix) {
+        if (nodes.size() <= 1) {
+            return new ArrayList<HostAndPort>(nodes);
+        }
+        Set<HostAndPort> result = new LinkedHashSet<HostAndPort>();
+        int index = indexOf(keyPrefix, keySuffix);
+        for (int i = 0; i < ringNodes.length && result.size() < nodes.size(); i++) {
+            result.add(ringNodes[(index + i) % ringNodes.length]);
+        }
+        return new ArrayList<HostAndPort>(result);
+    }
+
+    @Nonnull
+    public List<HostAndPort> getNodes() {
+        return new ArrayList<HostAndPort>(nodes);
+    }
+
+    private int indexOf(@Nonnull byte[] keyPrefix, @Nonnull String keySuffix) {
+        int position = computeRingPosition(keyPrefix, keySuffix);
+        int index = Arrays.binarySearch(ringPositions, position);
+        if (index < 0) {
+            index = -(index + 1);
+        }
+        return index % ringPositions.length;
+    }
+
+    /**
+     * @return the first 2 bytes of the MD5 of the given key
+     */
+    private static int computeRingPosition(@Nonnull byte[] keyPrefix, @Nonnull String keySuffix) {
+        MessageDigest md5 = MD5.get();
+        md5.update(keyPrefix);
+        byte[] digest = md5.digest(keySuffix.getBytes(UTF_8));
+        return ((digest[0] & 0xFF) << 8) | (digest[1] & 0xFF);
+    }
+
+    @Override
+    public String toString() {
+        return "ConsistentHashRing{" +
+                "nodes=" + nodes +
+                ", replicaCount=" + replicaCount +
+                '}';
+    }
+}
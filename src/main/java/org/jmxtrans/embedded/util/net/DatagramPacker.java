@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.net;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Pack newline terminated lines in datagrams of at most {@code maxPayloadSizeInBytes} bytes sent with
+ * {@link DatagramChannel#send(ByteBuffer, SocketAddress)}: the caller encodes complete lines in the single reusable
+ * {@link #getBuffer()} and calls {@link #nextBuffer()} when the next line doesn't fit, so datagrams are only cut at
+ * line boundaries. Not thread safe, intended to be pooled.
+ */
+public class DatagramPacker implements Closeable {
+
+    /**
+     * Fits in an Ethernet MTU of 1500 bytes with room for IP options and tunnel headers.
+     */
+    public static final int DEFAULT_MAX_PAYLOAD_SIZE_IN_BYTES = 1432;
+
+    @Nonnull
+    private final DatagramChannel channel;
+
+    @Nonnull
+    private final SocketAddress target;
+
+    @Nonnull
+    private final ByteBuffer buffer;
+
+    /**
+     * Bytes sent by {@link #nextBuffer()} and not yet reported by {@link #flush()}.
+     */
+    private long unreportedSentBytes;
+
+    private long sentDatagramCount;
+
+    /**
+     * @param channel               unconnected channel
+     * @param target                destination of the datagrams
+     * @param maxPayloadSizeInBytes maximum size of the datagrams
+     */
+    public DatagramPacker(@Nonnull DatagramChannel channel, @Nonnull SocketAddress target, int maxPayloadSizeInBytes) {
+        if (maxPayloadSizeInBytes < 1) {
+            throw new IllegalArgumentException("Invalid maxPayloadSizeInBytes " + maxPayloadSizeInBytes);
+        }
+        this.channel = channel;
+        this.target = target;
+        this.buffer = ByteBuffer.allocateDirect(maxPayloadSizeInBytes);
+    }
+
+    /**
+     * @return the buffer of the datagram being filled, its capacity is the maximum payload size
+     */
+    @Nonnull
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Send the datagram being filled.
+     *
+     * @return the same, emptied, buffer
+     */
+    @Nonnull
+    public ByteBuffer nextBuffer() throws IOException {
+        unreportedSentBytes += send();
+        return buffer;
+    }
+
+    /**
+     * Send the datagram being filled if it is not empty.
+     *
+     * @return the number of bytes sent since the previous flush
+     */
+    public long flush() throws IOException {
+        long sentBytes = unreportedSentBytes + send();
+        unreportedSentBytes = 0;
+        return sentBytes;
+    }
+
+    private int send() throws IOException {
+        buffer.flip();
+        try {
+            if (!buffer.hasRemaining()) {
+                return 0;
+            }
+            int sentBytes = channel.send(buffer, target);
+            sentDatagramCount++;
+            return sentBytes;
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    public long getSentDatagramCount() {
+        return sentDatagramCount;
+    }
+
+    @Nonnull
+    public DatagramChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DatagramPacker{" +
+                "target=" + target +
+                ", maxPayloadSizeInBytes=" + buffer.capacity() +
+                '}';
+    }
+}
@@ -23,10 +23,12 @@
  */
 package org.jmxtrans.embedded.util.net;
 
+import javax.annotation.Nullable;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 
 /**
  * Convenience class for writing bytes to a {@linkplain java.net.Socket}.
@@ -37,6 +39,12 @@ public class SocketOutputStream extends FilterOutputStream {
 
     private final Socket socket;
 
+    /**
+     * Buffer reused by the successive messages written to this stream, not thread safe as the stream itself.
+     */
+    @Nullable
+    private ByteBuffer buffer;
+
     public SocketOutputStream(InetSocketAddress inetSocketAddress) throws IOException {
         this(new Socket(inetSocketAddress.getAddress(), inetSocketAddress.getPort()));
     }
@@ -46,6 +54,14 @@ public class SocketOutputStream extends FilterOutputStream {
         this.socket = socket;
     }
 
+    /**
+     * Write the whole array to the underlying stream rather than byte per byte as {@link FilterOutputStream} does.
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
     /**
      * Return the underlying {@linkplain java.net.Socket}
      */
@@ -53,6 +69,15 @@ public class SocketOutputStream extends FilterOutputStream {
         return socket;
     }
 
+    @Nullable
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void setBuffer(@Nullable ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
     @Override
     public String toString() {
         return "SocketWriter{" +
@@ -27,6 +27,8 @@ import java.io.IOException;
 import java.io.Writer;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 
 /**
@@ -48,7 +50,9 @@ public class UDPDatagramWriter extends Writer {
     @Override
     public void write(char[] cbuf, int off, int len) throws IOException {
 
-        DatagramPacket datagramPacket = new DatagramPacket(new String(cbuf).getBytes(charset), off, len);
+        // encode only the given chars, offset and length are in chars, not in bytes
+        ByteBuffer bytes = charset.encode(CharBuffer.wrap(cbuf, off, len));
+        DatagramPacket datagramPacket = new DatagramPacket(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
         datagramSocket.send(datagramPacket);
     }
 
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.pool;
+
+import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.KeyedPooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.jmxtrans.embedded.util.net.BufferedSocketChannel;
+import org.jmxtrans.embedded.util.net.HostAndPort;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Factory for {@linkplain BufferedSocketChannel} instances created from {@linkplain HostAndPort}.
+ */
+public class BufferedSocketChannelPoolFactory extends BaseKeyedPooledObjectFactory<HostAndPort, BufferedSocketChannel> implements KeyedPooledObjectFactory<HostAndPort, BufferedSocketChannel> {
+
+    private final int socketConnectTimeoutInMillis;
+
+    public BufferedSocketChannelPoolFactory(int socketConnectTimeoutInMillis) {
+        this.socketConnectTimeoutInMillis = socketConnectTimeoutInMillis;
+    }
+
+    @Override
+    public BufferedSocketChannel create(HostAndPort hostAndPort) throws Exception {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().setKeepAlive(true);
+            channel.socket().connect(new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort()), socketConnectTimeoutInMillis);
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+        return new BufferedSocketChannel(channel);
+    }
+
+    @Override
+    public PooledObject<BufferedSocketChannel> wrap(BufferedSocketChannel channel) {
+        return new DefaultPooledObject<BufferedSocketChannel>(channel);
+    }
+
+    @Override
+    public void destroyObject(HostAndPort hostAndPort, PooledObject<BufferedSocketChannel> channelRef) throws Exception {
+        channelRef.getObject().close();
+    }
+
+    /**
+     * Defensive approach: we test all the "<code>Socket.isXXX()</code>" flags.
+     */
+    @Override
+    public boolean validateObject(HostAndPort hostAndPort, PooledObject<BufferedSocketChannel> channelRef) {
+        SocketChannel channel = channelRef.getObject().getChannel();
+        Socket socket = channel.socket();
+        return channel.isOpen()
+                && channel.isConnected()
+                && !socket.isInputShutdown()
+                && !socket.isOutputShutdown();
+    }
+}
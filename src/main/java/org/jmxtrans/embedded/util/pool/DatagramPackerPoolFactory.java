@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.pool;
+
+import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.KeyedPooledObjectFactory;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.jmxtrans.embedded.util.net.DatagramPacker;
+import org.jmxtrans.embedded.util.net.HostAndPort;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Factory for {@linkplain DatagramPacker} instances created from {@linkplain HostAndPort}.
+ */
+public class DatagramPackerPoolFactory extends BaseKeyedPooledObjectFactory<HostAndPort, DatagramPacker> implements KeyedPooledObjectFactory<HostAndPort, DatagramPacker> {
+
+    private final int maxPayloadSizeInBytes;
+
+    public DatagramPackerPoolFactory(int maxPayloadSizeInBytes) {
+        this.maxPayloadSizeInBytes = maxPayloadSizeInBytes;
+    }
+
+    @Override
+    public DatagramPacker create(HostAndPort hostAndPort) throws Exception {
+        InetSocketAddress target = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        return new DatagramPacker(DatagramChannel.open(), target, maxPayloadSizeInBytes);
+    }
+
+    @Override
+    public PooledObject<DatagramPacker> wrap(DatagramPacker datagramPacker) {
+        return new DefaultPooledObject<DatagramPacker>(datagramPacker);
+    }
+
+    @Override
+    public void destroyObject(HostAndPort hostAndPort, PooledObject<DatagramPacker> datagramPackerRef) throws Exception {
+        datagramPackerRef.getObject().close();
+    }
+
+    @Override
+    public boolean validateObject(HostAndPort hostAndPort, PooledObject<DatagramPacker> datagramPackerRef) {
+        return datagramPackerRef.getObject().getChannel().isOpen();
+    }
+}
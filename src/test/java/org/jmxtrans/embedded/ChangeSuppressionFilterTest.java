@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class ChangeSuppressionFilterTest {
+
+    @Test
+    public void testUnchangedValuesAreSuppressedUntilHeartbeat() {
+        ChangeSuppressionFilter filter = new ChangeSuppressionFilter(60000);
+
+        assertThat(filter.accept(new QueryResult("max-threads", null, 200L, 0)), is(true));
+        assertThat(filter.accept(new QueryResult("max-threads", null, 200L, 10000)), is(false));
+        assertThat(filter.accept(new QueryResult("max-threads", null, 200L, 59999)), is(false));
+        // heartbeat
+        assertThat(filter.accept(new QueryResult("max-threads", null, 200L, 60000)), is(true));
+        assertThat(filter.accept(new QueryResult("max-threads", null, 200L, 70000)), is(false));
+        // changed
+        assertThat(filter.accept(new QueryResult("max-threads", null, 250L, 80000)), is(true));
+        assertThat(filter.getSuppressedResultsCount(), is(3L));
+    }
+
+    @Test
+    public void testValueTypes() {
+        ChangeSuppressionFilter filter = new ChangeSuppressionFilter(60000);
+
+        assertThat(filter.accept(new QueryResult("load", null, 0.5, 0)), is(true));
+        assertThat(filter.accept(new QueryResult("load", null, 0.5, 1000)), is(false));
+        assertThat(filter.accept(new QueryResult("load", null, 0.75, 2000)), is(true));
+
+        assertThat(filter.accept(new QueryResult("state", null, "RUNNING", 0)), is(true));
+        assertThat(filter.accept(new QueryResult("state", null, "RUNNING", 1000)), is(false));
+        assertThat(filter.accept(new QueryResult("state", null, "STOPPED", 2000)), is(true));
+
+        // same number with a different value type
+        assertThat(filter.accept(new QueryResult("size", null, 1L, 0)), is(true));
+        assertThat(filter.accept(new QueryResult("size", null, 1.0, 1000)), is(true));
+        assertThat(filter.size(), is(3));
+    }
+
+    @Test
+    public void testFilterList() {
+        ChangeSuppressionFilter filter = new ChangeSuppressionFilter(60000);
+        List<QueryResult> results = Arrays.asList(
+                new QueryResult("a", null, 1L, 0),
+                new QueryResult("b", null, 2L, 0));
+        assertThat(filter.filter(results), sameInstance(results));
+
+        List<QueryResult> accepted = filter.filter(Arrays.asList(
+                new QueryResult("a", null, 1L, 1000),
+                new QueryResult("b", null, 3L, 1000),
+                new QueryResult("c", null, 4L, 1000)));
+        assertThat(accepted.size(), is(2));
+        assertThat(accepted.get(0).getName(), is("b"));
+        assertThat(accepted.get(1).getName(), is("c"));
+    }
+
+    @Test
+    public void testFilterUnchangedRecordsOnlyTheWrittenValues() {
+        ChangeSuppressionFilter filter = new ChangeSuppressionFilter(60000);
+        List<QueryResult> results = Arrays.asList(new QueryResult("a", null, 1L, 0));
+        assertThat(filter.filterUnchanged(results), sameInstance(results));
+        // not written
+        results = Arrays.asList(new QueryResult("a", null, 1L, 1000));
+        assertThat(filter.filterUnchanged(results), sameInstance(results));
+        filter.recordAccepted(results);
+
+        assertThat(filter.filterUnchanged(Arrays.asList(new QueryResult("a", null, 1L, 2000))).isEmpty(), is(true));
+        assertThat(filter.getSuppressedResultsCount(), is(1L));
+    }
+}
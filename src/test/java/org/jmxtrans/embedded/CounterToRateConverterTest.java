@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class CounterToRateConverterTest {
+
+    @Test
+    public void testLongCounter() {
+        CounterToRateConverter converter = new CounterToRateConverter();
+
+        assertThat(converter.toRate(new QueryResult("requests", "counter", 100L, 10000)), nullValue());
+
+        QueryResult rate = converter.toRate(new QueryResult("requests", "counter", 150L, 15000));
+        assertThat(rate.getName(), is("requests"));
+        assertThat(rate.getType(), is(CounterToRateConverter.RATE_METRIC_TYPE));
+        assertThat(rate.getEpochInMillis(), is(15000L));
+        assertThat(rate.getDoubleValue(), is(10.0));
+
+        // reset: the new value is the delta
+        rate = converter.toRate(new QueryResult("requests", "counter", 20L, 20000));
+        assertThat(rate.getDoubleValue(), is(4.0));
+    }
+
+    @Test
+    public void testDoubleCounter() {
+        CounterToRateConverter converter = new CounterToRateConverter();
+
+        assertThat(converter.toRate(new QueryResult("cpu", "counter", 1.5, 1000)), nullValue());
+        assertThat(converter.toRate(new QueryResult("cpu", "counter", 2.5, 3000)).getDoubleValue(), is(0.5));
+    }
+
+    @Test
+    public void testSameTimestampAndNonNumericValues() {
+        CounterToRateConverter converter = new CounterToRateConverter();
+
+        assertThat(converter.toRate(new QueryResult("requests", "counter", 100L, 1000)), nullValue());
+        assertThat(converter.toRate(new QueryResult("requests", "counter", 110L, 1000)), nullValue());
+
+        QueryResult text = new QueryResult("state", "counter", "RUNNING", 1000);
+        assertThat(converter.toRate(text), sameInstance(text));
+        assertThat(converter.size(), is(1));
+    }
+
+    @Test
+    public void testManySeriesAndExpiry() {
+        CounterToRateConverter converter = new CounterToRateConverter(4, 60000);
+        int seriesCount = 10000;
+        for (int i = 0; i < seriesCount; i++) {
+            converter.toRate(new QueryResult("series-" + i, "counter", (long) i, 1000));
+        }
+        assertThat(converter.size(), is(seriesCount));
+        for (int i = 0; i < seriesCount; i++) {
+            QueryResult rate = converter.toRate(new QueryResult("series-" + i, "counter", (long) i + 10, 2000));
+            assertThat(rate.getDoubleValue(), is(10.0));
+        }
+
+        // the 10000 series are expired and purged when the table is full
+        for (int i = 0; i < seriesCount; i++) {
+            converter.toRate(new QueryResult("other-series-" + i, "counter", (long) i, 120000));
+        }
+        assertThat(converter.size(), is(seriesCount));
+        assertThat(converter.toRate(new QueryResult("series-1", "counter", 20L, 121000)), nullValue());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class QueryResultTest {
+
+    @Test
+    public void integral_values_are_stored_as_long() {
+        QueryResult result = QueryResult.newQueryResult("my.metric", null, Integer.valueOf(42), 0);
+        assertThat(result.getValueType(), is(QueryResult.ValueType.LONG));
+        assertThat(result.getLongValue(), is(42L));
+        assertThat(result.getDoubleValue(), is(42.0));
+        assertThat(result.getValue(), is((Object) 42L));
+        assertThat(result.appendValue(new StringBuilder()).toString(), is("42"));
+    }
+
+    @Test
+    public void double_values_are_stored_as_double() {
+        QueryResult result = QueryResult.newQueryResult("my.metric", null, Double.valueOf(0.25), 0);
+        assertThat(result.getValueType(), is(QueryResult.ValueType.DOUBLE));
+        assertThat(result.getDoubleValue(), is(0.25));
+        assertThat(result.isNumeric(), is(true));
+        assertThat(result.appendValue(new StringBuilder()).toString(), is(String.valueOf(0.25)));
+    }
+
+    @Test
+    public void float_values_keep_their_textual_representation() {
+        QueryResult result = QueryResult.newQueryResult("my.metric", null, Float.valueOf(0.1f), 0);
+        assertThat(result.getValueType(), is(QueryResult.ValueType.OBJECT));
+        assertThat(result.isNumeric(), is(true));
+        assertThat(result.appendValue(new StringBuilder()).toString(), is("0.1"));
+    }
+
+    @Test
+    public void non_numeric_values_are_stored_as_object() {
+        Date date = new Date();
+        QueryResult result = QueryResult.newQueryResult("my.metric", null, date, 0);
+        assertThat(result.getValueType(), is(QueryResult.ValueType.OBJECT));
+        assertThat(result.getValue(), is((Object) date));
+        assertThat(result.isNumeric(), is(false));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void non_numeric_values_have_no_long_value() {
+        new QueryResult("my.metric", "value", 0).getLongValue();
+    }
+}
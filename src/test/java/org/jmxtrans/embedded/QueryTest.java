@@ -24,7 +24,10 @@
 package org.jmxtrans.embedded;
 
 import org.jmxtrans.embedded.output.AbstractOutputWriter;
+import org.jmxtrans.embedded.output.NoOpWriter;
 import org.jmxtrans.embedded.output.OutputWriter;
+import org.jmxtrans.embedded.util.concurrent.DiscardingBlockingQueue;
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueue;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -32,7 +35,12 @@ import org.junit.Test;
 import javax.management.*;
 import java.lang.management.ManagementFactory;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -93,6 +101,68 @@ public class QueryTest {
         assertThat(result2.getValue(), instanceOf(Number.class));
     }
 
+    @Test
+    public void test_composite_jmx_attribute_without_keys() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+
+        Query query = new Query("test:type=MemoryPool,name=*").addAttribute("Usage");
+        embeddedJmxTrans.addQuery(query);
+        Set<String> resultNames = new HashSet<String>();
+        for (int i = 0; i < 2; i++) {
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(8));
+            for (QueryResult result : query.getResults()) {
+                assertThat(result.getValue(), instanceOf(Number.class));
+                resultNames.add(result.getName());
+            }
+            query.getResults().clear();
+        }
+        assertThat(resultNames.size(), is(8));
+        assertTrue(resultNames.toString(), resultNames.contains("test.name__PS_Eden_Space.type__MemoryPool.Usage.used"));
+        assertTrue(resultNames.toString(), resultNames.contains("test.name__PS_Perm_Gen.type__MemoryPool.Usage.committed"));
+    }
+
+    @Test
+    public void test_composite_jmx_attribute_uses_result_name_strategy_per_key() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+
+        Query query = new Query("test:type=MemoryPool,name=PS Perm Gen");
+        embeddedJmxTrans.addQuery(query);
+        query.addAttribute(new QueryAttribute("Usage", null, null, Arrays.asList("used")).withResultNameStrategy(new ResultNameStrategy() {
+            @Override
+            public String getResultName(Query query, ObjectName objectName, QueryAttribute queryAttribute, String key) {
+                return "custom." + key;
+            }
+        }));
+        query.collectMetrics();
+        assertThat(query.getResults().size(), is(1));
+        assertThat(query.getResults().poll().getName(), is("custom.used"));
+    }
+
+    @Test
+    public void testCounterToRateConversion() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        embeddedJmxTrans.setConvertCountersToRates(true);
+
+        Query query = new Query("test:type=MemoryPool,name=PS Eden Space")
+                .addAttribute(new QueryAttribute("CollectionUsageThreshold", "counter", null))
+                .addAttribute(new QueryAttribute("Name", null, null));
+        embeddedJmxTrans.addQuery(query);
+
+        query.collectMetrics(1000);
+        assertThat(query.getResults().size(), is(1));
+        assertThat(query.getResults().poll().getType(), nullValue());
+
+        query.collectMetrics(2000);
+        assertThat(query.getResults().size(), is(2));
+        for (QueryResult result : query.getResults()) {
+            if (result.getName().endsWith("CollectionUsageThreshold")) {
+                assertThat(result.getType(), is(CounterToRateConverter.RATE_METRIC_TYPE));
+                assertThat(result.getDoubleValue(), is(0.0));
+            }
+        }
+    }
+
     @Test
     public void testDynamicAttributeSupport() throws Exception {
         final int count = 42;
@@ -163,6 +233,176 @@ public class QueryTest {
         }
     }
 
+    @Test
+    public void testMatchingObjectNamesCacheIsMaintainedByNotifications() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+
+        Query query = new Query("test:type=MemoryPool,name=*").addAttribute("CollectionUsageThreshold");
+        embeddedJmxTrans.addQuery(query);
+        query.start();
+        ObjectName mockOldGenPool = new ObjectName("test:type=MemoryPool,name=PS Old Gen");
+        try {
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(2));
+            query.getResults().clear();
+
+            mbeanServer.registerMBean(new MockMemoryPool("PS Old Gen", 87359488L), mockOldGenPool);
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(3));
+            query.getResults().clear();
+
+            mbeanServer.unregisterMBean(mockOldGenPool);
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(2));
+
+            assertThat(query.getObjectNameCacheResyncCount(), is(1));
+        } finally {
+            if (mbeanServer.isRegistered(mockOldGenPool)) {
+                mbeanServer.unregisterMBean(mockOldGenPool);
+            }
+            query.stop();
+        }
+    }
+
+    @Test
+    public void testAttributeCollectionPlanSkipsUncollectableAttributes() throws Exception {
+        ObjectName objectName = new ObjectName("test:type=AttributeCollectionPlan");
+        mbeanServer.registerMBean(new StandardMBean(new AttributeCollectionPlanTest() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public long getCount() {
+                return 42;
+            }
+
+            @Override
+            public long[] getValues() {
+                return new long[]{1, 2};
+            }
+
+            @Override
+            public void setWriteOnly(long writeOnly) {
+            }
+
+            @Override
+            public Object getAnything() {
+                return 3;
+            }
+        }, AttributeCollectionPlanTest.class), objectName);
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        Query query = new Query("test:type=AttributeCollectionPlan")
+                .addAttribute("Enabled").addAttribute("Count").addAttribute("Values").addAttribute("WriteOnly").addAttribute("Anything");
+        embeddedJmxTrans.addQuery(query);
+        query.start();
+        try {
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(2));
+
+            AttributeCollectionPlan plan = query.getAttributeCollectionPlan(objectName);
+            assertThat(new HashSet<String>(Arrays.asList(plan.getAttributeNames())), is(new HashSet<String>(Arrays.asList("Count", "Anything"))));
+            assertThat(query.getAttributeCollectionPlan(objectName), sameInstance(plan));
+
+            query.addAttribute("Enabled");
+            assertThat(query.getAttributeCollectionPlan(objectName), not(sameInstance(plan)));
+        } finally {
+            query.stop();
+            mbeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    @Test
+    public void testAttributeCollectionPlanOfNonPatternQueryIsCachedWithoutRegistrationListener() throws Exception {
+        ObjectName objectName = new ObjectName("test:type=AttributeCollectionPlan,name=nonPattern");
+        final AtomicInteger mbeanInfoCount = new AtomicInteger();
+        mbeanServer.registerMBean(new StandardMBean(new MockMemoryPool("Non Pattern", 1024L), MockMemoryPoolMBean.class) {
+            @Override
+            public MBeanInfo getMBeanInfo() {
+                mbeanInfoCount.incrementAndGet();
+                return super.getMBeanInfo();
+            }
+        }, objectName);
+        try {
+            EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+            Query query = new Query("test:type=AttributeCollectionPlan,name=nonPattern").addAttribute("CollectionUsageThreshold");
+            embeddedJmxTrans.addQuery(query);
+            mbeanInfoCount.set(0);
+
+            for (int i = 0; i < 3; i++) {
+                query.collectMetrics();
+            }
+            assertThat(query.getResults().size(), is(3));
+            assertThat(mbeanInfoCount.get(), is(1));
+        } finally {
+            mbeanServer.unregisterMBean(objectName);
+        }
+    }
+
+    public interface AttributeCollectionPlanTest {
+        boolean isEnabled();
+
+        long getCount();
+
+        long[] getValues();
+
+        void setWriteOnly(long writeOnly);
+
+        Object getAnything();
+    }
+
+    @Test
+    public void testParallelCollection() throws Exception {
+        int mbeanCount = 20;
+        for (int i = 0; i < mbeanCount; i++) {
+            mbeanServer.registerMBean(new MockMemoryPool("pool-" + i, i), new ObjectName("test-parallel:type=MemoryPool,name=pool-" + i));
+        }
+        final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+        try {
+            EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans() {
+                @Override
+                public ForkJoinPool getCollectForkJoinPool() {
+                    return forkJoinPool;
+                }
+            };
+            Query query = new Query("test-parallel:type=MemoryPool,*").addAttribute("Name");
+            query.setCollectParallelism(4);
+            embeddedJmxTrans.addQuery(query);
+
+            query.collectMetrics();
+            assertThat(query.getResults().size(), is(mbeanCount));
+            assertThat(query.getCollectedMetricsCount(), is(mbeanCount));
+            assertThat(query.getCollectionCount(), is(1));
+
+            Set<Object> values = new HashSet<Object>();
+            for (QueryResult result : query.getResults()) {
+                values.add(result.getValue());
+            }
+            assertThat(values.size(), is(mbeanCount));
+        } finally {
+            forkJoinPool.shutdownNow();
+            for (ObjectName objectName : mbeanServer.queryNames(new ObjectName("test-parallel:*"), null)) {
+                mbeanServer.unregisterMBean(objectName);
+            }
+        }
+    }
+
+    @Test
+    public void testCollectWithRoundTimestamp() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+
+        Query query = new Query("test:type=MemoryPool,*").addAttribute("CollectionUsageThreshold");
+        embeddedJmxTrans.addQuery(query);
+        long roundEpochInMillis = 1400000000000L;
+        query.collectMetrics(roundEpochInMillis);
+        assertThat(query.getResults().size(), is(2));
+
+        for (QueryResult result : query.getResults()) {
+            assertThat(result.getEpochInMillis(), is(roundEpochInMillis));
+        }
+    }
+
     @Test
     public void testExportResults() {
         EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
@@ -238,4 +478,105 @@ public class QueryTest {
         assertThat(query.getOutputWriters().size(), is(0));
         assertThat(query.getEffectiveOutputWriters().size(), is(0));
     }
+
+    @Test
+    public void testGlobalResultsQueueKeepsConfiguredQueuesAndIsRemovedAtStop() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        embeddedJmxTrans.setGlobalResultsQueueCapacity(100);
+
+        Query localQueueQuery = new Query("test:type=MemoryPool,name=PS Eden Space").addAttribute("CollectionUsageThreshold");
+        BlockingQueue<QueryResult> localQueue = localQueueQuery.getResults();
+        embeddedJmxTrans.addQuery(localQueueQuery);
+        Query configuredQueueQuery = new Query("test:type=MemoryPool,name=PS Perm Gen").addAttribute("CollectionUsageThreshold");
+        BlockingQueue<QueryResult> configuredQueue = new DiscardingBlockingQueue<QueryResult>(10);
+        configuredQueueQuery.setResultsQueue(configuredQueue);
+        embeddedJmxTrans.addQuery(configuredQueueQuery);
+
+        embeddedJmxTrans.start();
+        try {
+            assertThat(localQueueQuery.getResults(), not(sameInstance(localQueue)));
+            assertThat(configuredQueueQuery.getResults(), sameInstance(configuredQueue));
+        } finally {
+            embeddedJmxTrans.stop();
+        }
+        assertThat(localQueueQuery.getResults(), sameInstance(localQueue));
+        assertThat(configuredQueueQuery.getResults(), sameInstance(configuredQueue));
+        assertThat(localQueueQuery.isResultsQueueConfigured(), is(false));
+    }
+
+    @Test
+    public void testStopWithAFullBlockResultsQueue() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        // 8 results per collection in a queue of 1
+        Query query = new Query("test:type=MemoryPool,name=*").addAttribute("Usage");
+        query.setResultsQueue(new OverflowPolicyBlockingQueue<QueryResult>(1, 0, null, OverflowPolicyBlockingQueue.OverflowPolicy.BLOCK, 500));
+        embeddedJmxTrans.addQuery(query);
+
+        long nanosBefore = System.nanoTime();
+        embeddedJmxTrans.start();
+        // the first collection runs at start and the last one at stop, each one waits for the block timeout once at most
+        embeddedJmxTrans.stop();
+        long durationInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanosBefore);
+        assertTrue("stop took " + durationInMillis + "ms", durationInMillis < 2500);
+        assertThat(embeddedJmxTrans.getState(), is(EmbeddedJmxTrans.State.STOPPED.toString()));
+    }
+
+    @Test
+    public void testOutputWriterMBeansOfInstancesSharingAnMBeanServer() throws Exception {
+        MBeanServer sharedMBeanServer = MBeanServerFactory.newMBeanServer();
+        EmbeddedJmxTrans embeddedJmxTrans1 = new EmbeddedJmxTrans(sharedMBeanServer);
+        EmbeddedJmxTrans embeddedJmxTrans2 = new EmbeddedJmxTrans(sharedMBeanServer);
+
+        ObjectName objectName1 = embeddedJmxTrans1.registerOutputWriter(new NoOpWriter(), "0");
+        ObjectName objectName2 = embeddedJmxTrans2.registerOutputWriter(new NoOpWriter(), "0");
+        assertThat(objectName1, notNullValue());
+        assertThat(objectName2, notNullValue());
+        assertThat(objectName1, not(objectName2));
+        assertTrue(sharedMBeanServer.isRegistered(objectName1));
+        assertTrue(sharedMBeanServer.isRegistered(objectName2));
+    }
+
+    @Test
+    public void testQueryIntervalOfDetachedQuery() {
+        Query query = new Query("test:type=GarbageCollector,name=PS Scavenge");
+        assertThat(query.getQueryIntervalInSeconds(), is(EmbeddedJmxTrans.DEFAULT_QUERY_INTERVAL_IN_SECONDS));
+
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        embeddedJmxTrans.setQueryIntervalInSeconds(10);
+        embeddedJmxTrans.addQuery(query);
+        assertThat(query.getQueryIntervalInSeconds(), is(10));
+
+        query.setQueryIntervalInSeconds(20);
+        assertThat(query.getQueryIntervalInSeconds(), is(20));
+    }
+
+    @Test
+    public void testEffectiveOutputWritersRoutingIsCachedAndInvalidated() {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        Query query = new Query("test:type=MemoryPool,*");
+        embeddedJmxTrans.addQuery(query);
+
+        OutputWriter globalWriter = new NoOpWriter();
+        embeddedJmxTrans.getOutputWriters().add(globalWriter);
+        List<OutputWriter> routing = query.getEffectiveOutputWriters();
+        assertThat(routing.size(), is(1));
+        assertThat(query.getEffectiveOutputWriters(), sameInstance(routing));
+
+        // toggled
+        globalWriter.setEnabled(false);
+        assertThat(query.getEffectiveOutputWriters().size(), is(0));
+        globalWriter.setEnabled(true);
+        assertThat(query.getEffectiveOutputWriters().size(), is(1));
+
+        // added
+        OutputWriter localWriter = new NoOpWriter();
+        query.getOutputWriters().add(localWriter);
+        assertThat(query.getEffectiveOutputWriters().size(), is(2));
+        assertThat(query.getEffectiveOutputWriterRouting().length, is(2));
+
+        // removed
+        embeddedJmxTrans.getOutputWriters().remove(globalWriter);
+        assertThat(query.getEffectiveOutputWriters().size(), is(1));
+        assertThat(query.getEffectiveOutputWriters().get(0), sameInstance(localWriter));
+    }
 }
@@ -30,6 +30,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.*;
 
 /**
@@ -97,4 +98,45 @@ public class ResultNameStrategyTest {
         String actual = resultNameStrategy.resolveExpression("#canonical_hostname#");
         assertThat(actual, is("server1.mycompany.com"));
     }
+
+    @Test
+    public void testResultNameCache() throws Exception {
+        ResultNameStrategy resultNameStrategy = new ResultNameStrategy();
+        Query query = new Query("java.lang:type=GarbageCollector,name=*");
+        QueryAttribute queryAttribute = new QueryAttribute("CollectionCount", null, null).withResultNameStrategy(resultNameStrategy);
+        query.addAttribute(queryAttribute);
+        ObjectName objectName = new ObjectName("java.lang:type=GarbageCollector,name=PS Scavenge");
+
+        String first = resultNameStrategy.getResultName(query, objectName, queryAttribute);
+        String second = resultNameStrategy.getResultName(query, objectName, queryAttribute);
+
+        assertThat(first, is("java_lang.name__PS_Scavenge.type__GarbageCollector.CollectionCount"));
+        assertThat(second, sameInstance(first));
+        assertThat(resultNameStrategy.getResultNameCacheMissCount(), is(1L));
+        assertThat(resultNameStrategy.getResultNameCacheHitCount(), is(1L));
+        assertThat(query.getResultNameCacheHitCount(), is(1L));
+
+        String composite = resultNameStrategy.getResultName(query, objectName, queryAttribute, "used");
+        assertThat(composite, is("java_lang.name__PS_Scavenge.type__GarbageCollector.CollectionCount.used"));
+        assertThat(resultNameStrategy.getResultNameCacheSize(), is(2));
+
+        resultNameStrategy.registerExpressionEvaluator("hostname", "tomcat1");
+        assertThat(resultNameStrategy.getResultNameCacheSize(), is(0));
+    }
+
+    @Test
+    public void testResultNameCacheEviction() throws Exception {
+        ResultNameStrategy resultNameStrategy = ResultNameStrategy.builder().resultNameCacheMaxSize(2).build();
+        Query query = new Query("java.lang:type=GarbageCollector,name=*");
+        QueryAttribute queryAttribute = new QueryAttribute("CollectionCount", null, null).withResultNameStrategy(resultNameStrategy);
+        query.addAttribute(queryAttribute);
+
+        resultNameStrategy.getResultName(query, new ObjectName("java.lang:type=GarbageCollector,name=gc1"), queryAttribute);
+        resultNameStrategy.getResultName(query, new ObjectName("java.lang:type=GarbageCollector,name=gc2"), queryAttribute);
+        resultNameStrategy.getResultName(query, new ObjectName("java.lang:type=GarbageCollector,name=gc3"), queryAttribute);
+
+        assertThat(resultNameStrategy.getResultNameCacheSize(), is(2));
+        assertThat(resultNameStrategy.getResultNameCacheEvictionCount(), is(1L));
+        assertThat(resultNameStrategy.getResultNameCacheMissCount(), is(3L));
+    }
 }
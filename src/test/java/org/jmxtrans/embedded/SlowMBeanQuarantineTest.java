@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class SlowMBeanQuarantineTest {
+
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    ObjectName slowMBean;
+    ExecutorService executor;
+    volatile long latencyInMillis;
+    volatile boolean ignoreInterrupts;
+
+    @Before
+    public void before() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        slowMBean = new ObjectName("test:type=SlowMBean");
+        mbeanServer.registerMBean(new StandardMBean(new SlowMBean(), SlowMBeanMBean.class) {
+        }, slowMBean);
+    }
+
+    @After
+    public void after() throws Exception {
+        mbeanServer.unregisterMBean(slowMBean);
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testQuarantineAndRelease() throws Exception {
+        SlowMBeanQuarantine quarantine = new SlowMBeanQuarantine(50, 2, 3, executor);
+        String[] attributes = {"Value"};
+
+        latencyInMillis = 0;
+        AttributeList attributeList = quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+        assertThat(attributeList.size(), is(1));
+        assertThat(quarantine.isQuarantined(slowMBean), is(false));
+
+        // the MBean was fast and starts blocking, the call is still abandoned after the timeout
+        latencyInMillis = 500;
+        long nanosBefore = System.nanoTime();
+        try {
+            quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanosBefore) < 500, is(true));
+        assertThat(quarantine.getTimeoutCount(), is(1L));
+        assertThat(quarantine.isQuarantined(slowMBean), is(false));
+        waitForCallCompletion(quarantine);
+
+        assertThat(quarantine.isSkipped(slowMBean), is(false));
+        try {
+            quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertThat(quarantine.isQuarantined(slowMBean), is(true));
+        assertThat(quarantine.getTimeoutCount(), is(2L));
+        assertThat(quarantine.getQuarantinedObjectNames(), is(new String[]{slowMBean.toString()}));
+        waitForCallCompletion(quarantine);
+
+        // polled once every 3 collections
+        assertThat(quarantine.isSkipped(slowMBean), is(true));
+        assertThat(quarantine.isSkipped(slowMBean), is(true));
+        assertThat(quarantine.isSkipped(slowMBean), is(false));
+        assertThat(quarantine.getSkippedCallCount(), is(2L));
+
+        latencyInMillis = 0;
+        quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+        assertThat(quarantine.isQuarantined(slowMBean), is(false));
+        assertThat(quarantine.isSkipped(slowMBean), is(false));
+    }
+
+    @Test
+    public void testSkipWhilePreviousCallIsRunning() throws Exception {
+        SlowMBeanQuarantine quarantine = new SlowMBeanQuarantine(50, 10, 3, executor);
+        String[] attributes = {"Value"};
+
+        latencyInMillis = 500;
+        ignoreInterrupts = true;
+        try {
+            quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        assertThat(quarantine.isCallInFlight(slowMBean), is(true));
+        assertThat(quarantine.isSkipped(slowMBean), is(true));
+        long nanosBefore = System.nanoTime();
+        try {
+            quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+            fail("TimeoutException expected");
+        } catch (TimeoutException e) {
+            // expected, without waiting for the timeout
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanosBefore) < 50, is(true));
+        assertThat(quarantine.getTimeoutCount(), is(1L));
+        assertThat(quarantine.getSkippedCallCount(), is(2L));
+
+        waitForCallCompletion(quarantine);
+        assertThat(quarantine.isSkipped(slowMBean), is(false));
+    }
+
+    @Test
+    public void testSaturatedExecutorFailsFast() throws Exception {
+        ExecutorService singleThreadExecutor = new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        ObjectName otherMBean = new ObjectName("test:type=SlowMBean,name=other");
+        mbeanServer.registerMBean(new StandardMBean(new SlowMBean(), SlowMBeanMBean.class), otherMBean);
+        try {
+            SlowMBeanQuarantine quarantine = new SlowMBeanQuarantine(50, 10, 3, singleThreadExecutor);
+            String[] attributes = {"Value"};
+
+            latencyInMillis = 500;
+            ignoreInterrupts = true;
+            try {
+                quarantine.getAttributes(mbeanServer, slowMBean, attributes);
+                fail("TimeoutException expected");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            try {
+                quarantine.getAttributes(mbeanServer, otherMBean, attributes);
+                fail("TimeoutException expected");
+            } catch (TimeoutException e) {
+                // expected, the only thread is held by the call to slowMBean
+            }
+            assertThat(quarantine.isCallInFlight(otherMBean), is(false));
+            assertThat(quarantine.getTimeoutCount(), is(1L));
+            assertThat(quarantine.getSkippedCallCount(), is(1L));
+        } finally {
+            mbeanServer.unregisterMBean(otherMBean);
+            singleThreadExecutor.shutdownNow();
+        }
+    }
+
+    private void waitForCallCompletion(SlowMBeanQuarantine quarantine) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (quarantine.isCallInFlight(slowMBean) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(quarantine.isCallInFlight(slowMBean), is(false));
+    }
+
+    @Test(expected = InstanceNotFoundException.class)
+    public void testCallExceptionIsUnwrapped() throws Exception {
+        SlowMBeanQuarantine quarantine = new SlowMBeanQuarantine(1000, 2, 3, executor);
+        quarantine.getAttributes(mbeanServer, new ObjectName("test:type=DoesNotExist"), new String[]{"Value"});
+    }
+
+    public interface SlowMBeanMBean {
+        int getValue();
+    }
+
+    public class SlowMBean implements SlowMBeanMBean {
+        @Override
+        public int getValue() {
+            long deadline = System.currentTimeMillis() + latencyInMillis;
+            for (long remaining = latencyInMillis; remaining > 0; remaining = deadline - System.currentTimeMillis()) {
+                try {
+                    Thread.sleep(remaining);
+                } catch (InterruptedException e) {
+                    if (!ignoreInterrupts) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class WindowedAggregatorTest {
+
+    private static Map<String, QueryResult> byName(Collection<QueryResult> results) {
+        Map<String, QueryResult> resultsByName = new HashMap<String, QueryResult>();
+        for (QueryResult result : results) {
+            resultsByName.put(result.getName(), result);
+        }
+        return resultsByName;
+    }
+
+    @Test
+    public void testAggregatesAreEmittedAtTheEndOfTheWindow() {
+        WindowedAggregator aggregator = new WindowedAggregator(30000, EnumSet.allOf(WindowedAggregator.Aggregate.class));
+        Queue<QueryResult> results = new ArrayDeque<QueryResult>();
+
+        for (int i = 0; i < 30; i++) {
+            assertThat(aggregator.add(new QueryResult("heap", "gauge", (long) (10 + i % 5), 30000 + i * 1000), results, null), is(true));
+        }
+        assertThat(aggregator.flush(59000, results, null), is(0));
+        assertThat(results.isEmpty(), is(true));
+
+        assertThat(aggregator.flush(60000, results, null), is(6));
+        Map<String, QueryResult> resultsByName = byName(results);
+        assertThat(resultsByName.get("heap.min").getDoubleValue(), is(10.0));
+        assertThat(resultsByName.get("heap.max").getDoubleValue(), is(14.0));
+        assertThat(resultsByName.get("heap.avg").getDoubleValue(), is(12.0));
+        assertThat(resultsByName.get("heap.last").getDoubleValue(), is(14.0));
+        assertThat(resultsByName.get("heap.sum").getDoubleValue(), is(360.0));
+        assertThat(resultsByName.get("heap.count").getLongValue(), is(30L));
+        assertThat(resultsByName.get("heap.avg").getEpochInMillis(), is(30000L));
+        assertThat(resultsByName.get("heap.avg").getType(), is("gauge"));
+
+        // nothing left to flush
+        results.clear();
+        assertThat(aggregator.flush(90000, results, null), is(0));
+    }
+
+    @Test
+    public void testSampleOfNextWindowEmitsThePreviousOne() {
+        WindowedAggregator aggregator = new WindowedAggregator(10000, Arrays.asList(WindowedAggregator.Aggregate.MAX));
+        Queue<QueryResult> results = new ArrayDeque<QueryResult>();
+
+        aggregator.add(new QueryResult("threads", null, 3L, 1000), results, null);
+        aggregator.add(new QueryResult("threads", null, 5L, 9000), results, null);
+        aggregator.add(new QueryResult("threads", null, 4L, 10000), results, null);
+        assertThat(results.size(), is(1));
+        QueryResult max = results.poll();
+        assertThat(max.getName(), is("threads.max"));
+        assertThat(max.getDoubleValue(), is(5.0));
+        assertThat(max.getEpochInMillis(), is(0L));
+    }
+
+    @Test
+    public void testNonNumericSamplesAreNotAggregated() {
+        WindowedAggregator aggregator = new WindowedAggregator(10000, Arrays.asList(WindowedAggregator.Aggregate.LAST));
+        Queue<QueryResult> results = new ArrayDeque<QueryResult>();
+        assertThat(aggregator.add(new QueryResult("state", null, "RUNNING", 1000), results, null), is(false));
+        assertThat(aggregator.size(), is(0));
+    }
+
+    @Test
+    public void testCollectedResultsAreAggregated() throws Exception {
+        EmbeddedJmxTrans embeddedJmxTrans = new EmbeddedJmxTrans();
+        Query query = new Query("java.lang:type=Threading").addAttribute("ThreadCount");
+        query.setWindowedAggregator(new WindowedAggregator(10000, Arrays.asList(WindowedAggregator.Aggregate.AVG, WindowedAggregator.Aggregate.COUNT)));
+        embeddedJmxTrans.addQuery(query);
+
+        for (int i = 0; i < 10; i++) {
+            query.collectMetrics(100000 + i * 1000);
+        }
+        assertThat(query.getResults().isEmpty(), is(true));
+
+        query.collectMetrics(110000);
+        Map<String, QueryResult> resultsByName = byName(query.getResults());
+        assertThat(resultsByName.size(), is(2));
+        assertThat(resultsByName.get("java_lang.type__Threading.ThreadCount.count").getLongValue(), is(10L));
+        assertThat(query.getAggregationWindowInSeconds(), is(10));
+    }
+}
@@ -29,7 +29,10 @@ import org.jmxtrans.embedded.Query;
 import org.jmxtrans.embedded.QueryAttribute;
 import org.jmxtrans.embedded.QueryResult;
 import org.jmxtrans.embedded.TestUtils;
+import org.jmxtrans.embedded.WindowedAggregator;
 import org.jmxtrans.embedded.output.*;
+import org.jmxtrans.embedded.util.concurrent.DiscardingRingBuffer;
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueue;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -215,6 +218,12 @@ public class ConfigurationTest {
         assertThat(embeddedJmxTrans.getQueryIntervalInSeconds(), is(5));
         assertThat(embeddedJmxTrans.getExportIntervalInSeconds(), is(10));
         assertThat(embeddedJmxTrans.getNumExportThreads(), is(2));
+        assertThat(embeddedJmxTrans.getObjectNameCacheResyncIntervalInSeconds(), is(60));
+        assertThat(embeddedJmxTrans.getExecutionMode(), is("VIRTUAL"));
+        assertThat(embeddedJmxTrans.isAlignCollectionOnWallClock(), is(true));
+        assertThat(embeddedJmxTrans.getMbeanCallTimeoutInMillis(), is(2000L));
+        assertThat(embeddedJmxTrans.getMbeanQuarantineThreshold(), is(5));
+        assertThat(embeddedJmxTrans.isConvertCountersToRates(), is(true));
     }
 
     @Test
@@ -226,4 +235,51 @@ public class ConfigurationTest {
         assertThat(results.remainingCapacity(), is(500));
     }
 
+    @Test
+    public void validateQueryWithIntervalAndPriority() {
+        Query query = queriesByResultName.get("test-with-interval-and-priority");
+        assertThat(query.getQueryIntervalInSeconds(), is(1));
+        assertThat(query.getPriority(), is(Query.Priority.HIGH));
+
+        Query defaultQuery = queriesByResultName.get("test-aliased-query");
+        assertThat(defaultQuery.getQueryIntervalInSeconds(), is(embeddedJmxTrans.getQueryIntervalInSeconds()));
+        assertThat(defaultQuery.getPriority(), is(Query.Priority.NORMAL));
+    }
+
+    @Test
+    public void validateQueryWithSuppressUnchangedValues() {
+        Query query = queriesByResultName.get("test-with-suppress-unchanged-values");
+        assertThat(query.getChangeSuppressionFilter().getHeartbeatIntervalInMillis(), is(120000L));
+
+        Query defaultQuery = queriesByResultName.get("test-aliased-query");
+        assertThat(defaultQuery.getChangeSuppressionFilter(), nullValue());
+    }
+
+    @Test
+    public void validateQueryWithAggregation() {
+        Query query = queriesByResultName.get("test-with-aggregation");
+        assertThat(query.getWindowedAggregator().getWindowInMillis(), is(30000L));
+        assertThat(query.getWindowedAggregator().getAggregates(),
+                is(new WindowedAggregator.Aggregate[]{WindowedAggregator.Aggregate.MAX, WindowedAggregator.Aggregate.AVG}));
+    }
+
+    @Test
+    public void validateQueryWithRingBuffer() throws MalformedObjectNameException {
+        Query query = queriesByResultName.get("test-with-ring-buffer.%name%");
+        BlockingQueue<QueryResult> results = query.getResults();
+        assertThat(results, instanceOf(DiscardingRingBuffer.class));
+        assertThat(results.remainingCapacity(), is(300));
+    }
+
+    @Test
+    public void validateQueryWithOverflowPolicy() throws MalformedObjectNameException {
+        Query query = queriesByResultName.get("test-with-overflow-policy.%name%");
+        BlockingQueue<QueryResult> results = query.getResults();
+        assertThat(results, instanceOf(OverflowPolicyBlockingQueue.class));
+        OverflowPolicyBlockingQueue<QueryResult> queue = (OverflowPolicyBlockingQueue<QueryResult>) results;
+        assertThat(queue.getCapacity(), is(400));
+        assertThat(queue.getCapacityInBytes(), is(65536L));
+        assertThat(query.getResultsQueueOverflowPolicy(), is("DROP_NEWEST"));
+    }
+
 }
@@ -3,8 +3,18 @@ package org.jmxtrans.embedded.output;
 import org.jmxtrans.embedded.QueryResult;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class AbstractOutputWriterTest {
 
@@ -33,4 +43,108 @@ public class AbstractOutputWriterTest {
         assertEquals("org.jmxtrans.embedded.output.AbstractOutputWriterTest$2{enabled=true, settings={}}", toStringValue);
     }
 
+    @Test
+    public void test_write_updates_statistics() {
+        FailingOutputWriter outputWriter = new FailingOutputWriter();
+        List<QueryResult> results = Arrays.asList(
+                new QueryResult("foo", 1, System.currentTimeMillis()),
+                new QueryResult("bar", 2, System.currentTimeMillis()));
+
+        AbstractOutputWriter.write(outputWriter, results);
+        assertEquals(2, outputWriter.getWrittenResultsCount());
+        assertEquals(1, outputWriter.getWriteCount());
+        assertEquals(10, outputWriter.getWrittenBytesCount());
+        assertEquals(0, outputWriter.getWriteFailureCount());
+        assertNull(outputWriter.getLastWriteFailure());
+        assertEquals(1L, outputWriter.getWriteDurationPercentiles().get("count"));
+
+        outputWriter.failure = new IllegalStateException("boom");
+        try {
+            AbstractOutputWriter.write(outputWriter, results);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertEquals(2, outputWriter.getWriteCount());
+        assertEquals(2, outputWriter.getWrittenResultsCount());
+        assertEquals(2, outputWriter.getFailedResultsCount());
+        assertEquals(1, outputWriter.getWriteFailureCount());
+        assertEquals("java.lang.IllegalStateException: boom", outputWriter.getLastWriteFailure());
+        assertTrue(outputWriter.getLastWriteFailureTimeInMillis() > 0);
+        assertEquals(2L, outputWriter.getRecentWriteDurationPercentiles().get("count"));
+        assertEquals(0L, outputWriter.getRecentWriteDurationPercentiles().get("count"));
+
+        // failure logged and swallowed by the writer
+        outputWriter.failure = null;
+        outputWriter.swallowedFailure = "connection refused";
+        AbstractOutputWriter.write(outputWriter, results);
+        assertEquals(2, outputWriter.getWrittenResultsCount());
+        assertEquals(4, outputWriter.getFailedResultsCount());
+        assertEquals(2, outputWriter.getWriteFailureCount());
+    }
+
+    @Test
+    public void test_swallowed_failure_is_attributed_to_the_failed_concurrent_write() throws Exception {
+        final CountDownLatch failureReported = new CountDownLatch(1);
+        final CountDownLatch successfulWriteDone = new CountDownLatch(1);
+        final AbstractOutputWriter outputWriter = new AbstractOutputWriter() {
+            @Override
+            public void write(Iterable<QueryResult> results) {
+                try {
+                    if (results.iterator().next().getName().equals("bad")) {
+                        incrementWriteFailureCount("connection refused");
+                        failureReported.countDown();
+                        successfulWriteDone.await(10, TimeUnit.SECONDS);
+                    } else {
+                        failureReported.await(10, TimeUnit.SECONDS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Thread failingWrite = new Thread() {
+            @Override
+            public void run() {
+                AbstractOutputWriter.write(outputWriter, Arrays.asList(new QueryResult("bad", 1, System.currentTimeMillis())));
+            }
+        };
+        failingWrite.start();
+        // completes while the failing write is in progress, after its failure has been reported
+        AbstractOutputWriter.write(outputWriter, Arrays.asList(
+                new QueryResult("foo", 1, System.currentTimeMillis()),
+                new QueryResult("bar", 2, System.currentTimeMillis())));
+        successfulWriteDone.countDown();
+        failingWrite.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertEquals(2, outputWriter.getWrittenResultsCount());
+        assertEquals(1, outputWriter.getFailedResultsCount());
+        assertEquals(1, outputWriter.getWriteFailureCount());
+    }
+
+    @Test
+    public void test_statistics_are_exposed_as_standard_mbean() throws Exception {
+        MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+        ObjectName objectName = new ObjectName("org.jmxtrans.embedded:type=OutputWriter,name=FailingOutputWriter");
+        mbeanServer.registerMBean(new FailingOutputWriter(), objectName);
+        assertEquals(0L, mbeanServer.getAttribute(objectName, "WriteFailureCount"));
+        assertEquals(true, mbeanServer.getAttribute(objectName, "Enabled"));
+    }
+
+    static class FailingOutputWriter extends AbstractOutputWriter {
+        RuntimeException failure;
+        String swallowedFailure;
+
+        @Override
+        public void write(Iterable<QueryResult> results) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (swallowedFailure != null) {
+                incrementWriteFailureCount(swallowedFailure);
+                return;
+            }
+            incrementWrittenBytesCount(10);
+        }
+    }
 }
@@ -30,6 +30,9 @@ import java.io.ByteArrayOutputStream;
 import java.util.Arrays;
 import java.util.List;
 
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
 /**
  * @author <a href="mailto:cleclerc@xebia.fr">Cyrille Le Clerc</a>
  */
@@ -64,4 +67,18 @@ public class CopperEggWriterTest {
         System.out.println(new String(baos.toByteArray()));
 
     }
+
+    @Test
+    public void testCUESerializeFloat() throws Exception {
+        float processCpuTimeInSeconds = 1234567890f / (1000.0f * 1000.0f * 1000.0f);
+        QueryResult result = new QueryResult("jvm.os.ProcessCpuTime", "counter", processCpuTimeInSeconds, System.currentTimeMillis());
+        assertThat(result.getValue(), instanceOf(Float.class));
+
+        CopperEggWriter writer = new CopperEggWriter();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.cue_serialize(Arrays.asList(result), baos);
+
+        String json = new String(baos.toByteArray(), "UTF-8");
+        assertThat(json, containsString("\"jvm.os.ProcessCpuTime\":" + processCpuTimeInSeconds + "}"));
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.ChangeSuppressionFilter;
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class ExportLaneTest {
+
+    ExecutorService executor;
+
+    @Before
+    public void before() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void after() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSlowWriterDoesNotBlockOffer() throws Exception {
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final CountDownLatch releaseWriter = new CountDownLatch(1);
+        final List<QueryResult> written = Collections.synchronizedList(new ArrayList<QueryResult>());
+        AbstractOutputWriter slowWriter = new AbstractOutputWriter() {
+            @Override
+            public void write(Iterable<QueryResult> results) {
+                writeStarted.countDown();
+                try {
+                    releaseWriter.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (QueryResult result : results) {
+                    written.add(result);
+                }
+            }
+        };
+        ExportLane exportLane = new ExportLane(slowWriter, 3, 10);
+        exportLane.start(executor);
+
+        exportLane.offer(Arrays.asList(newResult(0)));
+        assertThat(writeStarted.await(10, TimeUnit.SECONDS), is(true));
+
+        // the writer is blocked, offer must return immediately and discard the oldest results
+        long nanosBefore = System.nanoTime();
+        exportLane.offer(Arrays.asList(newResult(1), newResult(2), newResult(3), newResult(4), newResult(5)));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanosBefore) < 1000, is(true));
+        assertThat(exportLane.getQueueSize(), is(3));
+        assertThat(exportLane.getDiscardedResultsCount(), is(2));
+
+        releaseWriter.countDown();
+        exportLane.stop();
+
+        assertThat(written.size(), is(4));
+        assertThat(written.get(0).getName(), is("metric-0"));
+        assertThat(written.get(1).getName(), is("metric-3"));
+        assertThat(written.get(3).getName(), is("metric-5"));
+        assertThat(slowWriter.getWrittenResultsCount(), is(4L));
+        assertThat(exportLane.getQueueSize(), is(0));
+    }
+
+    @Test
+    public void testStopWaitsForTheWriteInProgress() throws Exception {
+        final CountDownLatch writeStarted = new CountDownLatch(1);
+        final AtomicInteger concurrentWrites = new AtomicInteger();
+        final AtomicBoolean overlappingWrites = new AtomicBoolean();
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final List<QueryResult> written = Collections.synchronizedList(new ArrayList<QueryResult>());
+        OutputWriter slowWriter = new AbstractOutputWriter() {
+            @Override
+            public void write(Iterable<QueryResult> results) {
+                if (concurrentWrites.incrementAndGet() > 1) {
+                    overlappingWrites.set(true);
+                }
+                writeStarted.countDown();
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                for (QueryResult result : results) {
+                    written.add(result);
+                }
+                concurrentWrites.decrementAndGet();
+            }
+        };
+        ExportLane exportLane = new ExportLane(slowWriter, 10, 1);
+        exportLane.start(executor);
+
+        exportLane.offer(Arrays.asList(newResult(0)));
+        assertThat(writeStarted.await(10, TimeUnit.SECONDS), is(true));
+        exportLane.offer(Arrays.asList(newResult(1), newResult(2)));
+        exportLane.stop();
+
+        assertThat(interrupted.get(), is(false));
+        assertThat(overlappingWrites.get(), is(false));
+        assertThat(written.size(), is(3));
+        assertThat(written.get(0).getName(), is("metric-0"));
+        assertThat(exportLane.getQueueSize(), is(0));
+    }
+
+    @Test
+    public void testWriterFailureIsCounted() throws Exception {
+        AbstractOutputWriter failingWriter = new AbstractOutputWriter() {
+            @Override
+            public void write(Iterable<QueryResult> results) {
+                throw new IllegalStateException("test");
+            }
+        };
+        ExportLane exportLane = new ExportLane(failingWriter, 10, 10);
+        exportLane.offer(Arrays.asList(newResult(0), newResult(1)));
+        exportLane.stop();
+
+        assertThat(failingWriter.getWriteCount(), is(1L));
+        assertThat(failingWriter.getWriteFailureCount(), is(1L));
+        assertThat(failingWriter.getWrittenResultsCount(), is(0L));
+        assertThat(failingWriter.getFailedResultsCount(), is(2L));
+    }
+
+    @Test
+    public void testOnlyWrittenValuesAreSuppressed() throws Exception {
+        final AtomicBoolean failing = new AtomicBoolean(true);
+        AbstractOutputWriter outputWriter = new AbstractOutputWriter() {
+            @Override
+            public void write(Iterable<QueryResult> results) {
+                if (failing.get()) {
+                    incrementWriteFailureCount("connection refused");
+                }
+            }
+        };
+        ChangeSuppressionFilter changeSuppressionFilter = new ChangeSuppressionFilter(60000);
+        ExportLane exportLane = new ExportLane(outputWriter, 10, 10, changeSuppressionFilter);
+        List<QueryResult> results = Arrays.asList(new QueryResult("metric", 1, 0));
+        exportLane.offer(changeSuppressionFilter.filterUnchanged(results));
+        exportLane.stop();
+        assertThat(changeSuppressionFilter.filterUnchanged(results).size(), is(1));
+
+        failing.set(false);
+        exportLane.offer(changeSuppressionFilter.filterUnchanged(results));
+        exportLane.stop();
+        assertThat(changeSuppressionFilter.filterUnchanged(results).isEmpty(), is(true));
+    }
+
+    private static QueryResult newResult(int i) {
+        return new QueryResult("metric-" + i, i, System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Expected bytes are the ones of the CPython 3 pickler, {@code pickletools.optimize(pickle.dumps(obj, protocol=2))}.
+ */
+public class GraphitePickleEncoderTest {
+
+    @Test
+    public void testSameBytesAsPythonPickler() {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("p.");
+        ByteBuffer message = encoder.encode(Arrays.asList(
+                new QueryResult("a", null, 7L, 1500000000000L),
+                new QueryResult("b", null, 0.5, 1500000000000L)), null);
+
+        // [('p.a', (1500000000, 7)), ('p.b', (1500000000, 0.5))]
+        String pickle = "80025d285803000000702e614a002f68594b0786865803000000702e624a002f6859473fe00000000000008686652e";
+        assertThat(toHex(message), is("0000002f" + pickle));
+    }
+
+    @Test
+    public void testEmptyListLikePythonPickler() {
+        ByteBuffer message = new GraphitePickleEncoder("p.").encode(Collections.<QueryResult>emptyList(), null);
+        assertThat(toHex(message), is("00000004" + "80025d2e"));
+    }
+
+    @Test
+    public void testSingleItemListIsAppendedLikePythonPickler() {
+        ByteBuffer message = new GraphitePickleEncoder("p.").encode(Collections.singletonList(new QueryResult("a", null, 7L, 1500000000000L)), null);
+        // [('p.a', (1500000000, 7))]
+        assertThat(toHex(message), is("00000016" + "80025d5803000000702e614a002f68594b078686612e"));
+    }
+
+    @Test
+    public void testItemsAreAppendedByBatchesLikePythonPickler() throws Exception {
+        // [('p.m-%d' % i, (1500000000, i)) for i in range(count)], length and MD5 of the pickle of CPython
+        int[] counts = {1001, 2000};
+        int[] expectedLengths = {21665, 44642};
+        String[] expectedMd5s = {"dd8bfc51fc2e110e4bdef2acc74f0126", "b7bcc8ff5db1afca19a82979f2c826b7"};
+        for (int c = 0; c < counts.length; c++) {
+            List<QueryResult> results = new ArrayList<QueryResult>();
+            for (int i = 0; i < counts[c]; i++) {
+                results.add(new QueryResult("m-" + i, null, (long) i, 1500000000000L));
+            }
+            ByteBuffer message = new GraphitePickleEncoder("p.").encode(results, null);
+            assertThat(message.getInt(message.position()), is(expectedLengths[c]));
+            message.position(message.position() + GraphitePickleEncoder.HEADER_LENGTH);
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            md5.update(message);
+            assertThat(counts[c] + " items", toHex(ByteBuffer.wrap(md5.digest())), is(expectedMd5s[c]));
+        }
+    }
+
+    @Test
+    public void testPutLong() {
+        long[] values = {7, 255, 256, 65535, 65536, -1, 2147483648L, -2147483649L, Long.MAX_VALUE, Long.MIN_VALUE};
+        String[] expected = {"4b07", "4bff", "4d0001", "4dffff", "4a00000100", "4affffffff", "8a050000008000",
+                "8a05ffffff7fff", "8a08ffffffffffffff7f", "8a080000000000000080"};
+        for (int i = 0; i < values.length; i++) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            GraphitePickleEncoder.putLong(buffer, values[i]);
+            buffer.flip();
+            assertThat("value " + values[i], toHex(buffer), is(expected[i]));
+        }
+    }
+
+    @Test
+    public void testBufferIsReusedOrGrown() {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("");
+        Iterable<QueryResult> results = Collections.singletonList(new QueryResult("a.metric", null, 1L, 1000L));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        assertThat(encoder.encode(results, buffer), sameInstance(buffer));
+
+        ByteBuffer smallBuffer = ByteBuffer.allocate(8);
+        ByteBuffer message = encoder.encode(results, smallBuffer);
+        assertThat(message, not(sameInstance(smallBuffer)));
+        assertThat(message.getInt(message.position()), is(message.remaining() - GraphitePickleEncoder.HEADER_LENGTH));
+        assertThat(toHex(message), is(toHex(encoder.encode(results, buffer))));
+    }
+
+    @Test
+    public void testMessagesAreBoundedByMaxMessageSize() {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("", 200);
+        ByteBuffer buffer = encoder.startMessage(null);
+        int messages = 0;
+        int metricsInMessage = 0;
+        for (int i = 0; i < 100; i++) {
+            QueryResult result = new QueryResult("a.metric-" + i, null, (long) i, 1000L);
+            ByteBuffer newBuffer = encoder.encode(result, buffer, metricsInMessage);
+            if (newBuffer == null) {
+                assertThat(metricsInMessage > 0, is(true));
+                encoder.endMessage(buffer, metricsInMessage);
+                assertThat(buffer.getInt(0), is(buffer.remaining() - GraphitePickleEncoder.HEADER_LENGTH));
+                assertThat(buffer.getInt(0) <= 200, is(true));
+                messages++;
+                metricsInMessage = 0;
+                buffer = encoder.startMessage(buffer);
+                newBuffer = encoder.encode(result, buffer, 0);
+                assertThat(newBuffer, notNullValue());
+            }
+            buffer = newBuffer;
+            metricsInMessage++;
+            assertThat(buffer.capacity() <= GraphitePickleEncoder.HEADER_LENGTH + 200, is(true));
+        }
+        encoder.endMessage(buffer, metricsInMessage);
+        messages++;
+        // metrics of 22 bytes, 7 or 8 per message
+        assertThat(messages >= 100 / 8, is(true));
+        assertThat(messages <= 100 / 7 + 1, is(true));
+    }
+
+    @Test
+    public void testResultLargerThanMaxMessageSize() {
+        GraphitePickleEncoder encoder = new GraphitePickleEncoder("", 32);
+        ByteBuffer buffer = encoder.startMessage(null);
+        int position = buffer.position();
+        assertThat(encoder.encode(new QueryResult("a.metric.with.a.name.longer.than.the.message", null, 1L, 1000L), buffer, 0), nullValue());
+        assertThat(buffer.position(), is(position));
+    }
+
+    private static String toHex(ByteBuffer buffer) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            hex.append(String.format("%02x", buffer.get(i)));
+        }
+        return hex.toString();
+    }
+}
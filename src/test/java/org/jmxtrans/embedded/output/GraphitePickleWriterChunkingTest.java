@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * {@link GraphitePickleWriter} splitting the results in several pickle messages received by a local server.
+ */
+public class GraphitePickleWriterChunkingTest {
+
+    private static final String METRIC_NAME_PREFIX = "graphite.pickle.writer.chunking.test.metric-";
+
+    @Test
+    public void testMessagesAreBoundedByMetricCount() throws Exception {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("graphite.maxMetricsPerMessage", 100);
+        List<byte[]> messages = write(settings, 250);
+
+        assertThat(messages.size(), is(3));
+        assertThat(countMetrics(messages.get(0)), is(100));
+        assertThat(countMetrics(messages.get(1)), is(100));
+        assertThat(countMetrics(messages.get(2)), is(50));
+    }
+
+    @Test
+    public void testMessagesAreBoundedBySize() throws Exception {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("graphite.maxMessageSizeInBytes", 1000);
+        List<byte[]> messages = write(settings, 250);
+
+        assertThat(messages.size() > 1, is(true));
+        int metrics = 0;
+        for (byte[] message : messages) {
+            assertThat(message.length <= 1000, is(true));
+            metrics += countMetrics(message);
+        }
+        assertThat(metrics, is(250));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonPositiveMaxMetricsPerMessageIsRejected() {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put(AbstractOutputWriter.SETTING_HOST, "127.0.0.1");
+        settings.put("graphite.maxMetricsPerMessage", 0);
+        GraphitePickleWriter graphitePickleWriter = new GraphitePickleWriter();
+        graphitePickleWriter.setSettings(settings);
+        graphitePickleWriter.start();
+    }
+
+    /**
+     * @return the pickles of the messages received by the server
+     */
+    private List<byte[]> write(Map<String, Object> settings, int resultsCount) throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        final List<byte[]> messages = Collections.synchronizedList(new ArrayList<byte[]>());
+        final List<Thread> readers = Collections.synchronizedList(new ArrayList<Thread>());
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        Thread reader = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                                    while (true) {
+                                        byte[] message = new byte[in.readInt()];
+                                        in.readFully(message);
+                                        messages.add(message);
+                                    }
+                                } catch (EOFException e) {
+                                    // connection closed by the writer
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                        };
+                        readers.add(reader);
+                        reader.start();
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            }
+        };
+        acceptor.start();
+        try {
+            settings.put(AbstractOutputWriter.SETTING_HOST, "127.0.0.1");
+            settings.put(AbstractOutputWriter.SETTING_PORT, serverSocket.getLocalPort());
+            settings.put(AbstractOutputWriter.SETTING_NAME_PREFIX, "test.");
+            GraphitePickleWriter graphitePickleWriter = new GraphitePickleWriter();
+            graphitePickleWriter.setSettings(settings);
+            graphitePickleWriter.start();
+
+            List<QueryResult> results = new ArrayList<QueryResult>();
+            for (int i = 0; i < resultsCount; i++) {
+                results.add(new QueryResult(METRIC_NAME_PREFIX + i, null, (long) i, 1500000000000L));
+            }
+            AbstractOutputWriter.write(graphitePickleWriter, results);
+            graphitePickleWriter.stop();
+            // a connection not yet accepted would be reset by closing the server socket
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (countMetrics(messages) < resultsCount && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            serverSocket.close();
+            acceptor.join(TimeUnit.SECONDS.toMillis(30));
+            for (Thread reader : new ArrayList<Thread>(readers)) {
+                reader.join(TimeUnit.SECONDS.toMillis(30));
+            }
+            assertThat(graphitePickleWriter.getWriteFailureCount(), is(0L));
+            return messages;
+        } finally {
+            serverSocket.close();
+        }
+    }
+
+    private int countMetrics(List<byte[]> messages) throws Exception {
+        int count = 0;
+        for (byte[] message : new ArrayList<byte[]>(messages)) {
+            count += countMetrics(message);
+        }
+        return count;
+    }
+
+    /**
+     * Count the metric names of the test in the given pickle.
+     */
+    private int countMetrics(byte[] pickle) throws Exception {
+        String text = new String(pickle, "ISO-8859-1");
+        String metricPathPrefix = "test." + METRIC_NAME_PREFIX;
+        int count = 0;
+        for (int index = text.indexOf(metricPathPrefix); index >= 0; index = text.indexOf(metricPathPrefix, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class GraphitePlaintextEncoderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testSameOutputAsStringEncoding() {
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("servers.localhost.");
+        long now = System.currentTimeMillis();
+        for (QueryResult result : Arrays.asList(
+                new QueryResult("long", null, 0L, now),
+                new QueryResult("long", null, 7L, now),
+                new QueryResult("long", null, -1234567890123L, now),
+                new QueryResult("long", null, Long.MAX_VALUE, now),
+                new QueryResult("long", null, Long.MIN_VALUE, now),
+                new QueryResult("double", null, 0.1, now),
+                new QueryResult("double", null, -2.2250738585072014E-308, now),
+                new QueryResult("double", null, Double.NaN, now),
+                new QueryResult("integer", 42, now),
+                new QueryResult("date", new Date(now), now),
+                new QueryResult("string", "héllo", now),
+                new QueryResult("nüll", null, now))) {
+            StringBuilder expected = new StringBuilder("servers.localhost.").append(result.getName()).append(' ');
+            result.appendValue(expected).append(' ').append(result.getEpoch(TimeUnit.SECONDS)).append('\n');
+
+            ByteBuffer buffer = ByteBuffer.allocate(256);
+            assertTrue(encoder.encode(result, buffer));
+            buffer.flip();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            assertThat(new String(bytes, UTF_8), is(expected.toString()));
+        }
+    }
+
+    @Test
+    public void testNotEnoughRoom() {
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("");
+        QueryResult result = new QueryResult("a.long.metric.name", null, 1L, 1000L);
+        int lineLength = "a.long.metric.name 1 1\n".length();
+
+        ByteBuffer buffer = ByteBuffer.allocate(lineLength);
+        buffer.put((byte) 'x');
+        assertFalse(encoder.encode(result, buffer));
+        assertThat(buffer.position(), is(1));
+
+        buffer.clear();
+        assertTrue(encoder.encode(result, buffer));
+        assertThat(buffer.remaining(), is(0));
+    }
+
+    @Test
+    public void testNamesAreCachedAcrossFlushes() {
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("servers.localhost.");
+        int namesCount = 20000; // more than the 16K names that used to flush the whole cache
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        for (int flush = 0; flush < 2; flush++) {
+            for (int i = 0; i < namesCount; i++) {
+                buffer.clear();
+                assertTrue(encoder.encode(new QueryResult("metric-" + i, null, (long) i, 1000L), buffer));
+            }
+        }
+        assertThat(encoder.getEncodedNames().getMissCount(), is((long) namesCount));
+        assertThat(encoder.getEncodedNames().getHitCount(), is((long) namesCount));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedNamesAreEvicted() {
+        GraphitePlaintextEncoder encoder = new GraphitePlaintextEncoder("", 1);
+        ByteBuffer buffer = ByteBuffer.allocate(128);
+        for (String name : Arrays.asList("hot", "hot", "cold", "hot")) {
+            buffer.clear();
+            assertTrue(encoder.encode(new QueryResult(name, null, 1L, 1000L), buffer));
+        }
+        assertThat(encoder.getEncodedNames().size(), is(1));
+        assertThat(encoder.getEncodedNames().getHitCount(), is(1L));
+        assertThat(encoder.getEncodedNames().getMissCount(), is(3L));
+    }
+
+    @Test
+    public void testPutLong() {
+        for (long value : new long[]{0, 9, 10, 99, 100, 999999999999999999L, 1000000000000000000L, Long.MAX_VALUE, -1, -10, Long.MIN_VALUE + 1, Long.MIN_VALUE}) {
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            GraphitePlaintextEncoder.putLong(buffer, value);
+            assertThat(new String(buffer.array(), 0, buffer.position(), UTF_8), is(Long.toString(value)));
+            assertThat(GraphitePlaintextEncoder.longLength(value), is(Long.toString(value).length()));
+        }
+    }
+}
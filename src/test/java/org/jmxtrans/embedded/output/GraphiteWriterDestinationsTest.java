@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.jmxtrans.embedded.util.net.ConsistentHashRing;
+import org.jmxtrans.embedded.util.net.HostAndPort;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * {@link GraphiteWriter} with "destinations" sharding the metrics across local stand-in carbon servers.
+ */
+public class GraphiteWriterDestinationsTest {
+
+    @Test
+    public void testMetricsAreShardedLikeCarbonRelay() throws Exception {
+        CarbonServer a = new CarbonServer();
+        CarbonServer b = new CarbonServer();
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode(a.getHostAndPort(), "a");
+        ring.addNode(b.getHostAndPort(), "b");
+
+        GraphiteWriter graphiteWriter = newGraphiteWriter(a.getDestination("a") + "," + b.getDestination("b"));
+        List<QueryResult> results = newResults(200);
+        AbstractOutputWriter.write(graphiteWriter, results);
+        graphiteWriter.stop();
+        awaitLines(results.size(), a, b);
+        a.stop();
+        b.stop();
+
+        assertThat(a.getLines().size() + b.getLines().size(), is(results.size()));
+        assertThat(a.getLines().isEmpty(), is(false));
+        assertThat(b.getLines().isEmpty(), is(false));
+        for (String line : a.getLines()) {
+            assertThat(line, ring.getNode(line.substring(0, line.indexOf(' '))), is(a.getHostAndPort()));
+        }
+        for (String line : b.getLines()) {
+            assertThat(line, ring.getNode(line.substring(0, line.indexOf(' '))), is(b.getHostAndPort()));
+        }
+        assertThat(graphiteWriter.getWriteFailureCount(), is(0L));
+    }
+
+    @Test
+    public void testMetricsOfAnUnavailableDestinationFailOverToTheNextDestinationOfTheRing() throws Exception {
+        CarbonServer a = new CarbonServer();
+        CarbonServer b = new CarbonServer();
+        CarbonServer down = new CarbonServer();
+        down.stop();
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode(a.getHostAndPort(), "a");
+        ring.addNode(b.getHostAndPort(), "b");
+        ring.addNode(down.getHostAndPort(), "c");
+
+        GraphiteWriter graphiteWriter = newGraphiteWriter(a.getDestination("a") + "," + b.getDestination("b") + "," + down.getDestination("c"));
+        List<QueryResult> results = newResults(200);
+        AbstractOutputWriter.write(graphiteWriter, results);
+        graphiteWriter.stop();
+        awaitLines(results.size(), a, b);
+        a.stop();
+        b.stop();
+
+        assertThat(a.getLines().size() + b.getLines().size(), is(results.size()));
+        int failedOver = 0;
+        for (CarbonServer server : new CarbonServer[]{a, b}) {
+            for (String line : server.getLines()) {
+                List<HostAndPort> nodes = ring.getNodes(line.substring(0, line.indexOf(' ')));
+                if (nodes.get(0).equals(down.getHostAndPort())) {
+                    assertThat(line, nodes.get(1), is(server.getHostAndPort()));
+                    failedOver++;
+                } else {
+                    assertThat(line, nodes.get(0), is(server.getHostAndPort()));
+                }
+            }
+        }
+        assertThat(failedOver > 0, is(true));
+        assertThat(graphiteWriter.getWriteFailureCount(), is(1L));
+    }
+
+    @Test
+    public void testResultsAreDroppedWhenAllTheDestinationsFail() throws Exception {
+        CarbonServer down1 = new CarbonServer();
+        CarbonServer down2 = new CarbonServer();
+        down1.stop();
+        down2.stop();
+
+        GraphiteWriter graphiteWriter = newGraphiteWriter(down1.getDestination("a") + "," + down2.getDestination("b"));
+        AbstractOutputWriter.write(graphiteWriter, newResults(200));
+        graphiteWriter.stop();
+
+        assertThat(graphiteWriter.getWriteFailureCount(), is(2L));
+        assertThat(graphiteWriter.getWrittenBytesCount(), is(0L));
+    }
+
+    /**
+     * Wait for the given number of lines, a connection not yet accepted would be reset by closing the server socket.
+     */
+    private void awaitLines(int count, CarbonServer... servers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (System.currentTimeMillis() < deadline) {
+            int lines = 0;
+            for (CarbonServer server : servers) {
+                lines += server.getLines().size();
+            }
+            if (lines >= count) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private GraphiteWriter newGraphiteWriter(String destinations) {
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("destinations", destinations);
+        settings.put(AbstractOutputWriter.SETTING_NAME_PREFIX, "test.");
+        GraphiteWriter graphiteWriter = new GraphiteWriter();
+        graphiteWriter.setSettings(settings);
+        graphiteWriter.start();
+        return graphiteWriter;
+    }
+
+    private List<QueryResult> newResults(int count) {
+        List<QueryResult> results = new ArrayList<QueryResult>();
+        for (int i = 0; i < count; i++) {
+            results.add(new QueryResult("graphite.writer.destinations.test.metric-" + i, null, (long) i, 1000L * i));
+        }
+        return results;
+    }
+
+    /**
+     * Stand-in carbon server collecting the lines received on all its connections.
+     */
+    private static class CarbonServer {
+        private final ServerSocket serverSocket;
+        private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Thread> readers = Collections.synchronizedList(new ArrayList<Thread>());
+        private final Thread acceptor;
+
+        CarbonServer() throws IOException {
+            serverSocket = new ServerSocket(0);
+            acceptor = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            final Socket socket = serverSocket.accept();
+                            Thread reader = new Thread() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charset.forName("UTF-8")));
+                                        for (String line = in.readLine(); line != null; line = in.readLine()) {
+                                            lines.add(line);
+                                        }
+                                        socket.close();
+                                    } catch (IOException e) {
+                                        throw new RuntimeException(e);
+                                    }
+                                }
+                            };
+                            readers.add(reader);
+                            reader.start();
+                        }
+                    } catch (IOException e) {
+                        // server socket closed
+                    }
+                }
+            };
+            acceptor.start();
+        }
+
+        HostAndPort getHostAndPort() {
+            return new HostAndPort("127.0.0.1", serverSocket.getLocalPort());
+        }
+
+        String getDestination(String instance) {
+            return "127.0.0.1:" + serverSocket.getLocalPort() + ":" + instance;
+        }
+
+        /**
+         * Stop accepting connections and wait for the already accepted ones to be closed by the writer.
+         */
+        void stop() throws Exception {
+            serverSocket.close();
+            acceptor.join(TimeUnit.SECONDS.toMillis(30));
+            for (Thread reader : new ArrayList<Thread>(readers)) {
+                reader.join(TimeUnit.SECONDS.toMillis(30));
+            }
+        }
+
+        List<String> getLines() {
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * {@link GraphiteWriter} over a {@link java.nio.channels.SocketChannel} to a local server.
+ */
+public class GraphiteWriterSocketChannelTest {
+
+    @Test
+    public void testWriteMoreThanTheBuffers() throws Exception {
+        final ServerSocket serverSocket = new ServerSocket(0);
+        // the pool may open more than one connection, read all of them concurrently as the socket buffers can't hold all the data
+        final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        final List<Thread> readers = Collections.synchronizedList(new ArrayList<Thread>());
+        Thread acceptor = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = serverSocket.accept();
+                        Thread reader = new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charset.forName("UTF-8")));
+                                    for (String line = in.readLine(); line != null; line = in.readLine()) {
+                                        lines.add(line);
+                                    }
+                                    socket.close();
+                                } catch (IOException e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                        };
+                        readers.add(reader);
+                        reader.start();
+                    }
+                } catch (IOException e) {
+                    // server socket closed
+                }
+            }
+        };
+        acceptor.start();
+        try {
+            Map<String, Object> settings = new HashMap<String, Object>();
+            settings.put(AbstractOutputWriter.SETTING_HOST, "localhost");
+            settings.put(AbstractOutputWriter.SETTING_PORT, serverSocket.getLocalPort());
+            settings.put(AbstractOutputWriter.SETTING_NAME_PREFIX, "test.");
+            GraphiteWriter graphiteWriter = new GraphiteWriter();
+            graphiteWriter.setSettings(settings);
+            graphiteWriter.start();
+
+            // about 2 MB, more than the 16 buffers of 64 KB of a connection
+            List<QueryResult> results = new ArrayList<QueryResult>();
+            for (int i = 0; i < 50000; i++) {
+                results.add(new QueryResult("graphite.writer.socket.channel.test.metric-" + i, null, (long) i, 1000L * i));
+            }
+            AbstractOutputWriter.write(graphiteWriter, results);
+            graphiteWriter.stop();
+            // a connection not yet accepted would be reset by closing the server socket
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+            while (lines.size() < results.size() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            serverSocket.close();
+            acceptor.join(TimeUnit.SECONDS.toMillis(30));
+            for (Thread reader : new ArrayList<Thread>(readers)) {
+                reader.join(TimeUnit.SECONDS.toMillis(30));
+            }
+
+            assertThat(lines.size(), is(results.size()));
+            long bytes = 0;
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                assertThat(line, is("test.graphite.writer.socket.channel.test.metric-" + i + " " + i + " " + i));
+                bytes += line.length() + 1;
+            }
+            assertThat(graphiteWriter.getWrittenBytesCount(), is(bytes));
+            assertThat(graphiteWriter.getWriteFailureCount(), is(0L));
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
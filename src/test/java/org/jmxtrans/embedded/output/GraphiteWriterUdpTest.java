@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.output;
+
+import org.jmxtrans.embedded.QueryResult;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * {@link GraphiteWriter} in "UDP" mode packing the metrics in datagrams received by a local socket.
+ */
+public class GraphiteWriterUdpTest {
+
+    @Test
+    public void testLinesArePackedInDatagramsOfTheMaxPayloadSize() throws Exception {
+        DatagramSocket serverSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        try {
+            serverSocket.setReceiveBufferSize(1024 * 1024);
+            serverSocket.setSoTimeout(5000);
+            Map<String, Object> settings = new HashMap<String, Object>();
+            settings.put(AbstractOutputWriter.SETTING_HOST, "127.0.0.1");
+            settings.put(AbstractOutputWriter.SETTING_PORT, serverSocket.getLocalPort());
+            settings.put(AbstractOutputWriter.SETTING_PROTOCOL, "UDP");
+            settings.put(AbstractOutputWriter.SETTING_NAME_PREFIX, "test.");
+            settings.put("graphite.maxDatagramPayloadSizeInBytes", 200);
+            GraphiteWriter graphiteWriter = new GraphiteWriter();
+            graphiteWriter.setSettings(settings);
+            graphiteWriter.start();
+
+            List<QueryResult> results = new ArrayList<QueryResult>();
+            for (int i = 0; i < 300; i++) {
+                results.add(new QueryResult("graphite.writer.udp.test.metric-" + i, null, (long) i, 1000L * i));
+            }
+            AbstractOutputWriter.write(graphiteWriter, results);
+            graphiteWriter.stop();
+
+            List<String> lines = new ArrayList<String>();
+            long receivedBytes = 0;
+            int datagrams = 0;
+            byte[] buffer = new byte[64 * 1024];
+            while (lines.size() < results.size()) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                serverSocket.receive(packet);
+                datagrams++;
+                receivedBytes += packet.getLength();
+                assertThat(packet.getLength() <= 200, is(true));
+                String payload = new String(packet.getData(), packet.getOffset(), packet.getLength(), "UTF-8");
+                // datagrams are only cut at line boundaries
+                assertThat(payload, payload.endsWith("\n"), is(true));
+                for (String line : payload.split("\n")) {
+                    lines.add(line);
+                }
+            }
+
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(lines.get(i), is("test.graphite.writer.udp.test.metric-" + i + " " + i + " " + i));
+            }
+            // about 4 lines of ~40 bytes per datagram rather than one datagram per line
+            assertThat(datagrams < results.size() / 3, is(true));
+            assertThat(graphiteWriter.getWrittenBytesCount(), is(receivedBytes));
+            assertThat(graphiteWriter.getWriteFailureCount(), is(0L));
+        } finally {
+            serverSocket.close();
+        }
+    }
+}
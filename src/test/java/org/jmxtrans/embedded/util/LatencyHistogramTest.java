@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import org.junit.Test;
+
+import javax.management.openmbean.CompositeData;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.recordValue(value * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getCount(), is(100000L));
+        assertThat(snapshot.getMax(), is(100000L * 1000));
+        assertWithinRelativeError(snapshot.getValueAtPercentile(50), 50000L * 1000);
+        assertWithinRelativeError(snapshot.getValueAtPercentile(90), 90000L * 1000);
+        assertWithinRelativeError(snapshot.getValueAtPercentile(99), 99000L * 1000);
+        assertThat(snapshot.getValueAtPercentile(100), is(snapshot.getMax()));
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[]{0, 1, 31, 32, 33, 63, 64, 1000, 1L << 20, (1L << 36) - 1, 1L << 36, (1L << 37) - 1}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(Long.toString(value), LatencyHistogram.highestValueOfBucket(index) >= value);
+            if (index > 0) {
+                assertTrue(Long.toString(value), LatencyHistogram.highestValueOfBucket(index - 1) < value);
+            }
+        }
+        // values beyond the range are counted in the last bucket, the max stays exact
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(Long.MAX_VALUE);
+        assertThat(histogram.getSnapshot().getValueAtPercentile(50), is(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testRecordValuesOfTheHighestExponent() {
+        // 2^36 ns is about 69 seconds, a slow collection must not break the histogram
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(1L << 36);
+        histogram.recordValue((1L << 37) - 1);
+        histogram.recordValue(Long.MAX_VALUE);
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertThat(snapshot.getCount(), is(3L));
+        assertThat(snapshot.getMax(), is(Long.MAX_VALUE));
+        assertThat(LatencyHistogram.bucketIndex(1L << 37), is(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testRecentSnapshotIsResetOnRead() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(10);
+        histogram.recordValue(5000);
+        LatencyHistogram.Snapshot recent = histogram.getRecentSnapshot();
+        assertThat(recent.getCount(), is(2L));
+        assertThat(recent.getMax(), is(5000L));
+
+        histogram.recordValue(20);
+        recent = histogram.getRecentSnapshot();
+        assertThat(recent.getCount(), is(1L));
+        assertThat(recent.getMax(), is(20L));
+        assertThat(recent.getValueAtPercentile(99), is(20L));
+
+        recent = histogram.getRecentSnapshot();
+        assertThat(recent.getCount(), is(0L));
+        assertThat(recent.getValueAtPercentile(50), is(0L));
+
+        // the cumulative snapshot is not affected
+        assertThat(histogram.getSnapshot().getCount(), is(3L));
+        assertThat(histogram.getSnapshot().getMax(), is(5000L));
+    }
+
+    @Test
+    public void testCompositeData() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordValue(7);
+        CompositeData compositeData = histogram.getSnapshot().toCompositeData();
+        assertThat((Long) compositeData.get("count"), is(1L));
+        assertThat((Long) compositeData.get("p50"), is(7L));
+        assertThat((Long) compositeData.get("p90"), is(7L));
+        assertThat((Long) compositeData.get("p99"), is(7L));
+        assertThat((Long) compositeData.get("max"), is(7L));
+    }
+
+    private static void assertWithinRelativeError(long actual, long expected) {
+        double relativeError = Math.abs(actual - expected) / (double) expected;
+        assertTrue("actual=" + actual + ", expected=" + expected, relativeError <= 1.0 / 32);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class LruCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        LruCache<String, Integer> cache = new LruCache<String, Integer>(1);
+        cache.put("a", 1);
+        assertThat(cache.get("a"), is(1));
+        cache.put("b", 2);
+        assertThat(cache.get("a"), nullValue());
+        assertThat(cache.get("b"), is(2));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(100);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+            assertThat(cache.size() <= 100, is(true));
+        }
+        // the last inserted entry is always retained
+        assertThat(cache.get(999), is(999));
+    }
+
+    @Test
+    public void testRecentlyReadEntriesAreRetained() {
+        LruCache<Integer, Integer> cache = new LruCache<Integer, Integer>(1000);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertThat(cache.get(i), is(i));
+        }
+        assertThat(cache.size(), is(1000));
+    }
+}
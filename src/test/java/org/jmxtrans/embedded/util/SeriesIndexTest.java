@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util;
+
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class SeriesIndexTest {
+
+    @Test
+    public void testAddIndexOfRemove() {
+        SeriesIndex index = new SeriesIndex(2);
+        int foo = index.add("foo");
+        int bar = index.add("bar");
+        int baz = index.add("baz");
+        assertThat(index.size(), is(3));
+        assertThat(index.indexOf("foo"), is(foo));
+        assertThat(index.indexOf("bar"), is(bar));
+        assertThat(index.indexOf("baz"), is(baz));
+        assertThat(index.indexOf("qux"), is(-1));
+        assertThat(index.getName(bar), is("bar"));
+
+        index.remove(bar);
+        assertThat(index.indexOf("bar"), is(-1));
+        assertThat(index.getName(bar), nullValue());
+        assertThat(index.size(), is(2));
+
+        // removed ids are reused
+        assertThat(index.add("qux"), is(bar));
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        SeriesIndex index = new SeriesIndex(4);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            String name = "series-" + random.nextInt(2000);
+            Integer id = expected.get(name);
+            assertThat(name, index.indexOf(name), is(id == null ? -1 : id));
+            if (id == null) {
+                int newId = index.add(name);
+                assertThat(newId < index.getIdCapacity(), is(true));
+                assertThat(expected.containsValue(newId), is(false));
+                expected.put(name, newId);
+            } else if (random.nextBoolean()) {
+                index.remove(id);
+                expected.remove(name);
+            }
+            assertThat(index.size(), is(expected.size()));
+        }
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertThat(index.indexOf(entry.getKey()), is(entry.getValue()));
+            assertThat(index.getName(entry.getValue()), is(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.concurrent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class DiscardingRingBufferTest {
+    DiscardingRingBuffer<Integer> queue;
+
+    @Before
+    public void before() {
+        queue = new DiscardingRingBuffer<Integer>(5);
+    }
+
+    @Test
+    public void testAdd() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.add(i);
+        }
+        verifyQueueElements();
+    }
+
+    private void verifyQueueElements() {
+        assertThat(queue.remainingCapacity(), is(0));
+        assertThat(queue.getDiscardedElementCount(), is(5));
+        assertThat(queue.poll(), is(5));
+        assertThat(queue.poll(), is(6));
+        assertThat(queue.poll(), is(7));
+        assertThat(queue.poll(), is(8));
+        assertThat(queue.poll(), is(9));
+        assertThat(queue.poll(), nullValue());
+    }
+
+    @Test
+    public void testOffer() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+        verifyQueueElements();
+    }
+
+    @Test
+    public void testPut() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            queue.put(i);
+        }
+        verifyQueueElements();
+    }
+
+    @Test
+    public void testAddAll() throws Exception {
+        List<Integer> integers = Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        queue.addAll(integers);
+
+        verifyQueueElements();
+    }
+
+    @Test
+    public void testRemainingCapacity() throws Exception {
+        List<Integer> integers = Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9);
+        queue.addAll(integers);
+
+        verifyQueueElements();
+        queue.put(10);
+        queue.put(11);
+        assertThat(queue.size(), is(2));
+        assertThat(queue.remainingCapacity(), is(3));
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            queue.offer(i);
+        }
+        List<Integer> drained = new ArrayList<Integer>();
+        assertThat(queue.drainTo(drained, 3), is(3));
+        assertThat(drained, equalTo(Arrays.asList(2, 3, 4)));
+        assertThat(queue.drainTo(drained), is(2));
+        assertThat(drained, equalTo(Arrays.asList(2, 3, 4, 5, 6)));
+        assertThat(queue.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final DiscardingRingBuffer<Integer> ringBuffer = new DiscardingRingBuffer<Integer>(1000);
+        final int producers = 4;
+        final int elementsPerProducer = 10000;
+        final CountDownLatch latch = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < elementsPerProducer; i++) {
+                        ringBuffer.offer(i);
+                    }
+                    latch.countDown();
+                }
+            }.start();
+        }
+        int consumed = 0;
+        while (latch.getCount() > 0 || !ringBuffer.isEmpty()) {
+            if (ringBuffer.poll(1, TimeUnit.MILLISECONDS) != null) {
+                consumed++;
+            }
+        }
+        assertThat(consumed + ringBuffer.getDiscardedElementCount(), is(producers * elementsPerProducer));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.concurrent;
+
+import org.jmxtrans.embedded.util.concurrent.OverflowPolicyBlockingQueue.OverflowPolicy;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+public class OverflowPolicyBlockingQueueTest {
+
+    private static final OverflowPolicyBlockingQueue.Weigher<String> LENGTH_WEIGHER = new OverflowPolicyBlockingQueue.Weigher<String>() {
+        @Override
+        public long weigh(@Nonnull String element) {
+            return element.length();
+        }
+    };
+
+    @Test
+    public void testDropOldest() {
+        OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(5, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertThat(drain(queue).toString(), is("[5, 6, 7, 8, 9]"));
+        assertThat(queue.getDiscardedElementCount(), is(5));
+    }
+
+    @Test
+    public void testDropNewest() {
+        OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(5, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 10; i++) {
+            assertThat(queue.add(i), is(i < 5));
+        }
+        assertThat(drain(queue).toString(), is("[0, 1, 2, 3, 4]"));
+        assertThat(queue.getDiscardedElementCount(), is(5));
+    }
+
+    @Test
+    public void testSampleKeepsElementsFromTheWholeStream() {
+        OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(100, OverflowPolicy.SAMPLE);
+        for (int i = 0; i < 10000; i++) {
+            queue.offer(i);
+        }
+        assertThat(queue.size(), is(100));
+        assertThat(queue.getDiscardedElementCount(), is(10000 - 100));
+        int recent = 0;
+        Set<Integer> elements = new HashSet<Integer>(drain(queue));
+        for (Integer element : elements) {
+            if (element >= 5000) {
+                recent++;
+            }
+        }
+        assertThat(elements.size(), is(100));
+        // uniform sample: about half of the elements come from the second half of the stream
+        assertTrue("recent=" + recent, recent > 25 && recent < 75);
+    }
+
+    @Test
+    public void testBlockWaitsForRoomThenDiscards() throws Exception {
+        final OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(1, 0, null, OverflowPolicy.BLOCK, 50);
+        assertTrue(queue.offer(1));
+        long nanosBefore = System.nanoTime();
+        assertFalse(queue.offer(2));
+        assertTrue(System.nanoTime() - nanosBefore >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertThat(queue.getDiscardedElementCount(), is(1));
+
+        // the queue is still full after a timeout, the next insertions don't wait
+        nanosBefore = System.nanoTime();
+        assertFalse(queue.offer(2));
+        assertFalse(queue.offer(2, 5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - nanosBefore < TimeUnit.MILLISECONDS.toNanos(40));
+        assertThat(queue.getBlockedOfferCount(), is(1));
+        assertThat(queue.getDiscardedElementCount(), is(3));
+
+        // removing an element restores the wait
+        assertThat(queue.poll(), is(1));
+        assertTrue(queue.offer(1));
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // wait for the producer to block
+                    while (queue.getBlockedOfferCount() < 2) {
+                        Thread.sleep(1);
+                    }
+                    queue.poll(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        consumer.start();
+        assertTrue(queue.offer(3, 5, TimeUnit.SECONDS));
+        consumer.join();
+        assertThat(queue.poll(), is(3));
+        assertThat(queue.getBlockedOfferCount(), is(2));
+        assertThat(queue.getDiscardedElementCount(), is(3));
+    }
+
+    @Test
+    public void testBlockPutWaitsWithoutTimeout() throws Exception {
+        final OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(1, 0, null, OverflowPolicy.BLOCK, 10);
+        queue.put(1);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // wait for the producer to block then let the block timeout expire several times
+                    while (queue.getBlockedOfferCount() < 1) {
+                        Thread.sleep(1);
+                    }
+                    Thread.sleep(100);
+                    queue.poll();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        consumer.start();
+        queue.put(2);
+        consumer.join();
+        assertThat(queue.poll(), is(2));
+        assertThat(queue.getBlockedOfferCount(), is(1));
+        assertThat(queue.getDiscardedElementCount(), is(0));
+    }
+
+    @Test
+    public void testCapacityInBytes() {
+        OverflowPolicyBlockingQueue<String> queue = new OverflowPolicyBlockingQueue<String>(100, 10, LENGTH_WEIGHER, OverflowPolicy.DROP_OLDEST, 0);
+        queue.offer("aaaa");
+        queue.offer("bbbb");
+        assertThat(queue.getSizeInBytes(), is(8L));
+        queue.offer("cccccc");
+        assertThat(drain(queue).toString(), is("[bbbb, cccccc]"));
+        assertThat(queue.getSizeInBytes(), is(0L));
+        assertThat(queue.getDiscardedElementCount(), is(1));
+
+        // heavier than the capacity
+        assertFalse(queue.offer("ddddddddddddd"));
+        assertThat(queue.size(), is(0));
+        assertThat(queue.getDiscardedElementCount(), is(2));
+    }
+
+    @Test
+    public void testDrainToAndIterator() {
+        OverflowPolicyBlockingQueue<Integer> queue = new OverflowPolicyBlockingQueue<Integer>(3, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            queue.offer(i);
+        }
+        List<Integer> iterated = new ArrayList<Integer>();
+        for (Integer element : queue) {
+            iterated.add(element);
+        }
+        assertThat(iterated.toString(), is("[2, 3, 4]"));
+        List<Integer> drained = new ArrayList<Integer>();
+        assertThat(queue.drainTo(drained, 2), is(2));
+        assertThat(drained.toString(), is("[2, 3]"));
+        assertThat(queue.peek(), is(4));
+        assertThat(queue.remainingCapacity(), is(2));
+    }
+
+    private static <E> List<E> drain(OverflowPolicyBlockingQueue<E> queue) {
+        List<E> result = new ArrayList<E>();
+        queue.drainTo(result);
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2010-2013 the original author or authors
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ * 
+ */
+package org.jmxtrans.embedded.util.net;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ * Expected nodes are the ones chosen by carbon's {@code ConsistentHashRing} with the same destinations.
+ */
+public class ConsistentHashRingTest {
+
+    @Test
+    public void testGetNodeWithInstancesLikeCarbon() {
+        HostAndPort a = new HostAndPort("127.0.0.1", 2104);
+        HostAndPort b = new HostAndPort("127.0.0.1", 2204);
+        HostAndPort c = new HostAndPort("127.0.0.1", 2304);
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode(a, "a");
+        ring.addNode(b, "b");
+        ring.addNode(c, "c");
+
+        HostAndPort[] expected = {c, c, a, b, a, c, a, a, b, c};
+        for (int i = 0; i < expected.length; i++) {
+            assertThat("metric-" + i, ring.getNode("servers.test.metric-" + i), is(expected[i]));
+            assertThat("metric-" + i, ring.getNode("servers.test.".getBytes(Charset.forName("UTF-8")), "metric-" + i), is(expected[i]));
+        }
+    }
+
+    @Test
+    public void testGetNodeWithoutInstancesLikeCarbon() {
+        HostAndPort carbon1 = new HostAndPort("carbon1", 2004);
+        HostAndPort carbon2 = new HostAndPort("carbon2", 2004);
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode(carbon1, null);
+        ring.addNode(carbon2, null);
+
+        assertThat(ring.getNode("foo.bar"), is(carbon1));
+        assertThat(ring.getNode("a.b.c"), is(carbon2));
+        assertThat(ring.getNode("jvm.heap.used"), is(carbon1));
+        assertThat(ring.getNode("x"), is(carbon2));
+    }
+
+    @Test
+    public void testGetNodesStartsWithTheNodeOfTheKey() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        ring.addNode(new HostAndPort("carbon1", 2004), null);
+        ring.addNode(new HostAndPort("carbon2", 2004), null);
+        ring.addNode(new HostAndPort("carbon3", 2004), null);
+
+        for (int i = 0; i < 100; i++) {
+            String key = "servers.test.metric-" + i;
+            List<HostAndPort> nodes = ring.getNodes(key);
+            assertThat(nodes.size(), is(3));
+            assertThat(nodes.get(0), is(ring.getNode(key)));
+            assertThat(ring.getNodes("servers.".getBytes(Charset.forName("UTF-8")), "test.metric-" + i), is(nodes));
+            assertThat(nodes.get(1), not(nodes.get(0)));
+            assertThat(nodes.get(2), not(nodes.get(1)));
+            assertThat(nodes.get(2), not(nodes.get(0)));
+        }
+    }
+}